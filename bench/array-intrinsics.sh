@@ -0,0 +1,61 @@
+#!/bin/sh
+# Compares filling, copying and summing an array with loops against the fill, copy and sum
+# intrinsics, and times sort on the same array for a twentieth of the passes. Every program
+# repeats its work and prints a checksum.
+# Usage: bench/array-intrinsics.sh [runs] [elements] [passes]
+RUNS=${1:-3}
+ELEMENTS=${2:-1000000}
+PASSES=${3:-200}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# generate <name> <passes> <statements of a pass>
+generate() {
+    cat > "$DIR/$1.pas" << EOF
+program $1;
+var a : array [1 .. $ELEMENTS] of integer;
+    c : array [1 .. $ELEMENTS] of integer;
+    i, p, s : integer;
+begin
+    s := 0;
+    for p := 1 to $2 do begin
+        $3
+    end;
+    write(s);
+end.
+EOF
+    (cd "$DIR" && java -jar "$JAR" "$1.pas" > /dev/null) || exit 1
+}
+
+# measure <label> <class>
+measure() {
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        java -cp "$DIR:$JAR" "$2" > "$DIR/$2.out" || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$1: $(( (end - start) / RUNS )) ms per run"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+generate loops "$PASSES" "for i := 1 to $ELEMENTS do a[i] := p;
+        for i := 1 to $ELEMENTS do c[i] := a[i];
+        for i := 1 to $ELEMENTS do s := s + c[i];"
+generate intrinsics "$PASSES" "fill(a, p);
+        copy(a, c);
+        s := s + sum(c);"
+generate sorts "$((PASSES / 20))" "for i := 1 to $ELEMENTS do a[i] := (i * 7919 + p) mod 1000003;
+        sort(a);
+        s := s + a[1];"
+measure "$PASSES passes over $ELEMENTS elements, fill, copy and sum loops" Loops
+measure "$PASSES passes over $ELEMENTS elements, fill, copy and sum intrinsics" Intrinsics
+cmp -s "$DIR/Loops.out" "$DIR/Intrinsics.out" || echo "outputs differ"
+measure "$((PASSES / 20)) passes over $ELEMENTS elements, sort" Sorts
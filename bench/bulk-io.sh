@@ -0,0 +1,47 @@
+#!/bin/sh
+# Compares writing an array element by element with writing it with one bulk write(a).
+# Both programs print the same lines. Reads aren't measured here.
+# Usage: bench/bulk-io.sh [runs] [elements]
+RUNS=${1:-3}
+ELEMENTS=${2:-1000000}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# generate <name> <write statement>
+generate() {
+    cat > "$DIR/$1.pas" << EOF
+program $1;
+var a : array [1 .. $ELEMENTS] of integer;
+    i : integer;
+begin
+    for i := 1 to $ELEMENTS do a[i] := i * 7;
+    $2;
+end.
+EOF
+    (cd "$DIR" && java -jar "$JAR" "$1.pas" > /dev/null) || exit 1
+}
+
+# measure <label> <class>
+measure() {
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        java -cp "$DIR:$JAR" "$2" > "$DIR/$2.out" || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$1: $(( (end - start) / RUNS )) ms per run"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+generate elements "for i := 1 to $ELEMENTS do write(a[i])"
+generate bulk "write(a)"
+measure "$ELEMENTS elements, one write per element" Elements
+measure "$ELEMENTS elements, write(a)" Bulk
+cmp -s "$DIR/Elements.out" "$DIR/Bulk.out" || echo "outputs differ"
@@ -0,0 +1,67 @@
+#!/bin/sh
+# Compares dispatching on one of 16 values with a chain of comparisons, with an else-if chain the
+# compiler turns into a switch and with a case statement. The parentheses around the conditions
+# of the first program keep it a chain of comparisons, only plain `v = constant` conditions are
+# switched on. Every program prints the same checksum.
+# Usage: bench/case-dispatch.sh [runs] [iterations]
+RUNS=${1:-3}
+ITERATIONS=${2:-100000000}
+BRANCHES=16
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# generate <name> <dispatch on d>
+generate() {
+    cat > "$DIR/$1.pas" << EOF
+program $1;
+var i, d, s : integer;
+begin
+    s := 0;
+    for i := 1 to $ITERATIONS do begin
+        d := (i * 7919) mod $BRANCHES;
+        $2;
+    end;
+    write(s);
+end.
+EOF
+    (cd "$DIR" && java -jar "$JAR" "$1.pas" > /dev/null) || exit 1
+}
+
+# chain <condition format> <separator>, the format gets the value of the branch
+chain() {
+    k=0
+    while [ $k -lt $BRANCHES ]; do
+        [ $k -gt 0 ] && printf '\n        %s ' "$2"
+        printf "$1"' s := s + %d' $k $((k * k + 1))
+        k=$((k + 1))
+    done
+}
+
+# measure <label> <class>
+measure() {
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        java -cp "$DIR:$JAR" "$2" > "$DIR/$2.out" || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$1: $(( (end - start) / RUNS )) ms per run"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+generate compares "$(chain 'if (d = %d) then' else)"
+generate chains "$(chain 'if d = %d then' else)"
+generate cases "case d of
+        $(chain '%d :' ';')
+    end"
+measure "$ITERATIONS dispatches on $BRANCHES values, comparisons" Compares
+measure "$ITERATIONS dispatches on $BRANCHES values, else-if chain" Chains
+measure "$ITERATIONS dispatches on $BRANCHES values, case" Cases
+cmp -s "$DIR/Compares.out" "$DIR/Cases.out" && cmp -s "$DIR/Chains.out" "$DIR/Cases.out" || echo "outputs differ"
@@ -0,0 +1,48 @@
+#!/bin/sh
+# Measures the time from JVM start to the first line of output with and without Class Data
+# Sharing archives, for the compiler compiling a sample and for a sample run from a jar of programs.
+# The archive of the compiler is the one `mvn package -Pcds` writes, it's recorded the same way
+# here if it's missing. The jar of programs gets its archive from -cds.
+# Usage: bench/cds.sh [runs]
+RUNS=${1:-10}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# measure <label> <command...>, run in $DIR
+measure() {
+    label=$1
+    shift
+    total=0
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        start=$(now_ms)
+        first=$(cd "$DIR" && "$@" | { read -r line; now_ms; cat > /dev/null; })
+        total=$((total + first - start))
+        i=$((i + 1))
+    done
+    echo "$label: $((total / RUNS)) ms to first output"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+SAMPLES=$(cd "$(dirname "$0")/../bin" && pwd)
+ARCHIVE=${JAR%.jar}.jsa
+
+if [ ! -f "$ARCHIVE" ]; then
+    ARCHIVE=$DIR/compiler.jsa
+    (cd "$DIR" && java -XX:ArchiveClassesAtExit="$ARCHIVE" -jar "$JAR" -jar=training.jar \
+        "$SAMPLES"/test1.pas "$SAMPLES"/test4.pas "$SAMPLES"/test7.pas "$SAMPLES"/test8.pas \
+        "$SAMPLES"/test10.pas "$SAMPLES"/test11.pas > /dev/null 2>&1) || exit 1
+fi
+(cd "$DIR" && java -jar "$JAR" -cds -jar=programs.jar "$SAMPLES"/test4.pas "$SAMPLES"/test8.pas > /dev/null) || exit 1
+
+measure "compiler, no CDS" java -Xshare:off -jar "$JAR" "$SAMPLES/test7.pas"
+measure "compiler, JDK archive" java -jar "$JAR" "$SAMPLES/test7.pas"
+measure "compiler, compiler archive" java -XX:SharedArchiveFile="$ARCHIVE" -jar "$JAR" "$SAMPLES/test7.pas"
+measure "program, no CDS" java -Xshare:off -jar programs.jar Test4
+measure "program, JDK archive" java -jar programs.jar Test4
+measure "program, programs archive" java -XX:SharedArchiveFile=programs.jsa -jar programs.jar Test4
@@ -0,0 +1,36 @@
+#!/bin/sh
+# Compares cold compiler invocations with requests served by a warm compile server.
+# Usage: bench/compile-latency.sh [runs] [source.pas]
+RUNS=${1:-20}
+SOURCE=${2:-bin/test4.pas}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+PORT=${PORT:-7532}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+measure() {
+    label=$1
+    shift
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        "$@" > /dev/null || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$label: $(( (end - start) / RUNS )) ms per compile ($RUNS runs)"
+}
+
+measure "cold java -jar" java -jar "$JAR" "$SOURCE"
+
+LOG=$(mktemp)
+java -cp "$JAR" compiler.server.CompileServer "$PORT" > "$LOG" &
+SERVER=$!
+trap 'kill $SERVER; rm -f "$LOG"' EXIT
+until grep -q listening "$LOG"; do
+    sleep 1
+done
+
+measure "client -> warm server" java -cp "$JAR" -Dcompiler.server.port="$PORT" compiler.server.CompileClient "$SOURCE"
@@ -0,0 +1,78 @@
+#!/bin/sh
+# Generates programs growing in nesting depth and in size and reports compile time and peak
+# memory, which should both grow linearly with the size of the source.
+# Every generated function holds an expression with DEPTH nested parentheses and an else-if chain
+# of DEPTH branches and calls the previous one, so none of them is dropped as unreachable.
+# The depth is bounded by the 64 KB code limit of a JVM method, larger sources have more functions.
+# Usage: bench/deep-nesting.sh
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# peak resident set size in kB, sampled while the compiler runs
+peak_rss() {
+    "$@" > /dev/null &
+    pid=$!
+    peak=0
+    while kill -0 $pid 2> /dev/null; do
+        rss=$(awk '/^VmHWM:/ { print $2 }' /proc/$pid/status 2> /dev/null)
+        [ -n "$rss" ] && [ "$rss" -gt "$peak" ] && peak=$rss
+        sleep 0.01
+    done
+    wait $pid || exit 1
+    echo $peak
+}
+
+# generate <functions> <depth>
+generate() {
+    awk -v functions="$1" -v depth="$2" 'BEGIN {
+        print "program deep;"
+        for (f = 0; f < functions; f++) {
+            print "function f" f "(x : integer) : integer;"
+            print "var y : integer;"
+            print "begin"
+            printf "    y := "
+            for (i = 0; i < depth; i++)
+                printf "(x + "
+            printf "1"
+            for (i = 0; i < depth; i++)
+                printf ")"
+            print ";"
+            printf "    "
+            for (i = 0; i < depth; i++)
+                printf "if x = %d then y := y + %d else\n    ", i, i
+            print "y := y - 1;"
+            if (f > 0)
+                print "    y := y + f" f - 1 "(x - 1);"
+            print "    f" f " := y;"
+            print "end;"
+        }
+        print "begin"
+        print "    write(f" functions - 1 "(" functions "));"
+        print "end."
+    }'
+}
+
+# measure <functions> <depth>
+measure() {
+    generate "$1" "$2" > "$DIR/deep.pas"
+    size=$(wc -c < "$DIR/deep.pas")
+    start=$(now_ms)
+    (cd "$DIR" && java -jar "$JAR" deep.pas > /dev/null) || exit 1
+    end=$(now_ms)
+    rss=$(cd "$DIR" && peak_rss java -jar "$JAR" deep.pas)
+    echo "$1 functions of depth $2: $size bytes, $((end - start)) ms, peak rss $rss kB"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+for depth in 250 500 1000 2000; do
+    measure 1 "$depth"
+done
+for functions in 100 200 400 800; do
+    measure "$functions" 100
+done
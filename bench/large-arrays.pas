@@ -0,0 +1,17 @@
+program largeArrays;
+var i, n, s : integer;
+  keys, values : array [1 .. 16000000] of integer;
+  grid : array [0 .. 3999, 0 .. 3999] of integer;
+  small : array [1 .. 100] of integer;
+
+begin
+    n := 100;
+    for i := 1 to n do begin
+        keys[i] := n - i;
+        small[i] := keys[i] * 2;
+    end;
+    s := 0;
+    for i := 1 to n do s := s + small[i];
+    if n > 1000 then s := s + values[n] + grid[n mod 4000, n / 4000];
+    write(s);
+end.
@@ -0,0 +1,50 @@
+#!/bin/sh
+# Compares eager and lazy allocation of large global arrays on a program that declares
+# worst-case buffers but touches a small part of them.
+# Usage: bench/lazy-arrays.sh [runs] [source.pas]
+RUNS=${1:-10}
+SOURCE=${2:-bench/large-arrays.pas}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# peak resident set size in kB, sampled while the program runs
+peak_rss() {
+    "$@" > /dev/null &
+    pid=$!
+    peak=0
+    while kill -0 $pid 2> /dev/null; do
+        rss=$(awk '/^VmHWM:/ { print $2 }' /proc/$pid/status 2> /dev/null)
+        [ -n "$rss" ] && [ "$rss" -gt "$peak" ] && peak=$rss
+        sleep 0.01
+    done
+    wait $pid
+    echo $peak
+}
+
+measure() {
+    label=$1
+    dir=$2
+    class=$(ls "$dir" | sed -n 's/\.class$//p' | head -1)
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        java -cp "$dir:$JAR" "$class" > /dev/null || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$label: $(( (end - start) / RUNS )) ms per run, peak rss $(peak_rss java -cp "$dir:$JAR" "$class") kB"
+}
+
+EAGER=$(mktemp -d)
+LAZY=$(mktemp -d)
+trap 'rm -rf "$EAGER" "$LAZY"' EXIT
+SOURCE=$(cd "$(dirname "$SOURCE")" && pwd)/$(basename "$SOURCE")
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+(cd "$EAGER" && java -jar "$JAR" "$SOURCE" > /dev/null) || exit 1
+(cd "$LAZY" && java -jar "$JAR" -lazy-arrays "$SOURCE" > /dev/null) || exit 1
+
+measure "eager arrays" "$EAGER"
+measure "lazy arrays" "$LAZY"
@@ -0,0 +1,22 @@
+program matrix;
+var i, j, k, r, s : integer;
+    a, b, c : array [1 .. 400, 1 .. 400] of integer;
+begin
+    for i := 1 to 400 do
+        for j := 1 to 400 do begin
+            a[i, j] := (i * 7 + j) mod 13;
+            b[i, j] := (i + j * 3) mod 11;
+        end;
+    for r := 1 to 6 do
+        for i := 1 to 400 do
+            for j := 1 to 400 do begin
+                s := 0;
+                for k := 1 to 400 do
+                    s := s + a[i, k] * b[k, j];
+                c[i, j] := s + r;
+            end;
+    s := 0;
+    for i := 1 to 400 do
+        s := s + c[i, 401 - i];
+    write(s);
+end.
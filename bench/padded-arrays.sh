@@ -0,0 +1,51 @@
+#!/bin/sh
+# Compares the dense and the padded layout of multi-dimensional arrays on a 2-D matrix product
+# and a 3-D stencil. The padded layout rounds inner dimensions up to powers of two: 400 -> 512
+# for the matrices (28% more memory), 120 -> 128 for the grids (14% more memory).
+# Usage: bench/padded-arrays.sh [runs]
+RUNS=${1:-5}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# peak resident set size in kB, sampled while the program runs
+peak_rss() {
+    "$@" > /dev/null &
+    pid=$!
+    peak=0
+    while kill -0 $pid 2> /dev/null; do
+        rss=$(awk '/^VmHWM:/ { print $2 }' /proc/$pid/status 2> /dev/null)
+        [ -n "$rss" ] && [ "$rss" -gt "$peak" ] && peak=$rss
+        sleep 0.01
+    done
+    wait $pid
+    echo $peak
+}
+
+# measure <label> <source> [compiler options...]
+measure() {
+    label=$1
+    source=$2
+    shift 2
+    dir=$(mktemp -d)
+    (cd "$dir" && java -jar "$JAR" "$@" "$source" > /dev/null) || exit 1
+    class=$(ls "$dir" | sed -n 's/\.class$//p' | head -1)
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        java -cp "$dir:$JAR" "$class" > /dev/null || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$label: $(( (end - start) / RUNS )) ms per run, peak rss $(peak_rss java -cp "$dir:$JAR" "$class") kB"
+    rm -rf "$dir"
+}
+
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+for name in matrix stencil; do
+    source=$(cd "$(dirname "$0")" && pwd)/$name.pas
+    measure "$name dense" "$source"
+    measure "$name padded" "$source" -pad-arrays
+done
@@ -0,0 +1,70 @@
+#!/bin/sh
+# Compares many generated programs compiled into loose class files with the same programs
+# compiled into one jar with the shared runtime. Reports the size of the output, the time to run
+# every program in its own JVM, and the time and number of loaded classes when the launcher of
+# the jar runs all of them in one JVM.
+# Usage: bench/program-jar.sh [programs]
+PROGRAMS=${1:-100}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# generate <number>
+generate() {
+    awk -v n="$1" 'BEGIN {
+        print "program p" n ";"
+        print "var a : array [1 .. 10] of integer;"
+        print "    i, s : integer;"
+        print "begin"
+        print "    s := " n ";"
+        print "    for i := 1 to 10 do begin"
+        print "        a[i] := s mod (i + 1);"
+        print "        s := s + a[i] * i;"
+        print "    end;"
+        print "    write(s);"
+        print "    write(s > 100);"
+        print "end."
+    }'
+}
+
+# measure <label> <command...>, the command is run once per program with its class name appended
+measure() {
+    label=$1
+    shift
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$PROGRAMS" ]; do
+        "$@" P$i > /dev/null || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$label: $(( (end - start) / PROGRAMS )) ms per program"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+mkdir "$DIR/src" "$DIR/loose"
+i=0
+while [ $i -lt "$PROGRAMS" ]; do
+    generate $i > "$DIR/src/p$i.pas"
+    i=$((i + 1))
+done
+(cd "$DIR/loose" && java -jar "$JAR" "$DIR"/src/*.pas > /dev/null) || exit 1
+(cd "$DIR" && java -jar "$JAR" -jar=programs.jar "$DIR"/src/*.pas > /dev/null) || exit 1
+echo "$PROGRAMS programs: $(cat "$DIR"/loose/*.class | wc -c) bytes of loose classes," \
+    "$(wc -c < "$DIR/programs.jar") bytes of jar with the runtime"
+
+measure "loose classes" java -cp "$DIR/loose:$JAR"
+measure "jar" java -jar "$DIR/programs.jar"
+
+names=$(ls "$DIR/loose" | sed -n 's/\.class$//p')
+start=$(now_ms)
+java -jar "$DIR/programs.jar" $names > /dev/null || exit 1
+end=$(now_ms)
+echo "jar, one JVM: $(( (end - start) / PROGRAMS )) ms per program," \
+    "$(java -verbose:class -jar "$DIR/programs.jar" $names | grep -c 'class,load\|Loaded') classes loaded," \
+    "$(java -verbose:class -cp "$DIR/loose:$JAR" P0 | grep -c 'class,load\|Loaded') for one loose program"
@@ -0,0 +1,21 @@
+program matmul;
+var a, b, c : array [1 .. 160, 1 .. 160] of integer;
+    i, j, k, s : integer;
+begin
+    for i := 1 to 160 do
+        for j := 1 to 160 do begin
+            a[i, j] := (i * 7 + j) mod 13;
+            b[i, j] := (i + j * 3) mod 11;
+        end;
+    for i := 1 to 160 do
+        for j := 1 to 160 do begin
+            s := 0;
+            for k := 1 to 160 do
+                s := s + a[i, k] * b[k, j];
+            c[i, j] := s;
+        end;
+    s := 0;
+    for i := 1 to 160 do
+        s := s + c[i, 161 - i];
+    write(s);
+end.
@@ -0,0 +1,24 @@
+program recursion;
+
+function fib(n : integer) : integer;
+begin
+    if n < 2 then fib := n;
+    fib := fib(n - 1) + fib(n - 2);
+end;
+
+function ackermann(m : integer n : integer) : integer;
+begin
+    if m = 0 then ackermann := n + 1;
+    if n = 0 then ackermann := ackermann(m - 1, 1);
+    ackermann := ackermann(m - 1, ackermann(m, n - 1));
+end;
+
+function hanoi(n : integer) : integer;
+begin
+    if n = 0 then hanoi := 0;
+    hanoi := 2 * hanoi(n - 1) + 1;
+end;
+
+begin
+    write(fib(27), ackermann(2, 300), hanoi(20));
+end.
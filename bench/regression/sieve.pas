@@ -0,0 +1,20 @@
+program sieve;
+var composite : array [2 .. 2000000] of integer;
+    i, j, count, last : integer;
+begin
+    for i := 2 to 2000000 do composite[i] := 0;
+    count := 0;
+    for i := 2 to 2000000 do
+        if composite[i] = 0 then begin
+            count := count + 1;
+            last := i;
+            if i <= 1414 then begin
+                j := i * i;
+                while j <= 2000000 do begin
+                    composite[j] := 1;
+                    j := j + i;
+                end;
+            end;
+        end;
+    write(count, last);
+end.
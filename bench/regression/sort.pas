@@ -0,0 +1,24 @@
+program sort;
+var a : array [1 .. 4000] of integer;
+    i, j, t, seed, s : integer;
+begin
+    seed := 12345;
+    for i := 1 to 4000 do begin
+        seed := (seed * 1103 + 12345) mod 65536;
+        a[i] := seed;
+    end;
+    for i := 2 to 4000 do begin
+        t := a[i];
+        j := i - 1;
+        while j > 0 do begin
+            if a[j] <= t then break;
+            a[j + 1] := a[j];
+            j := j - 1;
+        end;
+        a[j + 1] := t;
+    end;
+    s := 0;
+    for i := 1 to 4000 do
+        s := (s * 31 + a[i]) mod 1000003;
+    write(a[1], a[2000], a[4000], s);
+end.
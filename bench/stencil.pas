@@ -0,0 +1,24 @@
+program stencil;
+var x, y, z, t, s : integer;
+    u, v : array [1 .. 120, 1 .. 120, 1 .. 120] of integer;
+begin
+    for z := 1 to 120 do
+        for y := 1 to 120 do
+            for x := 1 to 120 do
+                u[x, y, z] := (x * 31 + y * 17 + z) mod 100;
+    for t := 1 to 100 do begin
+        for z := 2 to 119 do
+            for y := 2 to 119 do
+                for x := 2 to 119 do
+                    v[x, y, z] := (u[x - 1, y, z] + u[x + 1, y, z] + u[x, y - 1, z] + u[x, y + 1, z]
+                            + u[x, y, z - 1] + u[x, y, z + 1]) / 6;
+        for z := 2 to 119 do
+            for y := 2 to 119 do
+                for x := 2 to 119 do
+                    u[x, y, z] := v[x, y, z];
+    end;
+    s := 0;
+    for x := 1 to 120 do
+        s := s + u[x, 60, 121 - x];
+    write(s);
+end.
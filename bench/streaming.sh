@@ -0,0 +1,74 @@
+#!/bin/sh
+# Compares the heap needed to compile generated programs of growing size as a whole and with
+# -stream, which translates one function at a time and drops its parse tree. Prints the smallest
+# of a series of -Xmx limits each compile succeeds with.
+# Every generated function is the same size and calls the previous one, so none of them is
+# dropped as unreachable. The last measurement compiles the program with a uses clause and a call
+# to the unit, to show that reading a unit doesn't keep the source around either.
+# Usage: bench/streaming.sh [functions...]
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+# generate <functions> [uses clause]
+generate() {
+    awk -v functions="$1" -v uses="$2" 'BEGIN {
+        print "program big;"
+        if (uses != "")
+            print uses
+        print "var g : array [1 .. 100] of integer;"
+        for (f = 0; f < functions; f++) {
+            print "function f" f "(x : integer) : integer;"
+            print "var i, s : integer;"
+            print "begin"
+            print "    s := 0;"
+            print "    for i := 1 to 10 do begin"
+            print "        if (i mod 3 = 0) and (x > i) then s := s + g[i] * (x - i) else s := s - i;"
+            print "        g[i] := s + " f ";"
+            print "    end;"
+            if (f > 0)
+                print "    s := s + f" f - 1 "(x - 1);"
+            print "    f" f " := s;"
+            print "end;"
+        }
+        print "begin"
+        if (uses != "")
+            print "    write(twice(f" functions - 1 "(10)));"
+        else
+            print "    write(f" functions - 1 "(10));"
+        print "end."
+    }'
+}
+
+# measure <label> [compiler options...]
+measure() {
+    label=$1
+    shift
+    for heap in 16 32 64 128 256 512 1024 2048; do
+        start=$(now_ms)
+        if (cd "$DIR" && java -Xmx${heap}m -jar "$JAR" "$@" big.pas > /dev/null 2>&1); then
+            end=$(now_ms)
+            echo "  $label: fits into -Xmx${heap}m, $((end - start)) ms"
+            return
+        fi
+    done
+    echo "  $label: doesn't fit into -Xmx2048m"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+printf 'unit lib;\nfunction twice(x : integer) : integer;\nbegin\n    twice := 2 * x;\nend;\nend.\n' > "$DIR/lib.pas"
+(cd "$DIR" && java -jar "$JAR" lib.pas > /dev/null) || exit 1
+
+[ $# -eq 0 ] && set -- 500 1000 2000 4000
+for functions in "$@"; do
+    generate "$functions" > "$DIR/big.pas"
+    echo "$functions functions, $(wc -c < "$DIR/big.pas") bytes"
+    measure "whole program"
+    measure "-stream" -stream
+    generate "$functions" "uses lib;" > "$DIR/big.pas"
+    measure "-stream, uses a unit" -stream
+done
@@ -0,0 +1,39 @@
+#!/bin/sh
+# Compares compiling a program and running its class with running it directly in the tiered
+# interpreter, which only translates the program once it gets hot.
+# Usage: bench/tiered-run.sh [runs] [source.pas]
+RUNS=${1:-10}
+SOURCE=${2:-bin/test4.pas}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+compile_and_run() {
+    (cd "$DIR" && java -jar "$JAR" "$SOURCE" > /dev/null) || return 1
+    class=$(ls "$DIR" | sed -n 's/\.class$//p' | head -1)
+    java -cp "$DIR:$JAR" "$class"
+}
+
+measure() {
+    label=$1
+    shift
+    start=$(now_ms)
+    i=0
+    while [ $i -lt "$RUNS" ]; do
+        "$@" > /dev/null || exit 1
+        i=$((i + 1))
+    done
+    end=$(now_ms)
+    echo "$label: $(( (end - start) / RUNS )) ms per run ($RUNS runs)"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+SOURCE=$(cd "$(dirname "$SOURCE")" && pwd)/$(basename "$SOURCE")
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+measure "compile, then run" compile_and_run
+measure "-run" java -jar "$JAR" -run "$SOURCE"
+measure "-run, never translated" java -Dcompiler.tier.threshold=-1 -jar "$JAR" -run "$SOURCE"
@@ -0,0 +1,80 @@
+#!/bin/sh
+# Compares a corpus of generated programs that each carry copies of the same helper functions
+# with the same programs using the helpers from a unit compiled once. Reports the time to
+# compile the corpus into a jar and the time the launcher of the jar runs every program in one
+# JVM, where the copies are loaded and compiled by the JIT once per program and the unit once.
+# Usage: bench/units.sh [programs] [helpers]
+PROGRAMS=${1:-100}
+HELPERS=${2:-20}
+JAR=${JAR:-target/compiler-1.1-SNAPSHOT-jar-with-dependencies.jar}
+
+now_ms() {
+    date +%s%N | cut -c1-13
+}
+
+helpers() {
+    awk -v n="$HELPERS" 'BEGIN {
+        for (k = 1; k <= n; k++) {
+            print "function h" k "(x : integer y : integer) : integer;"
+            print "var i, s : integer;"
+            print "begin"
+            print "    s := x;"
+            print "    for i := 1 to y do"
+            print "        s := (s * " k + 30 " + i) mod 1000003;"
+            print "    h" k " := s;"
+            print "end;"
+            print ""
+        }
+    }'
+}
+
+# generate <number> <uses clause or nothing>
+generate() {
+    echo "program p$1;"
+    [ -n "$2" ] && echo "$2"
+    echo "var s, r : integer;"
+    [ -z "$2" ] && helpers
+    echo "begin"
+    echo "    s := $1;"
+    echo "    for r := 1 to 200 do begin"
+    k=1
+    while [ $k -le "$HELPERS" ]; do
+        echo "        s := h$k(s, 100);"
+        k=$((k + 1))
+    done
+    echo "    end;"
+    echo "    write(s);"
+    echo "end."
+}
+
+# measure <label> <directory> <compiler options>
+measure() {
+    start=$(now_ms)
+    (cd "$2" && java -jar "$JAR" $3 -jar=programs.jar p*.pas > /dev/null) || exit 1
+    end=$(now_ms)
+    echo "$1: compiled in $((end - start)) ms"
+    start=$(now_ms)
+    java -jar "$2/programs.jar" $NAMES > "$2/all.out" || exit 1
+    end=$(now_ms)
+    echo "$1: ran in $((end - start)) ms"
+}
+
+DIR=$(mktemp -d)
+trap 'rm -rf "$DIR"' EXIT
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+mkdir "$DIR/copies" "$DIR/units" "$DIR/lib"
+
+(echo "unit helpers;"; echo; helpers; echo "end.") > "$DIR/lib/helpers.pas"
+(cd "$DIR/lib" && java -jar "$JAR" helpers.pas > /dev/null) || exit 1
+NAMES=
+i=1
+while [ $i -le "$PROGRAMS" ]; do
+    generate $i > "$DIR/copies/p$i.pas"
+    generate $i "uses helpers;" > "$DIR/units/p$i.pas"
+    NAMES="$NAMES P$i"
+    i=$((i + 1))
+done
+
+measure "$PROGRAMS programs with $HELPERS copied helpers" "$DIR/copies"
+measure "$PROGRAMS programs using a unit of $HELPERS helpers" "$DIR/units" "-units=$DIR/lib"
+cmp -s "$DIR/copies/all.out" "$DIR/units/all.out" || echo "outputs differ"
@@ -0,0 +1,33 @@
+unit numbers;
+
+function gcd(a : integer b : integer) : integer;
+var t : integer;
+begin
+    while b <> 0 do begin
+        t := a mod b;
+        a := b;
+        b := t;
+    end;
+    gcd := a;
+end;
+
+function fib(n : integer) : integer;
+begin
+    if n < 2 then fib := n;
+    fib := fib(n - 1) + fib(n - 2);
+end;
+
+function total(p : array [1 .. 3] of integer) : integer;
+var i, s : integer;
+begin
+    s := 0;
+    for i := 1 to 3 do s := s + p[i];
+    total := s;
+end;
+
+function odd(n : integer) : boolean;
+begin
+    odd := n mod 2 <> 0;
+end;
+
+end.
@@ -0,0 +1,39 @@
+program test10;
+var i, s : integer;
+  g : array [1 .. 10] of integer;
+
+function squares(n : integer) : integer;
+var k, acc : integer;
+    tmp : array [1 .. 1000] of integer;
+begin
+    acc := tmp[n];
+    for k := 1 to n do tmp[k] := k * k;
+    for k := 1 to n do acc := acc + tmp[k];
+    squares := acc;
+end;
+
+function depth(n : integer) : integer;
+var buf : array [1 .. 4] of integer;
+begin
+    buf[1] := n;
+    if n > 0 then buf[2] := depth(n - 1) else buf[2] := 0;
+    depth := buf[1] + buf[2] + buf[3];
+    buf[3] := 7;
+end;
+
+function keep(n : integer) : array [1 .. 10] of integer;
+var t : array [1 .. 10] of integer;
+begin
+    t[1] := n;
+    keep := t;
+end;
+
+begin
+    s := 0;
+    for i := 1 to 2000 do s := s + squares(i mod 50 + 1);
+    write(s);
+    for i := 1 to 30 do s := s + depth(i);
+    write(s);
+    g := keep(5);
+    write(g[1]);
+end.
@@ -0,0 +1,52 @@
+program test11;
+var a, b, c : array [1 .. 3] of integer;
+  s : integer;
+
+function double(p : array [1 .. 3] of integer) : array [1 .. 3] of integer;
+var i : integer;
+begin
+    for i := 1 to 3 do p[i] := p[i] * 2;
+    double := p;
+end;
+
+function total(p : array [1 .. 3] of integer) : integer;
+var i, t : integer;
+begin
+    t := 0;
+    for i := 1 to 3 do t := t + p[i];
+    total := t;
+end;
+
+function poke(p : array [1 .. 3] of integer) : integer;
+begin
+    a[1] := 100;
+    poke := p[1];
+end;
+
+function same(p : array [1 .. 3] of integer) : array [1 .. 3] of integer;
+begin
+    same := p;
+end;
+
+function fresh(n : integer) : array [1 .. 3] of integer;
+var t : array [1 .. 3] of integer;
+begin
+    t[1] := n;
+    fresh := t;
+end;
+
+begin
+    a[1] := 1; a[2] := 2; a[3] := 3;
+    b := double(a);
+    write(a[1], b[1]);
+    c := a;
+    c[2] := 50;
+    write(a[2], c[2], total(a), total(c));
+    write(poke(a), a[1]);
+    b := same(a);
+    b[3] := 9;
+    write(a[3]);
+    b := fresh(4);
+    c := fresh(5);
+    write(b[1], c[1]);
+end.
@@ -0,0 +1,56 @@
+program test12;
+var i, s, k : integer;
+
+function weekday(d : integer) : integer;
+begin
+    case d of
+        1, 7 : weekday := 0;
+        2 .. 6 : weekday := d - 1;
+    else
+        weekday := -1;
+    end;
+end;
+
+function magnitude(x : integer) : integer;
+var r : integer;
+begin
+    r := 0;
+    case x of
+        -1000 .. -1 : r := -1;
+        1 .. 9 : r := 1;
+        10 .. 99 : r := 2;
+        100 .. 999, 5000 .. 100000 : r := 3;
+        1000 : r := 4;
+    end;
+    magnitude := r;
+end;
+
+function code(c : integer) : integer;
+begin
+    if c = 1 then code := 10
+    else if 2 = c then code := 20
+    else if c = 3 then code := 30
+    else if c > 100 then code := 1000
+    else code := -5;
+end;
+
+begin
+    for i := 0 to 8 do write(weekday(i));
+    write(magnitude(-5), magnitude(-1), magnitude(0), magnitude(42), magnitude(1000), magnitude(1001), magnitude(5000));
+    s := 0;
+    for i := 0 to 4 do s := s * 10 + code(i);
+    write(s, code(200));
+    k := 0;
+    for i := 1 to 20 do begin
+        case i mod 5 of
+            0 : continue;
+            1 : k := k + 1;
+            2, 3 : begin
+                if i > 15 then break;
+                k := k + 10;
+            end;
+        end;
+        k := k + 1000;
+    end;
+    write(k, i);
+end.
@@ -0,0 +1,15 @@
+program test13;
+uses numbers;
+var a : array [1 .. 3] of integer;
+    i : integer;
+
+function negate(n : integer) : integer;
+begin
+    negate := -n;
+end;
+
+begin
+    for i := 1 to 3 do a[i] := gcd(i * 12, 18);
+    write(a[1], a[2], a[3], total(a));
+    write(negate(10), odd(gcd(21, 35)));
+end.
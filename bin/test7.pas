@@ -0,0 +1,68 @@
+program test7;
+var
+ i, j, s : integer;
+ a : array [1 .. 20, 3 .. 5] of integer;
+ b : array [0 .. 9] of integer;
+ ok : boolean;
+
+function isEven(i : integer) : boolean;
+begin
+    isEven := (i / 2) * 2 = i;
+end;
+
+function sign(x : integer) : integer;
+begin
+    if x > 0 then sign := 1 else if x < 0 then sign := -1 else sign := 0;
+end;
+
+function fact(n : integer) : integer;
+begin
+    if n <= 1 then fact := 1;
+    fact := n * fact(n - 1);
+end;
+
+function sumTo(n : integer) : integer;
+var i, s : integer;
+begin
+    s := 0;
+    i := 0;
+    while true do begin
+        i := i + 1;
+        if i > n then break;
+        if isEven(i) then continue;
+        s := s + i;
+    end;
+    sumTo := s;
+end;
+
+function tick(x : integer) : integer;
+begin
+    s := s + x;
+    tick := s;
+end;
+
+begin
+   for i := 1 to 20 do
+      for j := 3 to 5 do
+         a[i, j] := i * 10 + j;
+   write(a[7, 4], a[20, 5]);
+   for i := 9 downto 0 do
+      b[i] := a[i + 1, 3 + (i mod 3)];
+   write(b[9]);
+   write(isEven(4), isEven(7), sign(-5), sign(0), sign(9), fact(10));
+   write(sumTo(10));
+   ok := not (1 > 2) and (3 < 4) or false;
+   write(ok, not not ok, b[b[0] mod 10 - b[0] mod 10] = 13);
+   s := 0;
+   tick(5);
+   tick(7);
+   write(s);
+   i := 0;
+   while i < 100 do begin
+      i := i + 7;
+      if i mod 2 = 0 then continue else write(i > 50);
+      break;
+   end;
+   write(i);
+   if (i >= 7) and (i <> 8) then write(1) else write(0);
+end.
@@ -0,0 +1,37 @@
+program test8;
+var i, n, t : integer;
+  a, b : array [1 .. 100000] of integer;
+  m : array [1 .. 300, 1 .. 300] of integer;
+
+function square(x : integer) : integer;
+begin
+    square := x * x;
+end;
+
+function fill(k : integer) : integer;
+var j, c : integer;
+    tmp : array [1 .. 5000] of integer;
+begin
+    c := 7;
+    parallel for j := 1 to 5000 do
+        tmp[j] := j * k + c;
+    fill := tmp[5000] + c;
+end;
+
+begin
+    n := 100000;
+    for i := 1 to n do a[i] := i mod 1000;
+    parallel for i := 1 to n do
+        b[i] := square(a[i]);
+    t := 0;
+    for i := 1 to n do t := t + b[i] mod 7;
+    write(t);
+    parallel for i := 300 downto 1 do begin
+        parallel for n := 1 to 300 do begin
+            if n = 2 then continue;
+            m[i, n] := i * n;
+        end;
+    end;
+    write(m[300, 300], m[17, 2], m[17, 3], n);
+    write(fill(3));
+end.
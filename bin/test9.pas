@@ -0,0 +1,41 @@
+program test9;
+var i, unused, written, s : integer;
+  big : array [1 .. 1000000] of integer;
+  used : array [1 .. 10] of integer;
+
+function neverCalled(x : integer) : integer;
+begin
+    big[x] := x;
+    neverCalled := x;
+end;
+
+function helper(x : integer) : integer;
+begin
+    helper := neverCalled(x);
+end;
+
+function sum(n : integer) : integer;
+var k, acc, scratch : integer;
+begin
+    acc := 0;
+    scratch := 42;
+    for k := 1 to n do begin
+        acc := acc + k;
+        scratch := k;
+    end;
+    if false then acc := helper(acc);
+    sum := acc;
+    acc := 0;
+end;
+
+begin
+    written := 5;
+    for i := 1 to 10 do used[i] := i * i;
+    if 1 + 1 = 2 then s := used[10] else s := 0;
+    while false do s := s + 1;
+    while true do begin
+        s := s + 1;
+        if s > 105 then break;
+    end;
+    write(s, sum(10));
+end.
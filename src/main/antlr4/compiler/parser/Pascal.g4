@@ -1,7 +1,9 @@
 grammar Pascal;
 
-program : 'program' ID ';' body '.' ;
+program : 'program' ID ';' uses? body '.' ;
 body    : varDeclarations functionDeclarations block ;
+unit    : 'unit' ID ';' uses? functionDeclarations 'end' '.' ;
+uses    : 'uses' ID (',' ID)* ';' ;
 
 varDeclarations : ('var' (varDeclaration ';')+ )? ;
 varDeclaration  : ID (',' ID)* ':' type ;
@@ -16,6 +18,7 @@ functionCall   : ID '(' (expression (',' expression)*)? ')' ;
 qualifiedName  : ID ('[' expression (',' expression)* ']')? ;
 
 statement   : ifStatement
+            | caseStatement
             | forStatement
             | whileStatement
             | assignmentStatement
@@ -28,11 +31,19 @@ statement   : ifStatement
 
 ifStatement        : 'if' expression 'then' statement elsePart? ;
 elsePart           : 'else' statement ;
-forStatement       : 'for' assignmentStatement DIRECTION expression 'do' statement ;
+caseStatement      : 'case' expression 'of' caseBranch (';' caseBranch)* ';'? (elsePart ';'?)? 'end' ;
+caseBranch         : caseLabel (',' caseLabel)* ':' statement ;
+caseLabel          : caseConstant ('..' caseConstant)? ;
+caseConstant       : SIGN? NUMBER ;
+forStatement       : parallel='parallel'? 'for' assignmentStatement DIRECTION expression 'do' statement ;
 whileStatement     : 'while' expression 'do' statement ;
 assignmentStatement: qualifiedName ':=' expression ;
-readStatement      : 'read' '(' qualifiedName (',' qualifiedName)* ')' ;
-writeStatement     : 'write' '(' expression (',' expression)* ')' ;
+readStatement      : 'read' '(' readOperand (',' readOperand)* ')' ;
+writeStatement     : 'write' '(' writeOperand (',' writeOperand)* ')' ;
+readOperand        : qualifiedName | arraySlice ;
+writeOperand       : expression | arraySlice ;
+arraySlice         : ID '[' sliceIndex (',' sliceIndex)* ']' ;
+sliceIndex         : expression ('..' expression)? ;
 breakStatement     : 'break' ;
 continueStatement  : 'continue' ;
 
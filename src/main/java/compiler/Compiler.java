@@ -1,67 +1,409 @@
 package compiler;
 
+import compiler.interpreter.Interpreter;
 import compiler.parser.PascalLexer;
 import compiler.parser.PascalParser;
 import compiler.translator.CompileException;
+import compiler.translator.PeepholeOptimizer;
+import compiler.translator.TranslateOptions;
 import compiler.translator.TranslateVisitor;
+import compiler.translator.UnitManifest;
 import compiler.translator.scope.Scope;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.Lexer;
-import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Arkady Rost
  */
 public class Compiler {
-    private static final CompilerErrorListener LISTENER = new CompilerErrorListener();
+    /**
+     * Stack of the thread compiling a program, in megabytes. The parser and the translator recurse
+     * once per nesting level of the source, machine-generated programs with thousands of nested
+     * parentheses or else-if branches overflow the default stack. Can be changed with the
+     * {@code compiler.stack.size} system property.
+     */
+    public static final int STACK_SIZE = Integer.getInteger("compiler.stack.size", 512);
 
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.err.println("Expected filename to compile.");
-            System.exit(1);
+        int status = run(args, new File("."), System.out, System.err);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    /**
+     * Compiles the programs named by {@code args} relative to {@code dir}, each into its own
+     * class file or, with {@code -jar=<file>}, all of them into one {@link ProgramJar}. With
+     * {@code -cds} the jar also gets a Class Data Sharing archive named like the jar.
+     * A unit is always compiled into a class file and a {@link UnitManifest} in {@code dir}, so
+     * the programs after it can use it. Manifests are looked up in {@code dir} and then in the
+     * directories of {@code -units=<dir>[:<dir>...]}.
+     * Used both by {@link #main} and by the compile server, so it never exits the JVM.
+     *
+     * A compiled class may call the {@code compiler.runtime} package, see
+     * {@link TranslateOptions#isSharedRuntime()}, so it runs with the runtime jar the build writes
+     * next to the compiler, {@code target/compiler-<version>-runtime.jar}, on its class path.
+     * Jars of {@code -jar} carry the runtime themselves.
+     *
+     * The program is compiled on a new thread with a {@link #STACK_SIZE} stack, a caller already
+     * running on such a thread calls {@link #compile} instead.
+     *
+     * @return process exit status
+     */
+    public static int run(final String[] args, final File dir, final PrintStream out, final PrintStream err) {
+        final int[] status = new int[1];
+        final Throwable[] failure = new Throwable[1];
+        Thread worker = newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    status[0] = compile(args, dir, out, err);
+                } catch (RuntimeException | Error e) {
+                    failure[0] = e;
+                }
+            }
+        }, "compiler");
+        worker.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                worker.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure[0] instanceof RuntimeException)
+            throw (RuntimeException) failure[0];
+        if (failure[0] != null)
+            throw (Error) failure[0];
+        return status[0];
+    }
 
-        try (InputStream fis = new FileInputStream(args[0])) {
-            ANTLRInputStream input = new ANTLRInputStream(fis);
+    /**
+     * @return thread with a {@link #STACK_SIZE} stack, deep enough for {@link #compile}
+     */
+    public static Thread newThread(Runnable task, String name) {
+        return new Thread(null, task, name, STACK_SIZE * 1024L * 1024L);
+    }
 
-            Lexer lexer = new PascalLexer(input);
-            lexer.addErrorListener(LISTENER);
+    /**
+     * Does what {@link #run} does on the calling thread, which must come from {@link #newThread}.
+     *
+     * @return process exit status
+     */
+    public static int compile(String[] args, File dir, PrintStream out, PrintStream err) {
+        TranslateOptions options = new TranslateOptions();
+        boolean peepholeStats = false;
+        boolean interpret = false;
+        boolean streaming = false;
+        String jarName = null;
+        boolean archive = false;
+        boolean debugInfo = true;
+        List<File> unitPath = new ArrayList<>();
+        unitPath.add(dir);
+        List<String> fileNames = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "-budget":
+                    options.setBudgetChecks(true);
+                    break;
+                case "-no-peephole":
+                    options.setSkipPeephole(true);
+                    break;
+                case "-peephole-stats":
+                    peepholeStats = true;
+                    break;
+                case "-run":
+                    interpret = true;
+                    break;
+                case "-stream":
+                    streaming = true;
+                    break;
+                case "-lazy-arrays":
+                    options.setLazyArrayThreshold(TranslateOptions.DEFAULT_LAZY_ARRAY_THRESHOLD);
+                    break;
+                case "-pad-arrays":
+                    options.setMaxArrayPadding(TranslateOptions.DEFAULT_MAX_ARRAY_PADDING);
+                    break;
+                case "-shared-runtime":
+                    options.setSharedRuntime(true);
+                    break;
+                case "-cds":
+                    archive = true;
+                    break;
+                case "-g:none":
+                    debugInfo = false;
+                    break;
+                default:
+                    if (arg.startsWith("-lazy-arrays=")) {
+                        int threshold = parseSize(arg.substring("-lazy-arrays=".length()));
+                        if (threshold <= 0) {
+                            err.println("Expected positive number of elements: " + arg);
+                            return 1;
+                        }
+                        options.setLazyArrayThreshold(threshold);
+                        break;
+                    }
+                    if (arg.startsWith("-pad-arrays=")) {
+                        int padding = parseSize(arg.substring("-pad-arrays=".length()));
+                        if (padding <= 0) {
+                            err.println("Expected positive percent of memory: " + arg);
+                            return 1;
+                        }
+                        options.setMaxArrayPadding(padding);
+                        break;
+                    }
+                    if (arg.startsWith("-units=") && arg.length() > "-units=".length()) {
+                        for (String path : arg.substring("-units=".length()).split(File.pathSeparator))
+                            unitPath.add(resolve(dir, path));
+                        break;
+                    }
+                    if (arg.startsWith("-jar=") && arg.length() > "-jar=".length()) {
+                        jarName = arg.substring("-jar=".length());
+                        options.setSharedRuntime(true);
+                        break;
+                    }
+                    if (arg.startsWith("-")) {
+                        err.println("Unknown option: " + arg);
+                        return 1;
+                    }
+                    fileNames.add(arg);
+            }
+        }
+        if (fileNames.isEmpty()) {
+            err.println("Expected filename to compile.");
+            return 1;
+        }
+        if (streaming && interpret) {
+            err.println("Programs run with -run need their whole parse tree, -stream can't be used.");
+            return 1;
+        }
+        if (interpret && (jarName != null || fileNames.size() > 1)) {
+            err.println("-run runs a single program without writing classes.");
+            return 1;
+        }
 
-            TokenStream stream = new CommonTokenStream(lexer);
-            PascalParser parser = new PascalParser(stream);
-            parser.addErrorListener(LISTENER);
+        if (archive && jarName == null) {
+            err.println("Class Data Sharing archives are made for a jar of programs, -cds needs -jar=<file>.");
+            return 1;
+        }
 
-            PascalParser.ProgramContext ctx = parser.program();
-            if (LISTENER.isErrorOccurred()) {
-                System.err.println("Syntax error occurred!");
-                System.exit(1);
+        options.setUnitPath(unitPath);
+        ProgramJar jar = jarName == null ? null : new ProgramJar();
+        for (String fileName : fileNames) {
+            options.setSourceFile(debugInfo ? new File(fileName).getName() : null);
+            int status = compile(fileName, dir, options, streaming, interpret, peepholeStats, jar, out, err);
+            if (status != 0)
+                return status;
+        }
+        if (jar != null) {
+            try (OutputStream fos = new FileOutputStream(resolve(dir, jarName))) {
+                jar.write(fos);
+            } catch (IOException e) {
+                err.println("Unexpected io exception: " + e.getMessage());
+                e.printStackTrace(err);
+                return 1;
             }
+            out.println("Successfully compiled " + jar.size() + " programs into " + jarName);
+            if (archive) {
+                String archiveName = (jarName.endsWith(".jar") ? jarName.substring(0, jarName.length() - ".jar".length()) : jarName) + ".jsa";
+                try {
+                    jar.dumpArchive(dir, jarName, archiveName);
+                } catch (IOException e) {
+                    err.println("Unexpected io exception: " + e.getMessage());
+                    return 1;
+                }
+                out.println("Successfully dumped " + archiveName);
+            }
+        }
+        return 0;
+    }
 
-            TranslateVisitor visitor = new TranslateVisitor();
-            Scope scope = visitor.visit(ctx);
+    /**
+     * Compiles one program into {@code jar} or, if it's {@code null}, into a class file. Units
+     * are parsed whole, even with {@code streaming}.
+     */
+    private static int compile(String fileName, File dir, TranslateOptions options, boolean streaming, boolean interpret,
+                               boolean peepholeStats, ProgramJar jar, PrintStream out, PrintStream err) {
+        File source = resolve(dir, fileName);
+        try (InputStream fis = new FileInputStream(source)) {
+            TranslateVisitor visitor = new TranslateVisitor(options);
+            Scope scope;
+            if (isUnit(source)) {
+                if (interpret) {
+                    err.println("-run runs a program, " + fileName + " is a unit.");
+                    return 1;
+                }
+                PascalParser.UnitContext ctx = parseUnit(fis);
+                scope = ctx == null ? null : visitor.visit(ctx);
+            } else if (streaming) {
+                scope = new StreamingCompiler(fis).translate(visitor);
+            } else {
+                PascalParser.ProgramContext ctx = parse(fis);
+                if (ctx != null && interpret)
+                    return execute(new Interpreter(ctx, options, out, err), err);
+                scope = ctx == null ? null : visitor.visit(ctx);
+            }
+            if (scope == null) {
+                err.println("Syntax error occurred!");
+                return 1;
+            }
 
-            try (FileOutputStream fos = new FileOutputStream(scope.getClassName() + ".class")) {
-                fos.write(scope.getByteCode());
-            } catch (IOException e) {
-                System.err.println("Unexpected io exception: " + e.getMessage());
-                e.printStackTrace();
-                System.exit(1);
+            if (scope.getManifest() != null) {
+                String manifestName = scope.getClassName() + UnitManifest.EXTENSION;
+                try (FileOutputStream fos = new FileOutputStream(new File(dir, scope.getClassName() + ".class"));
+                     FileOutputStream manifest = new FileOutputStream(new File(dir, manifestName))) {
+                    fos.write(scope.getByteCode());
+                    scope.getManifest().write(manifest);
+                } catch (IOException e) {
+                    err.println("Unexpected io exception: " + e.getMessage());
+                    e.printStackTrace(err);
+                    return 1;
+                }
+                out.println("Successfully compiled " + scope.getClassName() + ".class and " + manifestName);
+            } else if (jar != null) {
+                jar.add(scope, source.getName());
+            } else {
+                try (FileOutputStream fos = new FileOutputStream(new File(dir, scope.getClassName() + ".class"))) {
+                    fos.write(scope.getByteCode());
+                } catch (IOException e) {
+                    err.println("Unexpected io exception: " + e.getMessage());
+                    e.printStackTrace(err);
+                    return 1;
+                }
+                out.println("Successfully compiled " + scope.getClassName() + ".class");
+            }
+            if (peepholeStats) {
+                for (Map.Entry<PeepholeOptimizer.Rule, Integer> hits : visitor.getPeepholeOptimizer().getHits().entrySet())
+                    out.println("peephole " + hits.getKey() + ": " + hits.getValue());
             }
-            System.out.println("Successfully compiled " + scope.getClassName() + ".class");
         } catch (FileNotFoundException e) {
-            System.err.println("Can't find file: " + args[0]);
-            System.exit(1);
+            err.println("Can't find file: " + fileName);
+            return 1;
         } catch (CompileException e) {
-            System.err.println("Compilation failed!");
-            e.printStackTrace();
-            System.exit(1);
+            err.println("Compilation failed!");
+            e.printStackTrace(err);
+            return 1;
         } catch (IOException e) {
-            System.err.println("Unexpected io exception!");
-            e.printStackTrace();
-            System.exit(1);
+            err.println("Unexpected io exception!");
+            e.printStackTrace(err);
+            return 1;
+        } catch (StackOverflowError e) {
+            err.println("Program is nested too deeply, compile it with a larger -Dcompiler.stack.size than "
+                    + STACK_SIZE + " megabytes.");
+            return 1;
         }
+        return 0;
+    }
+
+    /**
+     * Tells a unit from a program by the first word of the source. Peeks through a stream of its
+     * own, a mark on the stream being compiled would keep all of the source buffered and undo
+     * the bounded memory of {@code -stream}.
+     */
+    private static boolean isUnit(File source) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(source), 256)) {
+            StringBuilder word = new StringBuilder();
+            int c = in.read();
+            while (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+                c = in.read();
+            while (c >= 'a' && c <= 'z' && word.length() < "unit".length()) {
+                word.append((char) c);
+                c = in.read();
+            }
+            return "unit".contentEquals(word) && !Character.isLetterOrDigit(c);
+        }
+    }
+
+    /**
+     * Parses a whole program.
+     *
+     * @return parse tree or {@code null} if a syntax error occurred
+     */
+    public static PascalParser.ProgramContext parse(InputStream in) throws IOException {
+        return (PascalParser.ProgramContext) parse(in, false);
+    }
+
+    /**
+     * Parses a unit like {@link #parse} parses a program.
+     */
+    public static PascalParser.UnitContext parseUnit(InputStream in) throws IOException {
+        return (PascalParser.UnitContext) parse(in, true);
+    }
+
+    private static ParserRuleContext parse(InputStream in, boolean unit) throws IOException {
+        CompilerErrorListener listener = new CompilerErrorListener();
+        ANTLRInputStream input = new ANTLRInputStream(in);
+
+        Lexer lexer = new PascalLexer(input);
+        lexer.addErrorListener(listener);
+
+        CommonTokenStream stream = new CommonTokenStream(lexer);
+        PascalParser parser = new PascalParser(stream);
+
+        // The dangling else makes every else-if ambiguous. Full LL prediction resolves it by
+        // walking the whole statement context, which is quadratic in the length of else-if chains,
+        // SLL prediction takes the else without looking. SLL fails on some valid programs and
+        // can't recover from errors, such programs are parsed again with LL.
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        ParserRuleContext ctx;
+        try {
+            ctx = unit ? parser.unit() : parser.program();
+        } catch (ParseCancellationException e) {
+            stream.seek(0);
+            parser.reset();
+            parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            parser.addErrorListener(listener);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            ctx = unit ? parser.unit() : parser.program();
+        }
+        return listener.isErrorOccurred() ? null : ctx;
+    }
+
+    /**
+     * Runs the program in this JVM instead of writing the class file. The program prints to the
+     * {@code out} the compiler was run with, so a host running the compiler in-process gets the
+     * output. The compile server doesn't run programs, its clients run them with their own
+     * standard input.
+     */
+    private static int execute(Interpreter interpreter, PrintStream err) {
+        try {
+            interpreter.run();
+        } catch (RuntimeException | StackOverflowError e) {
+            err.println("Program failed!");
+            e.printStackTrace(err);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static int parseSize(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File resolve(File dir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(dir, path);
     }
 }
@@ -0,0 +1,187 @@
+package compiler;
+
+import compiler.runtime.PascalRuntime;
+import compiler.runtime.ProgramLauncher;
+import compiler.translator.CompileException;
+import compiler.translator.UnitManifest;
+import compiler.translator.scope.Scope;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.*;
+
+/**
+ * Jar of programs compiled with the shared runtime. Holds the classes of the programs, the
+ * {@code compiler.runtime} package copied from the compiler itself, the
+ * {@link ProgramLauncher#INDEX index} of the programs and a manifest running
+ * {@link ProgramLauncher}. The runtime version the programs are compiled against is recorded in
+ * the manifest. The classes of the units the programs use are copied in once, they aren't
+ * listed in the index.
+ *
+ * The jar can also get a Class Data Sharing archive, see {@link #dumpArchive}.
+ *
+ * @author Arkady Rost
+ */
+class ProgramJar {
+    static final String RUNTIME_VERSION_ATTRIBUTE = "Runtime-Version";
+
+    private static final String RUNTIME_PACKAGE = "compiler/runtime/";
+
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final Map<String, byte[]> units = new LinkedHashMap<>();
+
+    void add(Scope scope, String source) throws IOException {
+        String name = scope.getClassName();
+        if (classes.containsKey(name))
+            throw new CompileException(String.format("Program %s of %s is already compiled from %s",
+                    name, source, sources.get(name)));
+        if (units.containsKey(name))
+            throw new CompileException(String.format("Program %s of %s is named like a unit", name, source));
+        for (UnitManifest unit : scope.getUnits()) {
+            if (classes.containsKey(unit.getClassName()))
+                throw new CompileException(String.format("Unit %s used by %s is named like a program", unit.getClassName(), source));
+            if (!units.containsKey(unit.getClassName())) {
+                try (InputStream in = new FileInputStream(new File(unit.getDirectory(), unit.getClassName() + ".class"))) {
+                    units.put(unit.getClassName(), read(in));
+                }
+            }
+        }
+        classes.put(name, scope.getByteCode());
+        sources.put(name, source);
+    }
+
+    /**
+     * @return number of programs in the jar
+     */
+    int size() {
+        return classes.size();
+    }
+
+    void write(OutputStream out) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, ProgramLauncher.class.getName());
+        attributes.putValue(RUNTIME_VERSION_ATTRIBUTE, String.valueOf(PascalRuntime.VERSION));
+        try (JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (Map.Entry<String, byte[]> runtimeClass : runtimeClasses().entrySet())
+                write(jar, runtimeClass.getKey(), runtimeClass.getValue());
+            for (Map.Entry<String, byte[]> unit : units.entrySet())
+                write(jar, unit.getKey() + ".class", unit.getValue());
+            StringBuilder index = new StringBuilder();
+            for (Map.Entry<String, byte[]> program : classes.entrySet()) {
+                write(jar, program.getKey() + ".class", program.getValue());
+                index.append(program.getKey()).append(' ').append(sources.get(program.getKey())).append('\n');
+            }
+            write(jar, ProgramLauncher.INDEX, index.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Dumps a static Class Data Sharing archive of the JDK classes the JVM shares by default, the
+     * runtime and the programs, so no program has to run for it. The JVM checks the class path it
+     * runs with against the one of the archive, so {@code jar} must be named the same way when the
+     * archive is used: {@code java -XX:SharedArchiveFile=<archive> -jar <jar> <program>...}.
+     * Needs JDK 10 or later.
+     *
+     * @param jar     path of the written jar relative to {@code dir}
+     * @param archive path of the archive relative to {@code dir}
+     */
+    void dumpArchive(File dir, String jar, String archive) throws IOException {
+        File javaHome = new File(System.getProperty("java.home"));
+        File defaultClassList = new File(javaHome, "lib/classlist");
+        if (!defaultClassList.isFile())
+            throw new IOException("No " + defaultClassList + ", Class Data Sharing archives need JDK 10 or later");
+        File classList = File.createTempFile("programs", ".classlist");
+        try {
+            try (InputStream in = new FileInputStream(defaultClassList);
+                 Writer writer = new OutputStreamWriter(new FileOutputStream(classList), StandardCharsets.UTF_8)) {
+                writer.write(new String(read(in), StandardCharsets.UTF_8));
+                for (String runtimeClass : runtimeClasses().keySet())
+                    writer.write(runtimeClass.substring(0, runtimeClass.length() - ".class".length()) + "\n");
+                for (String unit : units.keySet())
+                    writer.write(unit + "\n");
+                for (String program : classes.keySet())
+                    writer.write(program + "\n");
+            }
+            Process dump = new ProcessBuilder(new File(javaHome, "bin/java").getPath(), "-Xshare:dump",
+                    "-XX:SharedClassListFile=" + classList.getAbsolutePath(), "-XX:SharedArchiveFile=" + archive,
+                    "-cp", jar)
+                    .directory(dir)
+                    .redirectErrorStream(true)
+                    .start();
+            byte[] output;
+            try (InputStream in = dump.getInputStream()) {
+                output = read(in);
+            }
+            if (dump.waitFor() != 0)
+                throw new IOException("Can't dump " + archive + ":\n" + new String(output, StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while dumping " + archive);
+        } finally {
+            classList.delete();
+        }
+    }
+
+    private static void write(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    /**
+     * @return class files of the runtime package by entry name, read from the jar or the
+     * directory the compiler is loaded from
+     */
+    private static Map<String, byte[]> runtimeClasses() throws IOException {
+        File location;
+        try {
+            location = new File(PascalRuntime.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Can't locate the runtime classes", e);
+        }
+        Map<String, byte[]> runtime = new TreeMap<>();
+        if (location.isDirectory()) {
+            File[] files = new File(location, RUNTIME_PACKAGE).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".class")) {
+                        try (InputStream in = new FileInputStream(file)) {
+                            runtime.put(RUNTIME_PACKAGE + file.getName(), read(in));
+                        }
+                    }
+                }
+            }
+        } else {
+            try (JarFile jar = new JarFile(location)) {
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    JarEntry entry = entries.nextElement();
+                    if (entry.getName().startsWith(RUNTIME_PACKAGE) && entry.getName().endsWith(".class")) {
+                        try (InputStream in = jar.getInputStream(entry)) {
+                            runtime.put(entry.getName(), read(in));
+                        }
+                    }
+                }
+            }
+        }
+        if (runtime.isEmpty())
+            throw new IOException("No runtime classes in " + location);
+        return runtime;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            bytes.write(buffer, 0, read);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,137 @@
+package compiler;
+
+import compiler.parser.PascalLexer;
+import compiler.parser.PascalParser;
+import compiler.parser.PascalParser.BlockContext;
+import compiler.parser.PascalParser.FunctionDeclarationContext;
+import compiler.parser.PascalParser.UsesContext;
+import compiler.parser.PascalParser.VarDeclarationsContext;
+import compiler.translator.TranslateVisitor;
+import compiler.translator.scope.Scope;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses and translates a program one declaration at a time. The characters and tokens are
+ * read through unbuffered streams and the parse tree of a function is dropped once it's
+ * translated, so peak memory is bounded by the largest function and the class being written
+ * rather than by the whole source.
+ *
+ * Every declaration is parsed like {@link Compiler#parse} parses a program, with SLL prediction
+ * first and again with LL if that fails. The token stream keeps the tokens of the declaration
+ * until it's parsed, so it can be read again.
+ *
+ * @author Arkady Rost
+ */
+class StreamingCompiler {
+    private final CompilerErrorListener listener = new CompilerErrorListener();
+    private final UnbufferedTokenStream<Token> stream;
+    private final PascalParser parser;
+
+    StreamingCompiler(InputStream in) throws IOException {
+        Lexer lexer = new PascalLexer(new UnbufferedCharStream(in));
+        // the char stream drops the text behind the current token
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        lexer.addErrorListener(listener);
+        stream = new UnbufferedTokenStream<>(lexer);
+        parser = new PascalParser(stream);
+    }
+
+    /**
+     * @return translated program or {@code null} if a syntax error occurred
+     */
+    Scope translate(TranslateVisitor visitor) {
+        if (!match("program"))
+            return null;
+        Token name = stream.LT(1);
+        if (name.getType() != PascalLexer.ID) {
+            reportError(name, "missing ID at " + text(name));
+            return null;
+        }
+        stream.consume();
+        if (!match(";"))
+            return null;
+        visitor.startProgram(name.getText());
+        if ("uses".equals(stream.LT(1).getText())) {
+            UsesContext uses = (UsesContext) parse(PascalParser.RULE_uses);
+            if (listener.isErrorOccurred())
+                return null;
+            visitor.translateUses(uses);
+        }
+
+        VarDeclarationsContext globals = (VarDeclarationsContext) parse(PascalParser.RULE_varDeclarations);
+        if (listener.isErrorOccurred())
+            return null;
+        visitor.translateGlobals(globals);
+        while ("function".equals(stream.LT(1).getText())) {
+            FunctionDeclarationContext function = (FunctionDeclarationContext) parse(PascalParser.RULE_functionDeclaration);
+            if (listener.isErrorOccurred())
+                return null;
+            visitor.translateFunction(function);
+        }
+        BlockContext main = (BlockContext) parse(PascalParser.RULE_block);
+        if (listener.isErrorOccurred() || !match("."))
+            return null;
+        return visitor.translateMain(main);
+    }
+
+    private ParserRuleContext parse(int rule) {
+        int mark = stream.mark();
+        int start = stream.index();
+        try {
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            try {
+                return invoke(rule);
+            } catch (ParseCancellationException e) {
+                stream.seek(start);
+                parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+                parser.addErrorListener(listener);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                return invoke(rule);
+            }
+        } finally {
+            stream.release(mark);
+        }
+    }
+
+    private ParserRuleContext invoke(int rule) {
+        switch (rule) {
+            case PascalParser.RULE_uses:
+                return parser.uses();
+            case PascalParser.RULE_varDeclarations:
+                return parser.varDeclarations();
+            case PascalParser.RULE_functionDeclaration:
+                return parser.functionDeclaration();
+            case PascalParser.RULE_block:
+                return parser.block();
+            default:
+                throw new IllegalArgumentException("Unexpected rule: " + rule);
+        }
+    }
+
+    private boolean match(String text) {
+        Token token = stream.LT(1);
+        if (!text.equals(token.getText())) {
+            reportError(token, "missing '" + text + "' at " + text(token));
+            return false;
+        }
+        stream.consume();
+        return true;
+    }
+
+    private static String text(Token token) {
+        return token.getType() == Token.EOF ? "'<EOF>'" : "'" + token.getText() + "'";
+    }
+
+    private void reportError(Token token, String message) {
+        ConsoleErrorListener.INSTANCE.syntaxError(parser, token, token.getLine(), token.getCharPositionInLine(), message, null);
+        listener.syntaxError(parser, token, token.getLine(), token.getCharPositionInLine(), message, null);
+    }
+}
@@ -0,0 +1,208 @@
+package compiler.interpreter;
+
+import compiler.parser.PascalParser.ProgramContext;
+import compiler.translator.TranslateOptions;
+import compiler.translator.TranslateVisitor;
+import compiler.translator.TranslatedClassLoader;
+import compiler.translator.Utils;
+import compiler.translator.scope.Scope;
+import compiler.translator.type.PrimitiveType;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translated class of a program the interpreter hands hot code over to. Globals of the
+ * interpreter are copied to the static fields before every call into the class and back after it,
+ * through method handles of the fields looked up once.
+ *
+ * @author Arkady Rost
+ */
+class CompiledProgram {
+    private final Map<Function, MethodHandle> functions = new HashMap<>();
+    private final Map<ParserRuleContext, MethodHandle> loops = new HashMap<>();
+    private final List<Variable> variables = new ArrayList<>();
+    private final List<MethodHandle> getters = new ArrayList<>();
+    private final List<MethodHandle> setters = new ArrayList<>();
+
+    /**
+     * @param interpreted options of the interpreted program, copied before the loop entries and the
+     *                    output field are switched on, the caller keeps using them
+     */
+    CompiledProgram(ProgramContext ctx, TranslateOptions interpreted, TreeBuilder tree, PrintStream out) throws ReflectiveOperationException {
+        TranslateOptions options = new TranslateOptions(interpreted);
+        options.setLoopEntries(true);
+        options.setOutputField(true);
+        TranslateVisitor visitor = new TranslateVisitor(options);
+        Scope scope = visitor.visit(ctx);
+        TranslatedClassLoader loader = new TranslatedClassLoader(tree.unitLoader);
+        loader.defineClass(scope.getClassName(), scope.getByteCode());
+        // initialized here, so a class failing verification leaves the program interpreted
+        Class<?> c = Class.forName(scope.getClassName(), true, loader);
+        c.getField(TranslateVisitor.OUTPUT_FIELD).set(null, out);
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Function function : tree.functions) {
+            MethodType type = MethodType.fromMethodDescriptorString(
+                    Utils.getFunctionDescriptor(function.type, function.parameterTypes), loader);
+            try {
+                functions.put(function, lookup.findStatic(c, function.name, type));
+            } catch (NoSuchMethodException e) {
+                // unreachable from the main block, so never called
+            }
+        }
+        Map<String, Method> methods = new HashMap<>();
+        for (Method method : c.getMethods())
+            methods.put(method.getName(), method);
+        for (Map.Entry<ParserRuleContext, String> entry : visitor.getLoopEntries().entrySet())
+            loops.put(entry.getKey(), lookup.unreflect(methods.get(entry.getValue())));
+        for (Map.Entry<String, Variable> global : tree.globals.entrySet()) {
+            try {
+                Field field = c.getField(global.getKey());
+                getters.add(lookup.unreflectGetter(field));
+                setters.add(lookup.unreflectSetter(field));
+                variables.add(global.getValue());
+            } catch (NoSuchFieldException e) {
+                // never read, so nothing to synchronize
+            }
+        }
+    }
+
+    /**
+     * Calls the translated function with the arguments stored in the parameter slots of the frame.
+     *
+     * @return {@code false} if the function has no translation
+     */
+    boolean call(Function function, Frame frame) {
+        MethodHandle handle = functions.get(function);
+        if (handle == null)
+            return false;
+        setResult(function, invoke(handle, arguments(function, frame), frame.interpreter), frame);
+        return true;
+    }
+
+    /**
+     * Calls a function of a used unit like {@link #call} calls a translated one. Units have no
+     * globals, so there's nothing to synchronize.
+     */
+    static void callUnit(Function function, Frame frame) {
+        try {
+            setResult(function, function.unit.invokeWithArguments(arguments(function, frame)), frame);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object[] arguments(Function function, Frame frame) {
+        Object[] arguments = new Object[function.parameterTypes.length];
+        for (int i = 0; i < arguments.length; i++) {
+            Variable parameter = new Variable(false, function.parameterSlots[i], function.parameterTypes[i]);
+            arguments[i] = argument(parameter, frame);
+        }
+        return arguments;
+    }
+
+    /**
+     * Runs the rest of a loop of the main block, or the rest of the call of a function, from
+     * the loop head.
+     *
+     * @return status of the loop statement, {@link Statement.Loop#INTERPRETED} if the loop has no entry
+     */
+    int resume(ParserRuleContext loop, Function function, Frame frame) {
+        MethodHandle handle = loops.get(loop);
+        if (handle == null)
+            return Statement.Loop.INTERPRETED;
+        if (function == null) {
+            invoke(handle, new Object[0], frame.interpreter);
+            return Statement.NORMAL;
+        }
+        Object[] arguments = new Object[function.variables.length + 1];
+        for (int i = 0; i < function.variables.length; i++)
+            arguments[i] = argument(function.variables[i], frame);
+        arguments[function.variables.length] = true;
+        setResult(function, invoke(handle, arguments, frame.interpreter), frame);
+        return Statement.RETURN;
+    }
+
+    private static Object argument(Variable var, Frame frame) {
+        if (var.type == PrimitiveType.INTEGER)
+            return frame.ints[var.slot];
+        if (var.type == PrimitiveType.BOOLEAN)
+            return frame.ints[var.slot] != 0;
+        return frame.arrays[var.slot];
+    }
+
+    private static void setResult(Function function, Object result, Frame frame) {
+        if (function.type == PrimitiveType.INTEGER) {
+            frame.result = (Integer) result;
+        } else if (function.type == PrimitiveType.BOOLEAN) {
+            frame.result = (Boolean) result ? 1 : 0;
+        } else {
+            frame.arrayResult = (int[]) result;
+        }
+    }
+
+    private Object invoke(MethodHandle handle, Object[] arguments, Interpreter interpreter) {
+        store(interpreter);
+        try {
+            return handle.invokeWithArguments(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        } finally {
+            load(interpreter);
+        }
+    }
+
+    private void store(Interpreter interpreter) {
+        try {
+            for (int i = 0; i < setters.size(); i++) {
+                Variable var = variables.get(i);
+                MethodHandle setter = setters.get(i);
+                if (var.type == PrimitiveType.INTEGER) {
+                    setter.invokeExact(interpreter.ints[var.slot]);
+                } else if (var.type == PrimitiveType.BOOLEAN) {
+                    setter.invokeExact(interpreter.ints[var.slot] != 0);
+                } else {
+                    setter.invokeExact(interpreter.arrays[var.slot]);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void load(Interpreter interpreter) {
+        try {
+            for (int i = 0; i < getters.size(); i++) {
+                Variable var = variables.get(i);
+                MethodHandle getter = getters.get(i);
+                if (var.type == PrimitiveType.INTEGER) {
+                    interpreter.ints[var.slot] = (int) getter.invokeExact();
+                } else if (var.type == PrimitiveType.BOOLEAN) {
+                    interpreter.ints[var.slot] = (boolean) getter.invokeExact() ? 1 : 0;
+                } else {
+                    interpreter.arrays[var.slot] = (int[]) getter.invokeExact();
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package compiler.interpreter;
+
+import compiler.runtime.PascalRuntime;
+import compiler.translator.Intrinsic;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+
+/**
+ * Type checked expression. Booleans are evaluated to 0 and 1, arrays by {@link #evaluateArray}.
+ *
+ * @author Arkady Rost
+ */
+abstract class Expression {
+    final DataType type;
+
+    Expression(DataType type) {
+        this.type = type;
+    }
+
+    int evaluate(Frame frame) {
+        throw new UnsupportedOperationException("Not a primitive expression: " + type);
+    }
+
+    int[] evaluateArray(Frame frame) {
+        throw new UnsupportedOperationException("Not an array expression: " + type);
+    }
+
+    enum Operator {
+        ADD, SUB, MUL, DIV, MOD, AND, OR, EQ, NE, LT, LE, GT, GE
+    }
+
+    static class Constant extends Expression {
+        private final int value;
+
+        Constant(DataType type, int value) {
+            super(type);
+            this.value = value;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            return value;
+        }
+    }
+
+    static class Local extends Expression {
+        private final int slot;
+
+        Local(DataType type, int slot) {
+            super(type);
+            this.slot = slot;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            return frame.ints[slot];
+        }
+
+        @Override
+        int[] evaluateArray(Frame frame) {
+            return frame.arrays[slot];
+        }
+    }
+
+    static class Global extends Expression {
+        private final int slot;
+
+        Global(DataType type, int slot) {
+            super(type);
+            this.slot = slot;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            return frame.interpreter.ints[slot];
+        }
+
+        @Override
+        int[] evaluateArray(Frame frame) {
+            return frame.interpreter.arrays[slot];
+        }
+    }
+
+    static class Element extends Expression {
+        private final Expression array;
+        private final Index index;
+
+        Element(Expression array, Index index) {
+            super(((ArrayType) array.type).getDataType());
+            this.array = array;
+            this.index = index;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            return a[index.offset(frame)];
+        }
+    }
+
+    /**
+     * Offset of an element in the flat array in the layout of its {@link ArrayType}.
+     */
+    static class Index {
+        private final Expression[] indexes;
+        private final int[] from;
+        private final int[] to;
+        private final int[] length;
+        private final int[] shift;
+        private final String errorMessage;
+
+        Index(ArrayType type, Expression[] indexes, String text) {
+            this.indexes = indexes;
+            this.from = new int[indexes.length];
+            this.to = new int[indexes.length];
+            this.length = new int[indexes.length];
+            this.shift = type.isPadded() ? new int[indexes.length - 1] : null;
+            for (int i = 0; i < indexes.length; i++) {
+                from[i] = type.getDimension(i).getFrom();
+                to[i] = type.getDimension(i).getTo();
+                length[i] = type.getDimension(i).getLength();
+                if (shift != null && i < shift.length)
+                    shift[i] = type.getShift(i);
+            }
+            this.errorMessage = "Index out of bound in access " + text;
+        }
+
+        int offset(Frame frame) {
+            if (indexes.length == 1)
+                return check(0, indexes[0].evaluate(frame));
+            int[] values = new int[indexes.length];
+            for (int i = 0; i < indexes.length; i++)
+                values[i] = check(i, indexes[i].evaluate(frame));
+            int offset = values[indexes.length - 1];
+            for (int i = indexes.length - 2; i >= 0; i--)
+                offset = shift != null ? values[i] | offset << shift[i] : values[i] + offset * length[i];
+            return offset;
+        }
+
+        private int check(int i, int value) {
+            if (value < from[i] || value > to[i])
+                throw new RuntimeException(errorMessage);
+            return value - from[i];
+        }
+    }
+
+    static class Binary extends Expression {
+        private final Operator operator;
+        private final Expression left;
+        private final Expression right;
+
+        Binary(DataType type, Operator operator, Expression left, Expression right) {
+            super(type);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            int a = left.evaluate(frame);
+            int b = right.evaluate(frame);
+            switch (operator) {
+                case ADD: return a + b;
+                case SUB: return a - b;
+                case MUL: return a * b;
+                case DIV: return a / b;
+                case MOD: return a % b;
+                case AND: return a & b;
+                case OR: return a | b;
+                case EQ: return a == b ? 1 : 0;
+                case NE: return a != b ? 1 : 0;
+                case LT: return a < b ? 1 : 0;
+                case LE: return a <= b ? 1 : 0;
+                case GT: return a > b ? 1 : 0;
+                case GE: return a >= b ? 1 : 0;
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator);
+            }
+        }
+    }
+
+    static class Not extends Expression {
+        private final Expression operand;
+
+        Not(Expression operand) {
+            super(operand.type);
+            this.operand = operand;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            return operand.evaluate(frame) ^ 1;
+        }
+    }
+
+    static class Call extends Expression {
+        private final Function function;
+        private final Expression[] arguments;
+
+        Call(Function function, Expression[] arguments) {
+            super(function.type);
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            return frame.interpreter.call(function, arguments, frame).result;
+        }
+
+        @Override
+        int[] evaluateArray(Frame frame) {
+            return frame.interpreter.call(function, arguments, frame).arrayResult;
+        }
+    }
+
+    /**
+     * Sum, minimum or maximum of a whole integer array, or of a range of a one-dimensional one if
+     * {@code from} isn't {@code null}, computed by {@link PascalRuntime} like in the translated class.
+     */
+    static class Reduction extends Expression {
+        private final Intrinsic intrinsic;
+        private final Expression array;
+        private final Expression from;
+        private final Expression to;
+        private final String access;
+
+        Reduction(Intrinsic intrinsic, Expression array, Expression from, Expression to, String access) {
+            super(PrimitiveType.INTEGER);
+            this.intrinsic = intrinsic;
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.access = access;
+        }
+
+        @Override
+        int evaluate(Frame frame) {
+            ArrayType type = (ArrayType) array.type;
+            int[] a = array.evaluateArray(frame);
+            if (from == null && type.isPadded()) {
+                int[] counts = new int[type.getDimensions().length];
+                int[] strides = new int[counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = type.getDimension(i).getLength();
+                    strides[i] = type.getStride(i);
+                }
+                switch (intrinsic) {
+                    case SUM: return PascalRuntime.sum(a, counts, strides);
+                    case MIN: return PascalRuntime.min(a, counts, strides);
+                    default: return PascalRuntime.max(a, counts, strides);
+                }
+            }
+            // a dense array is reduced as a flat one
+            int first = 0;
+            int last = type.getSize() - 1;
+            int low = 0;
+            int high = last;
+            if (from != null) {
+                first = from.evaluate(frame);
+                last = to.evaluate(frame);
+                low = type.getDimension(0).getFrom();
+                high = type.getDimension(0).getTo();
+            }
+            switch (intrinsic) {
+                case SUM: return PascalRuntime.sum(a, first, last, low, high, access);
+                case MIN: return PascalRuntime.min(a, first, last, low, high, access);
+                default: return PascalRuntime.max(a, first, last, low, high, access);
+            }
+        }
+    }
+}
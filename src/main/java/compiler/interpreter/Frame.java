@@ -0,0 +1,40 @@
+package compiler.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Locals of a running function, the main block or a chunk of a parallel loop.
+ * Integers and booleans live in {@link #ints}, arrays in {@link #arrays}.
+ *
+ * @author Arkady Rost
+ */
+class Frame {
+    final Interpreter interpreter;
+    final int[] ints;
+    final int[][] arrays;
+    /**
+     * Calls from a chunk of a parallel loop stay interpreted, globals are only synchronized
+     * with compiled code on the main thread.
+     */
+    final boolean parallel;
+    int result;
+    int[] arrayResult;
+
+    Frame(Interpreter interpreter, int ints, int arrays, boolean parallel) {
+        this(interpreter, new int[ints], new int[arrays][], parallel);
+    }
+
+    private Frame(Interpreter interpreter, int[] ints, int[][] arrays, boolean parallel) {
+        this.interpreter = interpreter;
+        this.ints = ints;
+        this.arrays = arrays;
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return frame of a parallel loop chunk, scalars are copied and arrays are shared
+     */
+    Frame copy(int ints, int arrays) {
+        return new Frame(interpreter, Arrays.copyOf(this.ints, ints), Arrays.copyOf(this.arrays, arrays), true);
+    }
+}
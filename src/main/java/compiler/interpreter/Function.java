@@ -0,0 +1,41 @@
+package compiler.interpreter;
+
+import compiler.translator.type.DataType;
+
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Function resolved by {@link TreeBuilder}. Parameters take the first local slots.
+ *
+ * @author Arkady Rost
+ */
+class Function {
+    final String name;
+    final DataType type;
+    final DataType[] parameterTypes;
+    int[] parameterSlots;
+    /**
+     * Parameters and locals in declaration order, the arguments of a translated loop entry.
+     */
+    Variable[] variables;
+    /**
+     * Array parameters the function could change or observe changing, they are copied on entry.
+     */
+    boolean[] copiedParameters;
+    int[] arraySlots;
+    int[] arraySizes;
+    int intSlotCount;
+    int arraySlotCount;
+    Statement body;
+    /**
+     * Static method of a used unit the function is, {@code null} for a function of the program,
+     * which has a {@link #body} instead.
+     */
+    MethodHandle unit;
+
+    Function(String name, DataType type, DataType[] parameterTypes) {
+        this.name = name;
+        this.type = type;
+        this.parameterTypes = parameterTypes;
+    }
+}
@@ -0,0 +1,153 @@
+package compiler.interpreter;
+
+import compiler.Compiler;
+import compiler.parser.PascalParser.ProgramContext;
+import compiler.translator.CompileException;
+import compiler.translator.TranslateOptions;
+import compiler.translator.TranslatedClassLoader;
+import compiler.translator.type.ArrayType;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.io.PrintStream;
+
+/**
+ * Runs a program from its parse tree, so short runs don't pay for translation, class loading and
+ * bytecode verification. Function calls and loop iterations are counted, once there are
+ * {@link #THRESHOLD} of them the program is translated on a background thread and loaded with
+ * {@link TranslatedClassLoader}. From then on calls go to the translated functions and running
+ * loops continue in the translated class at their next iteration: the rest of a loop of the main
+ * block, or the rest of the call for a loop of a function. Chunks of parallel loops stay
+ * interpreted.
+ *
+ * The threshold can be changed with the {@code compiler.tier.threshold} system property,
+ * zero translates before the program starts and a negative value never does.
+ *
+ * @author Arkady Rost
+ */
+public class Interpreter {
+    public static final int THRESHOLD = Integer.getInteger("compiler.tier.threshold", 10000);
+
+    final int[] ints;
+    final int[][] arrays;
+    final PrintStream out;
+    private final PrintStream err;
+    private final ProgramContext ctx;
+    private final TranslateOptions options;
+    private final TreeBuilder tree;
+    private int ticks;
+    private boolean translating;
+    private volatile CompiledProgram compiled;
+
+    /**
+     * Type checks the program, which writes to {@code System.out}.
+     *
+     * @param options copied for the translation, which switches loop entries on in its own copy
+     * @throws CompileException if the program has errors
+     */
+    public Interpreter(ProgramContext ctx, TranslateOptions options) {
+        this(ctx, options, System.out, System.err);
+    }
+
+    /**
+     * Type checks the program. Both the interpreted and the translated code write to {@code out},
+     * functions of units still write to {@code System.out}.
+     *
+     * @param err gets the failures of the translation, which leave the program interpreted
+     * @throws CompileException if the program has errors
+     */
+    public Interpreter(ProgramContext ctx, TranslateOptions options, PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        this.ctx = ctx;
+        // read by the translation on another thread
+        this.options = new TranslateOptions(options);
+        this.tree = new TreeBuilder(ctx, options);
+        this.ints = new int[tree.globalIntCount];
+        this.arrays = new int[tree.globalArrayCount][];
+        for (Variable var : tree.globals.values()) {
+            if (var.type instanceof ArrayType)
+                arrays[var.slot] = new int[((ArrayType) var.type).getSize()];
+        }
+    }
+
+    public void run() {
+        if (THRESHOLD == 0)
+            translate();
+        Frame frame = new Frame(this, tree.mainIntSlotCount, tree.mainArraySlotCount, false);
+        tree.main.execute(frame);
+    }
+
+    /**
+     * Counts a call or a loop iteration. Counts from parallel chunks may be lost, which only
+     * delays the translation.
+     */
+    void tick() {
+        if (ticks < THRESHOLD && ++ticks == THRESHOLD)
+            startTranslation();
+    }
+
+    private synchronized void startTranslation() {
+        if (translating)
+            return;
+        translating = true;
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                translate();
+            }
+        }, "translator", Compiler.STACK_SIZE * 1024L * 1024L);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void translate() {
+        try {
+            compiled = new CompiledProgram(ctx, options, tree, out);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError | StackOverflowError e) {
+            err.println("Translation failed, the program stays interpreted: " + e);
+        }
+    }
+
+    /**
+     * @param function the loop belongs to, {@code null} in the main block
+     * @return status of the loop statement if translated code ran the rest of it
+     */
+    int resume(ParserRuleContext loop, Function function, Frame frame) {
+        CompiledProgram program = compiled;
+        if (program == null || frame.parallel)
+            return Statement.Loop.INTERPRETED;
+        return program.resume(loop, function, frame);
+    }
+
+    /**
+     * @return frame of the call holding the result
+     */
+    Frame call(Function function, Expression[] arguments, Frame caller) {
+        Frame frame = new Frame(this, function.intSlotCount, function.arraySlotCount, caller.parallel);
+        for (int i = 0; i < arguments.length; i++) {
+            int slot = function.parameterSlots[i];
+            if (arguments[i].type.isPrimitive()) {
+                frame.ints[slot] = arguments[i].evaluate(caller);
+            } else {
+                frame.arrays[slot] = arguments[i].evaluateArray(caller);
+            }
+        }
+        CompiledProgram program = compiled;
+        if (program != null && !caller.parallel && program.call(function, frame))
+            return frame;
+
+        tick();
+        if (function.unit != null) {
+            CompiledProgram.callUnit(function, frame);
+            return frame;
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            if (function.copiedParameters[i])
+                frame.arrays[function.parameterSlots[i]] = frame.arrays[function.parameterSlots[i]].clone();
+        }
+        for (int i = 0; i < function.arraySlots.length; i++)
+            frame.arrays[function.arraySlots[i]] = new int[function.arraySizes[i]];
+        function.body.execute(frame);
+        return frame;
+    }
+}
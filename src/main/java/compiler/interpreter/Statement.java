@@ -0,0 +1,647 @@
+package compiler.interpreter;
+
+import compiler.runtime.ParallelLoop;
+import compiler.runtime.PascalRuntime;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.PrimitiveType;
+import compiler.translator.type.Range;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Type checked statement. {@link #execute} tells how the statement completed.
+ *
+ * @author Arkady Rost
+ */
+abstract class Statement {
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int CONTINUE = 2;
+    static final int RETURN = 3;
+
+    abstract int execute(Frame frame);
+
+    static class Block extends Statement {
+        private final Statement[] statements;
+
+        Block(Statement[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            for (Statement statement : statements) {
+                int status = statement.execute(frame);
+                if (status != NORMAL)
+                    return status;
+            }
+            return NORMAL;
+        }
+    }
+
+    static class If extends Statement {
+        private final Expression condition;
+        private final Statement then;
+        private final Statement otherwise;
+
+        If(Expression condition, Statement then, Statement otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (condition.evaluate(frame) != 0)
+                return then.execute(frame);
+            return otherwise == null ? NORMAL : otherwise.execute(frame);
+        }
+    }
+
+    /**
+     * Runs the branch of the label containing the selector. The labels are sorted ranges that
+     * don't overlap, so the last one starting at or below the selector is the only candidate.
+     */
+    static class Case extends Statement {
+        private final Expression selector;
+        private final int[] lows;
+        private final int[] highs;
+        private final int[] targets;
+        private final Statement[] branches;
+        private final Statement otherwise;
+
+        Case(Expression selector, int[] lows, int[] highs, int[] targets, Statement[] branches, Statement otherwise) {
+            this.selector = selector;
+            this.lows = lows;
+            this.highs = highs;
+            this.targets = targets;
+            this.branches = branches;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int value = selector.evaluate(frame);
+            int i = Arrays.binarySearch(lows, value);
+            if (i < 0)
+                i = -i - 2;
+            if (i >= 0 && value <= highs[i])
+                return branches[targets[i]].execute(frame);
+            return otherwise == null ? NORMAL : otherwise.execute(frame);
+        }
+    }
+
+    /**
+     * Loop that can be handed over to translated code at its head. The rest of a loop of the main
+     * block runs translated, in a function the rest of the call does.
+     */
+    abstract static class Loop extends Statement {
+        static final int INTERPRETED = -1;
+
+        private final ParserRuleContext entry;
+        private final Function function;
+
+        Loop(ParserRuleContext entry, Function function) {
+            this.entry = entry;
+            this.function = function;
+        }
+
+        /**
+         * @return status of the loop if it was resumed by translated code, else {@link #INTERPRETED}
+         */
+        int resume(Frame frame) {
+            return entry == null ? INTERPRETED : frame.interpreter.resume(entry, function, frame);
+        }
+    }
+
+    static class While extends Loop {
+        private final Expression condition;
+        private final Statement body;
+
+        /**
+         * @param condition {@code null} if the loop only ends with a break
+         */
+        While(Expression condition, Statement body, ParserRuleContext entry, Function function) {
+            super(entry, function);
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            while (true) {
+                int resumed = resume(frame);
+                if (resumed != INTERPRETED)
+                    return resumed;
+                frame.interpreter.tick();
+                if (condition != null && condition.evaluate(frame) == 0)
+                    break;
+                int status = body.execute(frame);
+                if (status == BREAK)
+                    break;
+                if (status == RETURN)
+                    return RETURN;
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * The bound is evaluated before every iteration, like in the translated loop.
+     */
+    static class For extends Loop {
+        private final Statement initializer;
+        private final Expression bound;
+        private final Expression counter;
+        private final Statement update;
+        private final boolean to;
+        private final Statement body;
+
+        For(Statement initializer, Expression bound, Expression counter, Statement update, boolean to,
+            Statement body, ParserRuleContext entry, Function function) {
+            super(entry, function);
+            this.initializer = initializer;
+            this.bound = bound;
+            this.counter = counter;
+            this.update = update;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            initializer.execute(frame);
+            while (true) {
+                int resumed = resume(frame);
+                if (resumed != INTERPRETED)
+                    return resumed;
+                frame.interpreter.tick();
+                int limit = bound.evaluate(frame);
+                int value = counter.evaluate(frame);
+                if (to ? limit < value : limit > value)
+                    break;
+                int status = body.execute(frame);
+                if (status == BREAK)
+                    break;
+                if (status == RETURN)
+                    return RETURN;
+                update.execute(frame);
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Chunks run on {@link ParallelLoop} with a copy of the enclosing frame and share the arrays,
+     * as in the translated loop. The body only assigns array elements, the tree builder rejects
+     * anything else.
+     */
+    static class ParallelFor extends Statement {
+        private static final MethodHandle RUN;
+
+        static {
+            try {
+                RUN = MethodHandles.lookup().findVirtual(Chunk.class, "run",
+                        MethodType.methodType(void.class, int.class, int.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Expression from;
+        private final Expression to;
+        private final boolean up;
+        private final int counterSlot;
+        private final int intSlotCount;
+        private final int arraySlotCount;
+        private final Statement body;
+
+        ParallelFor(Expression from, Expression to, boolean up, int counterSlot, int intSlotCount,
+                    int arraySlotCount, Statement body) {
+            this.from = from;
+            this.to = to;
+            this.up = up;
+            this.counterSlot = counterSlot;
+            this.intSlotCount = intSlotCount;
+            this.arraySlotCount = arraySlotCount;
+            this.body = body;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            Chunk chunk = new Chunk(frame);
+            int first = from.evaluate(frame);
+            int last = to.evaluate(frame);
+            if (up) {
+                ParallelLoop.run(RUN.bindTo(chunk), first, last);
+            } else {
+                ParallelLoop.run(RUN.bindTo(chunk), last, first);
+            }
+            return NORMAL;
+        }
+
+        private class Chunk {
+            private final Frame enclosing;
+
+            Chunk(Frame enclosing) {
+                this.enclosing = enclosing;
+            }
+
+            @SuppressWarnings("unused")
+            void run(int first, int last) {
+                Frame frame = enclosing.copy(intSlotCount, arraySlotCount);
+                frame.ints[counterSlot] = first;
+                while (true) {
+                    frame.interpreter.tick();
+                    if (frame.ints[counterSlot] > last)
+                        break;
+                    body.execute(frame);
+                    frame.ints[counterSlot]++;
+                }
+            }
+        }
+    }
+
+    static class AssignLocal extends Statement {
+        private final int slot;
+        private final Expression value;
+
+        AssignLocal(int slot, Expression value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            frame.ints[slot] = value.evaluate(frame);
+            return NORMAL;
+        }
+    }
+
+    static class AssignGlobal extends Statement {
+        private final int slot;
+        private final Expression value;
+
+        AssignGlobal(int slot, Expression value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            frame.interpreter.ints[slot] = value.evaluate(frame);
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Arrays are values, the source is copied unless it is a fresh function result.
+     */
+    static class AssignLocalArray extends Statement {
+        private final int slot;
+        private final Expression value;
+        private final boolean copy;
+
+        AssignLocalArray(int slot, Expression value, boolean copy) {
+            this.slot = slot;
+            this.value = value;
+            this.copy = copy;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] array = value.evaluateArray(frame);
+            frame.arrays[slot] = copy ? array.clone() : array;
+            return NORMAL;
+        }
+    }
+
+    static class AssignGlobalArray extends Statement {
+        private final int slot;
+        private final Expression value;
+        private final boolean copy;
+
+        AssignGlobalArray(int slot, Expression value, boolean copy) {
+            this.slot = slot;
+            this.value = value;
+            this.copy = copy;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] array = value.evaluateArray(frame);
+            frame.interpreter.arrays[slot] = copy ? array.clone() : array;
+            return NORMAL;
+        }
+    }
+
+    static class AssignElement extends Statement {
+        private final Expression array;
+        private final Expression.Index index;
+        private final Expression value;
+
+        AssignElement(Expression array, Expression.Index index, Expression value) {
+            this.array = array;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            int offset = index.offset(frame);
+            a[offset] = value.evaluate(frame);
+            return NORMAL;
+        }
+    }
+
+    static class Return extends Statement {
+        private final Expression value;
+        private final boolean copy;
+
+        Return(Expression value, boolean copy) {
+            this.value = value;
+            this.copy = copy;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (value.type.isPrimitive()) {
+                frame.result = value.evaluate(frame);
+            } else {
+                int[] array = value.evaluateArray(frame);
+                frame.arrayResult = copy ? array.clone() : array;
+            }
+            return RETURN;
+        }
+    }
+
+    static class Evaluate extends Statement {
+        private final Expression expression;
+
+        Evaluate(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (expression.type.isPrimitive()) {
+                expression.evaluate(frame);
+            } else {
+                expression.evaluateArray(frame);
+            }
+            return NORMAL;
+        }
+    }
+
+    static class Write extends Statement {
+        private final Expression value;
+        private final boolean bool;
+
+        Write(Expression value, boolean bool) {
+            this.value = value;
+            this.bool = bool;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (bool) {
+                frame.interpreter.out.println(value.evaluate(frame) != 0);
+            } else {
+                frame.interpreter.out.println(value.evaluate(frame));
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Reads a value from the standard input into a variable or an element, with {@link PascalRuntime}
+     * like the translated class. The array and the index of an element are evaluated before the value is read.
+     */
+    abstract static class Read extends Statement {
+        private final boolean bool;
+
+        Read(boolean bool) {
+            this.bool = bool;
+        }
+
+        int readValue() {
+            if (bool)
+                return PascalRuntime.readBoolean() ? 1 : 0;
+            return PascalRuntime.readInteger();
+        }
+    }
+
+    static class ReadLocal extends Read {
+        private final int slot;
+
+        ReadLocal(int slot, boolean bool) {
+            super(bool);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            frame.ints[slot] = readValue();
+            return NORMAL;
+        }
+    }
+
+    static class ReadGlobal extends Read {
+        private final int slot;
+
+        ReadGlobal(int slot, boolean bool) {
+            super(bool);
+            this.slot = slot;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            frame.interpreter.ints[slot] = readValue();
+            return NORMAL;
+        }
+    }
+
+    static class ReadElement extends Read {
+        private final Expression array;
+        private final Expression.Index index;
+
+        ReadElement(Expression array, Expression.Index index, boolean bool) {
+            super(bool);
+            this.array = array;
+            this.index = index;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            int offset = index.offset(frame);
+            a[offset] = readValue();
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Reads or writes a whole array or a slice with {@link PascalRuntime}, like the translated
+     * class does.
+     */
+    static class Transfer extends Statement {
+        private final Expression array;
+        private final Expression[] indexes;
+        private final int ranged;
+        private final int[] bounds;
+        private final int[] strides;
+        private final String access;
+        private final boolean bool;
+        private final boolean read;
+
+        Transfer(Expression array, Expression[] indexes, int ranged, String access, boolean read) {
+            ArrayType type = (ArrayType) array.type;
+            this.array = array;
+            this.indexes = indexes;
+            this.ranged = ranged;
+            this.bounds = new int[2 * type.getDimensions().length];
+            this.strides = new int[type.getDimensions().length];
+            for (int i = 0; i < strides.length; i++) {
+                bounds[2 * i] = type.getDimension(i).getFrom();
+                bounds[2 * i + 1] = type.getDimension(i).getTo();
+                strides[i] = type.getStride(i);
+            }
+            this.access = access;
+            this.bool = type.getDataType() == PrimitiveType.BOOLEAN;
+            this.read = read;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            // a whole array ranges over its bounds
+            int[] values = indexes == null ? bounds : new int[indexes.length];
+            for (int i = 0; indexes != null && i < indexes.length; i++)
+                values[i] = indexes[i].evaluate(frame);
+            if (read) {
+                PascalRuntime.readElements(a, values, ranged, bounds, strides, access, bool);
+            } else {
+                PascalRuntime.writeElements(frame.interpreter.out, a, values, ranged, bounds, strides, access, bool);
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Fills a whole array, or a range of a one-dimensional one if {@code from} isn't {@code null},
+     * like the translated class does.
+     */
+    static class Fill extends Statement {
+        private final Expression array;
+        private final Expression value;
+        private final Expression from;
+        private final Expression to;
+        private final String access;
+
+        Fill(Expression array, Expression value, Expression from, Expression to, String access) {
+            this.array = array;
+            this.value = value;
+            this.from = from;
+            this.to = to;
+            this.access = access;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            int v = value.evaluate(frame);
+            if (from == null) {
+                Arrays.fill(a, v);
+            } else {
+                Range bounds = ((ArrayType) array.type).getDimension(0);
+                PascalRuntime.fill(a, v, from.evaluate(frame), to.evaluate(frame), bounds.getFrom(), bounds.getTo(), access);
+            }
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Copies a whole array, or a range of a one-dimensional one if {@code from} isn't {@code null}.
+     */
+    static class Copy extends Statement {
+        private final Expression source;
+        private final Expression from;
+        private final Expression to;
+        private final Expression target;
+        private final Expression at;
+        private final String access;
+
+        Copy(Expression source, Expression from, Expression to, Expression target, Expression at, String access) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.target = target;
+            this.at = at;
+            this.access = access;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] src = source.evaluateArray(frame);
+            if (from == null) {
+                System.arraycopy(src, 0, target.evaluateArray(frame), 0, ((ArrayType) source.type).getSize());
+                return NORMAL;
+            }
+            int first = from.evaluate(frame);
+            int last = to.evaluate(frame);
+            int[] dst = target.evaluateArray(frame);
+            Range bounds = ((ArrayType) source.type).getDimension(0);
+            Range targetBounds = ((ArrayType) target.type).getDimension(0);
+            PascalRuntime.copy(src, first, last, bounds.getFrom(), bounds.getTo(), dst, at.evaluate(frame),
+                    targetBounds.getFrom(), targetBounds.getTo(), access);
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Sorts a one-dimensional array, or a range of it if {@code from} isn't {@code null}.
+     */
+    static class Sort extends Statement {
+        private final Expression array;
+        private final Expression from;
+        private final Expression to;
+        private final String access;
+
+        Sort(Expression array, Expression from, Expression to, String access) {
+            this.array = array;
+            this.from = from;
+            this.to = to;
+            this.access = access;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            int[] a = array.evaluateArray(frame);
+            if (from == null) {
+                Arrays.sort(a);
+            } else {
+                Range bounds = ((ArrayType) array.type).getDimension(0);
+                PascalRuntime.sort(a, from.evaluate(frame), to.evaluate(frame), bounds.getFrom(), bounds.getTo(), access);
+            }
+            return NORMAL;
+        }
+    }
+
+    static class Jump extends Statement {
+        private final int status;
+
+        Jump(int status) {
+            this.status = status;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            return status;
+        }
+    }
+}
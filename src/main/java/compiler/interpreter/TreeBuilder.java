@@ -0,0 +1,891 @@
+package compiler.interpreter;
+
+import compiler.parser.PascalParser.*;
+import compiler.translator.CompileException;
+import compiler.translator.Intrinsic;
+import compiler.translator.TranslateOptions;
+import compiler.translator.TranslateVisitor;
+import compiler.translator.UnitManifest;
+import compiler.translator.Utils;
+import compiler.translator.analysis.CaseLabels;
+import compiler.translator.analysis.ConstantFolder;
+import compiler.translator.analysis.ParallelRules;
+import compiler.translator.analysis.ProgramUsage;
+import compiler.translator.analysis.Usage;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+import compiler.translator.type.Range;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * Type checks a program with the rules and messages of {@link TranslateVisitor} and builds the
+ * statements run by {@link Interpreter}. Programs the translated class would fail to verify
+ * with are rejected here.
+ *
+ * @author Arkady Rost
+ */
+class TreeBuilder {
+    final Map<String, Variable> globals = new LinkedHashMap<>();
+    final List<Function> functions = new ArrayList<>();
+    int globalIntCount;
+    int globalArrayCount;
+    Statement main;
+    int mainIntSlotCount;
+    int mainArraySlotCount;
+    /**
+     * Loader of the classes of the used units, the parent of the translated program's loader.
+     */
+    ClassLoader unitLoader = ClassLoader.getSystemClassLoader();
+
+    private final TranslateOptions options;
+    private final Map<String, List<Function>> functionsByName = new HashMap<>();
+    private ProgramUsage programUsage;
+    private Map<String, Variable> locals = new HashMap<>();
+    private final List<Variable> declaredLocals = new ArrayList<>();
+    private Function function;
+    private int intSlots;
+    private int arraySlots;
+    private String methodName;
+    private DataType methodType;
+    private Usage usage;
+    private final Set<String> parameters = new HashSet<>();
+    private final Set<String> copiedParameters = new HashSet<>();
+    private final Deque<Boolean> loops = new ArrayDeque<>();
+    private boolean inParallelBody;
+    private DataType assignedType;
+
+    TreeBuilder(ProgramContext ctx, TranslateOptions options) {
+        this.options = options;
+        programUsage = ProgramUsage.analyze(ctx);
+        useUnits(ctx);
+        BodyContext body = ctx.body();
+        for (VarDeclarationContext vctx : body.varDeclarations().varDeclaration()) {
+            DataType type = getType(vctx.type());
+            for (TerminalNode id : vctx.ID()) {
+                int slot = type.isPrimitive() ? globalIntCount++ : globalArrayCount++;
+                globals.put(id.getText(), new Variable(true, slot, type));
+            }
+        }
+        for (FunctionDeclarationContext fctx : body.functionDeclarations().functionDeclaration())
+            buildFunction(fctx);
+        methodName = null;
+        main = block(body.block());
+        mainIntSlotCount = intSlots;
+        mainArraySlotCount = arraySlots;
+    }
+
+    private void buildFunction(FunctionDeclarationContext ctx) {
+        String name = ctx.ID().getText();
+        methodName = name;
+        methodType = getType(ctx.type());
+        List<String> declared = new ArrayList<>();
+        DataType[] argType = new DataType[ctx.varDeclaration().size()];
+        int i = 0;
+        for (VarDeclarationContext pctx : ctx.varDeclaration()) {
+            DataType type = getType(pctx.type());
+            for (TerminalNode id : pctx.ID()) {
+                if (locals.containsKey(id.getText()))
+                    throw new CompileException(String.format("Duplicate parameter %s in declaration %s", id.getText(), ctx.getText()));
+                if (name.equals(id.getText()))
+                    throw new CompileException(String.format("Illegal parameter %s name in declaration %s.", id.getText(), ctx.getText()));
+                declareLocal(id.getText(), type);
+                declared.add(id.getText());
+                parameters.add(id.getText());
+            }
+            argType[i++] = type;
+        }
+        Function existing = findFunction(name, argType);
+        if (existing != null && existing.unit == null)
+            throw new CompileException(String.format("Function with same signature as %s already declared.", ctx.getText()));
+        if (existing != null)
+            throw new CompileException(String.format("Function %s has the same signature as a function of a used unit: %s", name, ctx.getText()));
+        function = new Function(name, methodType, argType);
+        functions.add(function);
+        declareFunction(function);
+
+        // arguments take the first slots of the method, whatever parameter group declared them
+        usage = Usage.of(ctx);
+        boolean writesGlobals = programUsage.isWritingGlobalElements(name);
+        function.parameterSlots = new int[argType.length];
+        function.copiedParameters = new boolean[argType.length];
+        for (i = 0; i < argType.length; i++) {
+            String var = declared.get(i);
+            Variable parameter = locals.get(var);
+            if (parameter.type.isPrimitive() != argType[i].isPrimitive())
+                throw new CompileException(String.format("Parameters of %s don't match its signature.", ctx.getText()));
+            function.parameterSlots[i] = parameter.slot;
+            function.copiedParameters[i] = !argType[i].isPrimitive()
+                    && (writesGlobals || usage.isLocalElementWritten(var));
+            if (function.copiedParameters[i])
+                copiedParameters.add(var);
+        }
+
+        List<Variable> arrays = new ArrayList<>();
+        for (VarDeclarationContext vctx : ctx.varDeclarations().varDeclaration()) {
+            DataType type = getType(vctx.type());
+            for (TerminalNode var : vctx.ID()) {
+                if (var.getText().equals(methodName))
+                    throw new CompileException(String.format("Illegal local variable name %s in %s.", var.getText(), vctx.getText()));
+                Variable local = declareLocal(var.getText(), type);
+                if (!type.isPrimitive() && usage.isLocalRead(var.getText()))
+                    arrays.add(local);
+            }
+        }
+        function.arraySlots = new int[arrays.size()];
+        function.arraySizes = new int[arrays.size()];
+        for (i = 0; i < arrays.size(); i++) {
+            function.arraySlots[i] = arrays.get(i).slot;
+            function.arraySizes[i] = ((ArrayType) arrays.get(i).type).getSize();
+        }
+
+        function.body = block(ctx.block());
+        if (canComplete(ctx.block()))
+            throw new CompileException(String.format("Function %s can finish without a result.", name));
+        function.intSlotCount = intSlots;
+        function.arraySlotCount = arraySlots;
+        function.variables = declaredLocals.toArray(new Variable[declaredLocals.size()]);
+
+        function = null;
+        locals = new HashMap<>();
+        declaredLocals.clear();
+        intSlots = 0;
+        arraySlots = 0;
+        parameters.clear();
+        copiedParameters.clear();
+        usage = null;
+    }
+
+    private void declareFunction(Function function) {
+        if (!functionsByName.containsKey(function.name))
+            functionsByName.put(function.name, new ArrayList<Function>());
+        functionsByName.get(function.name).add(function);
+    }
+
+    /**
+     * Declares the functions of the used units, they are called through method handles of the
+     * unit classes loaded from the unit path. No two functions of the units may have the same signature.
+     */
+    private void useUnits(ProgramContext ctx) {
+        if (ctx.uses() == null)
+            return;
+        if (options.isBudgetChecks())
+            throw new CompileException("Units don't count ticks, a program with budget checks can't use them: " + ctx.uses().getText());
+        List<URL> path = new ArrayList<>();
+        try {
+            for (File directory : options.getUnitPath())
+                path.add(directory.toURI().toURL());
+        } catch (MalformedURLException e) {
+            throw new CompileException(e);
+        }
+        unitLoader = new URLClassLoader(path.toArray(new URL[path.size()]), TreeBuilder.class.getClassLoader());
+        Set<String> used = new HashSet<>();
+        for (TerminalNode id : ctx.uses().ID()) {
+            String className = Utils.getClassName(id.getText());
+            if (className.equals(Utils.getClassName(ctx.ID().getText())))
+                throw new CompileException(String.format("%s can't use itself", className));
+            if (!used.add(className))
+                throw new CompileException(String.format("Unit %s is used twice: %s", className, ctx.uses().getText()));
+            UnitManifest unit = UnitManifest.find(className, options);
+            Class<?> c;
+            try {
+                c = Class.forName(className, true, unitLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new CompileException("Can't load the class of unit " + className, e);
+            }
+            for (UnitManifest.Declaration declaration : unit.getFunctions()) {
+                Function function = new Function(declaration.getName(), declaration.getType(), declaration.getParameterTypes());
+                function.parameterSlots = new int[function.parameterTypes.length];
+                for (int i = 0; i < function.parameterTypes.length; i++) {
+                    function.parameterSlots[i] = function.parameterTypes[i].isPrimitive()
+                            ? function.intSlotCount++ : function.arraySlotCount++;
+                }
+                try {
+                    function.unit = MethodHandles.publicLookup().findStatic(c, function.name, MethodType.fromMethodDescriptorString(
+                            Utils.getFunctionDescriptor(function.type, function.parameterTypes), unitLoader));
+                } catch (ReflectiveOperationException e) {
+                    throw new CompileException(String.format("Unit %s has no function %s of its manifest", className, function.name), e);
+                }
+                if (findFunction(function.name, function.parameterTypes) != null)
+                    throw new CompileException(String.format("Function %s of unit %s has the same signature as a function of another used unit",
+                            function.name, className));
+                declareFunction(function);
+            }
+        }
+    }
+
+    private Variable declareLocal(String name, DataType type) {
+        Variable local = new Variable(false, type.isPrimitive() ? intSlots++ : arraySlots++, type);
+        locals.put(name, local);
+        declaredLocals.add(local);
+        return local;
+    }
+
+    private Function findFunction(String name, DataType[] argumentType) {
+        List<Function> overloads = functionsByName.get(name);
+        if (overloads == null)
+            return null;
+        for (Function function : overloads) {
+            if (Arrays.equals(function.parameterTypes, argumentType))
+                return function;
+        }
+        return null;
+    }
+
+    private DataType getType(TypeContext ctx) {
+        List<RangeContext> rctxList = ctx.range();
+        if (rctxList.isEmpty())
+            return getPrimitiveType(ctx.getText());
+        Range[] dimensions = new Range[rctxList.size()];
+        int i = 0;
+        for (RangeContext rctx : rctxList) {
+            int from = Integer.parseInt(rctx.NUMBER(0).getText());
+            int to = Integer.parseInt(rctx.NUMBER(1).getText());
+            dimensions[i++] = new Range(from, to);
+        }
+        return options.getArrayType(getPrimitiveType(ctx.PRIMITIVE_TYPE().getText()), dimensions);
+    }
+
+    private static PrimitiveType getPrimitiveType(String type) {
+        switch (type) {
+            case "integer": return PrimitiveType.INTEGER;
+            case "boolean": return PrimitiveType.BOOLEAN;
+            default:
+                throw new CompileException("Unknown primitive type: " + type);
+        }
+    }
+
+    /**
+     * Mirrors the reachability of the translated code: the end of a function that can be reached
+     * makes the class fail verification.
+     */
+    private boolean canComplete(StatementContext ctx) {
+        if (ctx.assignmentStatement() != null) {
+            QualifiedNameContext name = ctx.assignmentStatement().qualifiedName();
+            return !(name.expression().isEmpty() && name.ID().getText().equals(methodName));
+        } else if (ctx.breakStatement() != null || ctx.continueStatement() != null) {
+            return false;
+        } else if (ctx.block() != null) {
+            return canComplete(ctx.block());
+        } else if (ctx.ifStatement() != null) {
+            IfStatementContext ictx = ctx.ifStatement();
+            Boolean condition = ConstantFolder.booleanValue(ictx.expression());
+            StatementContext otherwise = ictx.elsePart() == null ? null : ictx.elsePart().statement();
+            boolean thenCompletes = !Boolean.FALSE.equals(condition) && canComplete(ictx.statement());
+            boolean elseCompletes = !Boolean.TRUE.equals(condition) && (otherwise == null || canComplete(otherwise));
+            return thenCompletes || elseCompletes;
+        } else if (ctx.caseStatement() != null) {
+            CaseStatementContext cctx = ctx.caseStatement();
+            if (cctx.elsePart() == null || canComplete(cctx.elsePart().statement()))
+                return true;
+            for (CaseBranchContext bctx : cctx.caseBranch()) {
+                if (canComplete(bctx.statement()))
+                    return true;
+            }
+            return false;
+        } else if (ctx.whileStatement() != null) {
+            WhileStatementContext wctx = ctx.whileStatement();
+            return !Boolean.TRUE.equals(ConstantFolder.booleanValue(wctx.expression())) || canBreak(wctx.statement());
+        }
+        return true;
+    }
+
+    private boolean canComplete(BlockContext ctx) {
+        for (StatementContext sctx : ctx.statement()) {
+            if (!canComplete(sctx))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a reachable break leaves the loop the statement is the body of
+     */
+    private boolean canBreak(StatementContext ctx) {
+        if (ctx.breakStatement() != null) {
+            return true;
+        } else if (ctx.block() != null) {
+            for (StatementContext sctx : ctx.block().statement()) {
+                if (canBreak(sctx))
+                    return true;
+                if (!canComplete(sctx))
+                    return false;
+            }
+        } else if (ctx.ifStatement() != null) {
+            IfStatementContext ictx = ctx.ifStatement();
+            Boolean condition = ConstantFolder.booleanValue(ictx.expression());
+            if (!Boolean.FALSE.equals(condition) && canBreak(ictx.statement()))
+                return true;
+            return !Boolean.TRUE.equals(condition) && ictx.elsePart() != null && canBreak(ictx.elsePart().statement());
+        } else if (ctx.caseStatement() != null) {
+            CaseStatementContext cctx = ctx.caseStatement();
+            for (CaseBranchContext bctx : cctx.caseBranch()) {
+                if (canBreak(bctx.statement()))
+                    return true;
+            }
+            return cctx.elsePart() != null && canBreak(cctx.elsePart().statement());
+        }
+        return false;
+    }
+
+    private Statement block(BlockContext ctx) {
+        List<StatementContext> statements = ctx.statement();
+        Statement[] result = new Statement[statements.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = statement(statements.get(i));
+        return new Statement.Block(result);
+    }
+
+    private Statement statement(StatementContext ctx) {
+        if (ctx.ifStatement() != null) {
+            return ifStatement(ctx.ifStatement());
+        } else if (ctx.caseStatement() != null) {
+            return caseStatement(ctx.caseStatement());
+        } else if (ctx.forStatement() != null) {
+            return forStatement(ctx.forStatement());
+        } else if (ctx.whileStatement() != null) {
+            return whileStatement(ctx.whileStatement());
+        } else if (ctx.assignmentStatement() != null) {
+            return assignment(ctx.assignmentStatement());
+        } else if (ctx.block() != null) {
+            return block(ctx.block());
+        } else if (ctx.functionCall() != null) {
+            Intrinsic intrinsic = intrinsic(ctx.functionCall());
+            if (intrinsic != null && !intrinsic.hasValue())
+                return intrinsicStatement(intrinsic, ctx.functionCall());
+            return new Statement.Evaluate(functionCall(ctx.functionCall()));
+        } else if (ctx.readStatement() != null) {
+            return readStatement(ctx.readStatement());
+        } else if (ctx.writeStatement() != null) {
+            return writeStatement(ctx.writeStatement());
+        } else if (ctx.breakStatement() != null) {
+            if (loops.isEmpty())
+                throw new CompileException("Break is out of loop " + ctx.getText());
+            ParallelRules.checkBreak(loops.peek(), ctx);
+            return new Statement.Jump(Statement.BREAK);
+        } else if (ctx.continueStatement() != null) {
+            if (loops.isEmpty())
+                throw new CompileException("Continue is out of loop " + ctx.getText());
+            return new Statement.Jump(Statement.CONTINUE);
+        } else {
+            throw new CompileException("Unsupported statement: " + ctx.getText());
+        }
+    }
+
+    private Statement ifStatement(IfStatementContext ctx) {
+        Expression condition = expression(ctx.expression());
+        verifyType(condition.type, PrimitiveType.BOOLEAN, ctx);
+        Statement then = statement(ctx.statement());
+        Statement otherwise = ctx.elsePart() == null ? null : statement(ctx.elsePart().statement());
+        return new Statement.If(condition, then, otherwise);
+    }
+
+    private Statement caseStatement(CaseStatementContext ctx) {
+        CaseLabels labels = CaseLabels.of(ctx);
+        Expression selector = expression(ctx.expression());
+        verifyType(selector.type, PrimitiveType.INTEGER, ctx);
+        Statement[] branches = new Statement[ctx.caseBranch().size()];
+        for (int i = 0; i < branches.length; i++)
+            branches[i] = statement(ctx.caseBranch(i).statement());
+        Statement otherwise = ctx.elsePart() == null ? null : statement(ctx.elsePart().statement());
+        return new Statement.Case(selector, labels.getLows(), labels.getHighs(), labels.getBranches(), branches, otherwise);
+    }
+
+    private Statement forStatement(ForStatementContext ctx) {
+        if (ctx.parallel != null)
+            return parallelFor(ctx);
+        Statement initializer = assignment(ctx.assignmentStatement());
+        verifyType(assignedType, PrimitiveType.INTEGER, ctx);
+        boolean to = "to".equals(ctx.DIRECTION().getText());
+        Expression bound = expression(ctx.expression());
+        verifyPrimitiveType(bound.type, ctx);
+        QualifiedNameContext counter = ctx.assignmentStatement().qualifiedName();
+        Expression value = qualifiedName(counter);
+        Expression next = new Expression.Binary(PrimitiveType.INTEGER, Expression.Operator.ADD, qualifiedName(counter),
+                new Expression.Constant(PrimitiveType.INTEGER, to ? 1 : -1));
+        Statement update;
+        if (counter.expression().isEmpty()) {
+            Variable var = variable(counter.ID().getText(), ctx);
+            update = var.global ? new Statement.AssignGlobal(var.slot, next) : new Statement.AssignLocal(var.slot, next);
+        } else {
+            Expression array = array(counter.ID().getText());
+            update = new Statement.AssignElement(array, index((ArrayType) array.type, counter), next);
+        }
+        loops.push(false);
+        Statement body = statement(ctx.statement());
+        loops.pop();
+        return new Statement.For(initializer, bound, value, update, to, body, loopEntry(ctx), function);
+    }
+
+    private Statement whileStatement(WhileStatementContext ctx) {
+        Boolean constant = ConstantFolder.booleanValue(ctx.expression());
+        Expression condition = expression(ctx.expression());
+        verifyType(condition.type, PrimitiveType.BOOLEAN, ctx);
+        loops.push(false);
+        Statement body = statement(ctx.statement());
+        loops.pop();
+        return new Statement.While(Boolean.TRUE.equals(constant) ? null : condition, body, loopEntry(ctx), function);
+    }
+
+    /**
+     * @return loop key of {@link TranslateVisitor#getLoopEntries()}, loops of parallel bodies
+     * have none
+     */
+    private ParserRuleContext loopEntry(ParserRuleContext ctx) {
+        return inParallelBody ? null : ctx;
+    }
+
+    private Statement parallelFor(ForStatementContext ctx) {
+        QualifiedNameContext counter = ctx.assignmentStatement().qualifiedName();
+        if (!counter.expression().isEmpty())
+            throw new CompileException("Parallel loop counter must be a variable: " + ctx.getText());
+        String var = counter.ID().getText();
+        verifyType(variable(var, ctx).type, PrimitiveType.INTEGER, ctx);
+        Expression from = expression(ctx.assignmentStatement().expression());
+        verifyType(from.type, PrimitiveType.INTEGER, ctx);
+        Expression to = expression(ctx.expression());
+        verifyType(to.type, PrimitiveType.INTEGER, ctx);
+
+        // the counter is a local of the body even if the loop names a global
+        Map<String, Variable> enclosing = locals;
+        locals = new HashMap<>(locals);
+        Variable local = locals.get(var);
+        if (local == null) {
+            local = new Variable(false, intSlots++, PrimitiveType.INTEGER);
+            locals.put(var, local);
+        }
+        boolean wasInParallelBody = inParallelBody;
+        inParallelBody = true;
+        loops.push(true);
+        Statement body = statement(ctx.statement());
+        loops.pop();
+        inParallelBody = wasInParallelBody;
+        locals = enclosing;
+        boolean up = "to".equals(ctx.DIRECTION().getText());
+        return new Statement.ParallelFor(from, to, up, local.slot, intSlots, arraySlots, body);
+    }
+
+    private void checkParallelWrite(String var, ParseTree ctx) {
+        if (!inParallelBody)
+            return;
+        ParallelRules.checkWrite(var, var.equals(methodName), locals.containsKey(var) || globals.containsKey(var), ctx);
+    }
+
+    private Statement assignment(AssignmentStatementContext ctx) {
+        QualifiedNameContext name = ctx.qualifiedName();
+        if (!name.expression().isEmpty()) {
+            Expression array = array(name.ID().getText());
+            Expression.Index index = index((ArrayType) array.type, name);
+            Expression value = expression(ctx.expression());
+            verifyType(value.type, PrimitiveType.INTEGER, ctx);
+            assignedType = PrimitiveType.INTEGER;
+            return new Statement.AssignElement(array, index, value);
+        }
+        String var = name.ID().getText();
+        checkParallelWrite(var, ctx);
+        Expression value = expression(ctx.expression());
+        DataType etype = value.type;
+        assignedType = etype;
+        boolean copy = !etype.isPrimitive() && !isFreshArray(ctx.expression());
+        if (var.equals(methodName)) {
+            verifyType(etype, methodType, ctx);
+            return new Statement.Return(value, copy && !isOwnLocalArray(ctx.expression()));
+        }
+        if (!locals.containsKey(var) && !globals.containsKey(var))
+            throw new CompileException(String.format("Variable %s not found in context %s.", var, ctx.getText()));
+        Variable target = variable(var, ctx);
+        verifyType(etype, target.type, ctx);
+        if (etype.isPrimitive()) {
+            return target.global ? new Statement.AssignGlobal(target.slot, value) : new Statement.AssignLocal(target.slot, value);
+        }
+        return target.global ? new Statement.AssignGlobalArray(target.slot, value, copy)
+                : new Statement.AssignLocalArray(target.slot, value, copy);
+    }
+
+    private boolean isFreshArray(ExpressionContext ctx) {
+        FactorContext fctx = getSingleFactor(ctx);
+        return fctx != null && fctx.functionCall() != null;
+    }
+
+    private boolean isOwnLocalArray(ExpressionContext ctx) {
+        FactorContext fctx = getSingleFactor(ctx);
+        if (fctx == null || fctx.qualifiedName() == null || !fctx.qualifiedName().expression().isEmpty())
+            return false;
+        String var = fctx.qualifiedName().ID().getText();
+        return locals.containsKey(var) && (!parameters.contains(var) || copiedParameters.contains(var));
+    }
+
+    private static FactorContext getSingleFactor(ExpressionContext ctx) {
+        while (ctx.appTerm().size() == 1 && ctx.appTerm(0).SIGN().isEmpty() && ctx.appTerm(0).mulTerm(0).factor().size() == 1) {
+            FactorContext fctx = ctx.appTerm(0).mulTerm(0).factor(0);
+            if (fctx.expression() == null)
+                return fctx;
+            ctx = fctx.expression();
+        }
+        return null;
+    }
+
+    private Statement readStatement(ReadStatementContext ctx) {
+        List<Statement> reads = new ArrayList<>();
+        for (ReadOperandContext octx : ctx.readOperand()) {
+            QualifiedNameContext nctx = octx.qualifiedName();
+            if (nctx == null) {
+                reads.add(transfer(octx.arraySlice(), true));
+            } else if (nctx.expression().isEmpty() && isArrayVariable(nctx.ID().getText())) {
+                reads.add(transfer(array(nctx.ID().getText()), nctx, true));
+            } else if (nctx.expression().isEmpty()) {
+                String var = nctx.ID().getText();
+                checkParallelWrite(var, ctx);
+                if (!locals.containsKey(var) && !globals.containsKey(var))
+                    throw new CompileException(String.format("Variable %s not found in context %s", var, ctx));
+                Variable target = variable(var, ctx);
+                verifyPrimitiveType(target.type, ctx);
+                boolean bool = target.type == PrimitiveType.BOOLEAN;
+                reads.add(target.global ? new Statement.ReadGlobal(target.slot, bool) : new Statement.ReadLocal(target.slot, bool));
+            } else {
+                Expression array = array(nctx.ID().getText());
+                ArrayType type = (ArrayType) array.type;
+                reads.add(new Statement.ReadElement(array, index(type, nctx), type.getDataType() == PrimitiveType.BOOLEAN));
+            }
+        }
+        return new Statement.Block(reads.toArray(new Statement[reads.size()]));
+    }
+
+    private Statement writeStatement(WriteStatementContext ctx) {
+        List<Statement> writes = new ArrayList<>();
+        for (WriteOperandContext octx : ctx.writeOperand()) {
+            ExpressionContext ectx = octx.expression();
+            if (ectx == null) {
+                writes.add(transfer(octx.arraySlice(), false));
+                continue;
+            }
+            Expression value = expression(ectx);
+            if (value.type instanceof ArrayType && isArrayVariable(ectx)) {
+                writes.add(transfer(value, ectx, false));
+                continue;
+            }
+            verifyPrimitiveType(value.type, ctx);
+            writes.add(new Statement.Write(value, value.type == PrimitiveType.BOOLEAN));
+        }
+        return new Statement.Block(writes.toArray(new Statement[writes.size()]));
+    }
+
+    private Statement transfer(ArraySliceContext ctx, boolean read) {
+        Expression array = array(ctx.ID().getText());
+        ArrayType type = (ArrayType) array.type;
+        if (ctx.sliceIndex().size() != type.getDimensions().length) {
+            throw new CompileException(String.format("Arity exception. Got %d. Expected %d.",
+                    ctx.sliceIndex().size(), type.getDimensions().length));
+        }
+        List<Expression> indexes = new ArrayList<>();
+        int ranged = 0;
+        for (int i = 0; i < ctx.sliceIndex().size(); i++) {
+            for (ExpressionContext ectx : ctx.sliceIndex(i).expression()) {
+                Expression index = expression(ectx);
+                verifyPrimitiveType(index.type, ctx);
+                indexes.add(index);
+            }
+            if (ctx.sliceIndex(i).expression().size() > 1)
+                ranged |= 1 << i;
+        }
+        return new Statement.Transfer(array, indexes.toArray(new Expression[indexes.size()]), ranged, ctx.getText(), read);
+    }
+
+    /**
+     * A whole array is a slice ranging over every dimension.
+     */
+    private static Statement transfer(Expression array, ParserRuleContext ctx, boolean read) {
+        int ranged = (1 << ((ArrayType) array.type).getDimensions().length) - 1;
+        return new Statement.Transfer(array, null, ranged, ctx.getText(), read);
+    }
+
+    private boolean isArrayVariable(String var) {
+        if (locals.containsKey(var))
+            return !locals.get(var).type.isPrimitive();
+        return globals.containsKey(var) && !globals.get(var).type.isPrimitive();
+    }
+
+    /**
+     * @return whether the expression is just an array variable, which is written as a whole
+     */
+    private boolean isArrayVariable(ExpressionContext ctx) {
+        FactorContext fctx = getSingleFactor(ctx);
+        return fctx != null && fctx.qualifiedName() != null && fctx.qualifiedName().expression().isEmpty()
+                && isArrayVariable(fctx.qualifiedName().ID().getText());
+    }
+
+    private Variable variable(String var, ParserRuleContext ctx) {
+        if (locals.containsKey(var))
+            return locals.get(var);
+        if (globals.containsKey(var))
+            return globals.get(var);
+        throw new CompileException(String.format("Variable %s not found in context %s.", var, ctx.getText()));
+    }
+
+    private Expression array(String var) {
+        Variable array;
+        if (locals.containsKey(var)) {
+            array = locals.get(var);
+        } else if (globals.containsKey(var)) {
+            array = globals.get(var);
+        } else {
+            throw new CompileException(String.format("Variable %s not found.", var));
+        }
+        checkArrayType(array.type);
+        return load(array);
+    }
+
+    private static Expression load(Variable var) {
+        return var.global ? new Expression.Global(var.type, var.slot) : new Expression.Local(var.type, var.slot);
+    }
+
+    private static void checkArrayType(DataType type) {
+        if (!(type instanceof ArrayType))
+            throw new CompileException("Not an array type: " + type);
+    }
+
+    private Expression.Index index(ArrayType type, QualifiedNameContext ctx) {
+        if (ctx.expression().size() != type.getDimensions().length) {
+            throw new CompileException(String.format("Arity exception. Got %d. Expected %d.",
+                    ctx.expression().size(), type.getDimensions().length));
+        }
+        Expression[] indexes = new Expression[ctx.expression().size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = expression(ctx.expression(i));
+            verifyPrimitiveType(indexes[i].type, ctx);
+        }
+        return new Expression.Index(type, indexes, ctx.getText());
+    }
+
+    private Expression expression(ExpressionContext ctx) {
+        AppTermContext actx = ctx.appTerm(0);
+        Expression result = appTerm(actx);
+        int i = 1;
+        for (TerminalNode op : ctx.APP_OP()) {
+            DataType type = result.type;
+            verifyType(type, Utils.isBooleanOperator(op.getText()) ? PrimitiveType.BOOLEAN : PrimitiveType.INTEGER, actx);
+            actx = ctx.appTerm(i++);
+            Expression right = appTerm(actx);
+            verifyType(right.type, type, actx);
+            result = new Expression.Binary(PrimitiveType.BOOLEAN, operator(op.getText(), ctx), result, right);
+        }
+        return result;
+    }
+
+    private static Expression.Operator operator(String op, ExpressionContext ctx) {
+        switch (op) {
+            case "or": return Expression.Operator.OR;
+            case "and": return Expression.Operator.AND;
+            case ">=": return Expression.Operator.GE;
+            case "<=": return Expression.Operator.LE;
+            case "<>": return Expression.Operator.NE;
+            case "=": return Expression.Operator.EQ;
+            case ">": return Expression.Operator.GT;
+            case "<": return Expression.Operator.LT;
+            default:
+                throw new CompileException("Unsupported compare operation: " + ctx.getText());
+        }
+    }
+
+    private Expression appTerm(AppTermContext ctx) {
+        if (ctx.SIGN().isEmpty())
+            return mulTerm(ctx.mulTerm(0));
+        int i = 0;
+        Expression result;
+        if (ctx.mulTerm().size() == ctx.SIGN().size()) {
+            result = new Expression.Constant(PrimitiveType.INTEGER, 0);
+        } else {
+            MulTermContext mctx = ctx.mulTerm(i++);
+            result = mulTerm(mctx);
+            verifyType(result.type, PrimitiveType.INTEGER, mctx);
+        }
+        for (TerminalNode op : ctx.SIGN()) {
+            MulTermContext mctx = ctx.mulTerm(i++);
+            Expression right = mulTerm(mctx);
+            verifyType(right.type, PrimitiveType.INTEGER, mctx);
+            Expression.Operator operator = "+".equals(op.getText()) ? Expression.Operator.ADD : Expression.Operator.SUB;
+            result = new Expression.Binary(PrimitiveType.INTEGER, operator, result, right);
+        }
+        return result;
+    }
+
+    /**
+     * Like the translator, only the first factor is checked to be an integer and the term has
+     * the type of the last one.
+     */
+    private Expression mulTerm(MulTermContext ctx) {
+        Expression result = factor(ctx.factor(0));
+        if (!ctx.MUL_OP().isEmpty()) {
+            verifyType(result.type, PrimitiveType.INTEGER, ctx);
+            int i = 1;
+            for (TerminalNode op : ctx.MUL_OP()) {
+                Expression right = factor(ctx.factor(i++));
+                verifyPrimitiveType(right.type, ctx);
+                Expression.Operator operator;
+                switch (op.getText()) {
+                    case "*": operator = Expression.Operator.MUL; break;
+                    case "/": operator = Expression.Operator.DIV; break;
+                    default: operator = Expression.Operator.MOD; break;
+                }
+                result = new Expression.Binary(right.type, operator, result, right);
+            }
+        }
+        return result;
+    }
+
+    private Expression factor(FactorContext ctx) {
+        if (ctx.expression() != null) {
+            return expression(ctx.expression());
+        } else if (ctx.functionCall() != null) {
+            return functionCall(ctx.functionCall());
+        } else if (ctx.qualifiedName() != null) {
+            return qualifiedName(ctx.qualifiedName());
+        } else if (ctx.NUMBER() != null) {
+            return new Expression.Constant(PrimitiveType.INTEGER, Integer.parseInt(ctx.NUMBER().getText()));
+        } else if (ctx.bool() != null) {
+            return new Expression.Constant(PrimitiveType.BOOLEAN, "false".equals(ctx.bool().getText()) ? 0 : 1);
+        } else if (ctx.notFactor() != null) {
+            return notFactor(ctx.notFactor());
+        } else {
+            throw new CompileException("Unsupported expression " + ctx.getText());
+        }
+    }
+
+    private Expression notFactor(NotFactorContext ctx) {
+        boolean revert = true;
+        FactorContext fctx = ctx.factor();
+        while (fctx.notFactor() != null) {
+            revert = !revert;
+            fctx = fctx.notFactor().factor();
+        }
+        Expression operand = factor(fctx);
+        verifyType(operand.type, PrimitiveType.BOOLEAN, ctx);
+        return revert ? new Expression.Not(operand) : operand;
+    }
+
+    private Expression qualifiedName(QualifiedNameContext ctx) {
+        Expression value = load(variable(ctx.ID().getText(), ctx));
+        if (ctx.expression().isEmpty())
+            return value;
+        checkArrayType(value.type);
+        return new Expression.Element(value, index((ArrayType) value.type, ctx));
+    }
+
+    private Expression functionCall(FunctionCallContext ctx) {
+        String name = ctx.ID().getText();
+        Intrinsic intrinsic = intrinsic(ctx);
+        if (intrinsic != null) {
+            if (!intrinsic.hasValue())
+                throw new CompileException("No value of call " + ctx.getText());
+            return reduction(intrinsic, ctx);
+        }
+        Expression[] arguments = new Expression[ctx.expression().size()];
+        DataType[] argumentType = new DataType[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = expression(ctx.expression(i));
+            argumentType[i] = arguments[i].type;
+        }
+        Function function = findFunction(name, argumentType);
+        if (function == null)
+            throw new CompileException(String.format("No such method %s available in call %s", name, ctx.getText()));
+        if (inParallelBody)
+            ParallelRules.checkCall(programUsage, name, ctx);
+        return new Expression.Call(function, arguments);
+    }
+
+    /**
+     * @return intrinsic called, {@code null} if the call is of a declared function
+     */
+    private Intrinsic intrinsic(FunctionCallContext ctx) {
+        Intrinsic intrinsic = Intrinsic.of(ctx.ID().getText());
+        if (intrinsic == null || functionsByName.containsKey(ctx.ID().getText()))
+            return null;
+        if (!intrinsic.accepts(ctx.expression().size()))
+            throw new CompileException(String.format("No such method %s available in call %s", intrinsic.getName(), ctx.getText()));
+        return intrinsic;
+    }
+
+    private Statement intrinsicStatement(Intrinsic intrinsic, FunctionCallContext ctx) {
+        boolean ranged = intrinsic.isRanged(ctx.expression().size());
+        Expression array = intrinsicArray(ctx.expression(0), ranged, ctx);
+        ArrayType type = (ArrayType) array.type;
+        switch (intrinsic) {
+            case FILL:
+                Expression value = expression(ctx.expression(1));
+                verifyType(value.type, type.getDataType(), ctx);
+                if (!ranged)
+                    return new Statement.Fill(array, value, null, null, ctx.getText());
+                return new Statement.Fill(array, value, integer(ctx.expression(2), ctx), integer(ctx.expression(3), ctx), ctx.getText());
+            case COPY:
+                if (!ranged) {
+                    Expression target = intrinsicArray(ctx.expression(1), false, ctx);
+                    verifyType(target.type, type, ctx);
+                    return new Statement.Copy(array, null, null, target, null, ctx.getText());
+                }
+                Expression from = integer(ctx.expression(1), ctx);
+                Expression to = integer(ctx.expression(2), ctx);
+                Expression target = intrinsicArray(ctx.expression(3), true, ctx);
+                verifyType(((ArrayType) target.type).getDataType(), type.getDataType(), ctx);
+                return new Statement.Copy(array, from, to, target, integer(ctx.expression(4), ctx), ctx.getText());
+            default:
+                if (!ranged) {
+                    if (type.getDimensions().length > 1)
+                        throw new CompileException(String.format("Type mismatch in %s. Expected one-dimensional array. Got %s.",
+                                ctx.getText(), type));
+                    return new Statement.Sort(array, null, null, ctx.getText());
+                }
+                return new Statement.Sort(array, integer(ctx.expression(1), ctx), integer(ctx.expression(2), ctx), ctx.getText());
+        }
+    }
+
+    private Expression reduction(Intrinsic intrinsic, FunctionCallContext ctx) {
+        boolean ranged = intrinsic.isRanged(ctx.expression().size());
+        Expression array = intrinsicArray(ctx.expression(0), ranged, ctx);
+        verifyType(((ArrayType) array.type).getDataType(), PrimitiveType.INTEGER, ctx);
+        if (!ranged)
+            return new Expression.Reduction(intrinsic, array, null, null, ctx.getText());
+        return new Expression.Reduction(intrinsic, array, integer(ctx.expression(1), ctx), integer(ctx.expression(2), ctx), ctx.getText());
+    }
+
+    /**
+     * @return array variable an intrinsic is called with
+     */
+    private Expression intrinsicArray(ExpressionContext ctx, boolean ranged, FunctionCallContext call) {
+        if (!isArrayVariable(ctx.getText()))
+            throw new CompileException(String.format("Expected array variable in %s. Got %s.", call.getText(), ctx.getText()));
+        Expression array = array(ctx.getText());
+        ArrayType type = (ArrayType) array.type;
+        if (ranged && type.getDimensions().length > 1)
+            throw new CompileException(String.format("Type mismatch in %s. Expected one-dimensional array. Got %s.",
+                    call.getText(), type));
+        return array;
+    }
+
+    private Expression integer(ExpressionContext ctx, FunctionCallContext call) {
+        Expression index = expression(ctx);
+        verifyType(index.type, PrimitiveType.INTEGER, call);
+        return index;
+    }
+
+    private static void verifyType(DataType gotten, DataType expected, ParseTree ctx) {
+        if (!expected.equals(gotten))
+            throw new CompileException(String.format("Type mismatch in %s. Expected %s. Got %s.", ctx.getText(),
+                    expected.toString(), gotten.toString()));
+    }
+
+    private static void verifyPrimitiveType(DataType gotten, ParseTree ctx) {
+        if (!gotten.isPrimitive())
+            throw new CompileException(String.format("Type mismatch in %s. Expected primitive type. Got %s.",
+                    ctx.getText(), gotten.toString()));
+    }
+}
@@ -0,0 +1,20 @@
+package compiler.interpreter;
+
+import compiler.translator.type.DataType;
+
+/**
+ * Slot of a global in {@link Interpreter} or of a local in {@link Frame}.
+ *
+ * @author Arkady Rost
+ */
+class Variable {
+    final boolean global;
+    final int slot;
+    final DataType type;
+
+    Variable(boolean global, int slot, DataType type) {
+        this.global = global;
+        this.slot = slot;
+        this.type = type;
+    }
+}
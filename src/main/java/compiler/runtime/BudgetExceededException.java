@@ -0,0 +1,12 @@
+package compiler.runtime;
+
+/**
+ * Thrown from a program compiled with budget checks when its {@link ExecutionBudget} runs out.
+ *
+ * @author Arkady Rost
+ */
+public class BudgetExceededException extends RuntimeException {
+    public BudgetExceededException(String s) {
+        super(s);
+    }
+}
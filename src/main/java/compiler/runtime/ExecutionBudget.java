@@ -0,0 +1,143 @@
+package compiler.runtime;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tick, time and cancellation limits for a program compiled with budget checks.
+ *
+ * A compiled program counts one tick per loop iteration and per function call in a local
+ * variable and only touches the static fields of its class once per {@link #SLICE} ticks:
+ * it then stops if {@link #STOP_FIELD} is set, otherwise takes one slice from
+ * {@link #SLICES_FIELD}. No calls are made on the counting path, so loops keep their JIT
+ * optimizations. Limits are enforced with slice granularity. Code that may run on the threads
+ * of a parallel loop keeps the ticks of every thread apart, see {@link #threadFuel()}, and takes
+ * its slices under the lock of the program class.
+ *
+ * The budget lives in statics of the program class, so a host should load a program class
+ * per concurrent run. A class run without a budget is unlimited.
+ *
+ * @author Arkady Rost
+ */
+public class ExecutionBudget {
+    public static final int SLICE = 1 << 12;
+    /** Remaining slices, {@code int}, initialized to {@link Integer#MAX_VALUE}. */
+    public static final String SLICES_FIELD = "$slices";
+    /** Stop reason, {@code volatile int}, zero while the program may run. */
+    public static final String STOP_FIELD = "$stop";
+
+    public static final int TICKS_EXCEEDED = 1;
+    public static final int TIME_EXCEEDED = 2;
+    public static final int CANCELLED = 3;
+
+    private static final ScheduledExecutorService WATCHDOG = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "execution-budget-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final long ticks;
+    private final long timeoutMillis;
+    private volatile Field stop;
+    private volatile boolean cancelled;
+
+    /**
+     * @param ticks         loop iterations and calls allowed, non-positive for no limit
+     * @param timeoutMillis wall clock time allowed, non-positive for no limit
+     */
+    public ExecutionBudget(long ticks, long timeoutMillis) {
+        this.ticks = ticks;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Makes the running program stop at its next slice. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        signal(CANCELLED);
+    }
+
+    /**
+     * Runs {@code main} of a program compiled with budget checks under this budget.
+     *
+     * @throws BudgetExceededException if the program ran out of budget
+     */
+    public void runMain(Class<?> program, String... args) throws Throwable {
+        Method main = program.getMethod("main", String[].class);
+        Field slices = program.getField(SLICES_FIELD);
+        Field stop = program.getField(STOP_FIELD);
+        slices.setInt(null, ticks > 0 ? (int) Math.min(Integer.MAX_VALUE, (ticks + SLICE - 1) / SLICE) : Integer.MAX_VALUE);
+        stop.setInt(null, cancelled ? CANCELLED : 0);
+        this.stop = stop;
+
+        ScheduledFuture<?> timeout = null;
+        if (timeoutMillis > 0) {
+            timeout = WATCHDOG.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    signal(TIME_EXCEEDED);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            if (timeout != null)
+                timeout.cancel(false);
+            this.stop = null;
+        }
+    }
+
+    private void signal(int reason) {
+        Field stop = this.stop;
+        if (stop == null)
+            return;
+        try {
+            stop.setInt(null, reason);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Called by the class initializer of a compiled program.
+     *
+     * @return ticks left of the current slice of every thread, for the code that may run in parallel
+     */
+    public static ThreadLocal<int[]> threadFuel() {
+        return new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+    }
+
+    /**
+     * Called by compiled programs on their way out.
+     *
+     * @return exception for the program to throw
+     */
+    public static RuntimeException exceeded(int reason) {
+        switch (reason) {
+            case TICKS_EXCEEDED:
+                return new BudgetExceededException("Tick limit exceeded");
+            case TIME_EXCEEDED:
+                return new BudgetExceededException("Time limit exceeded");
+            default:
+                return new BudgetExceededException("Execution cancelled");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package compiler.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the body of a {@code parallel for} loop. The body is a {@code (II)V} method handle running
+ * the iterations of an inclusive range in order. Ranges are split in halves on a fork-join pool
+ * until they are no longer than the chunk size, ranges up to {@link #THRESHOLD} iterations run
+ * sequentially on the calling thread.
+ *
+ * The threshold can be changed with the {@code compiler.parallel.threshold} system property.
+ *
+ * @author Arkady Rost
+ */
+public class ParallelLoop {
+    public static final int THRESHOLD = Integer.getInteger("compiler.parallel.threshold", 1 << 11);
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public static void run(MethodHandle body, int from, int to) {
+        if (from > to)
+            return;
+        long length = (long) to - from + 1;
+        int parallelism = POOL.getParallelism();
+        if (length <= THRESHOLD || parallelism == 1) {
+            invoke(body, from, to);
+            return;
+        }
+        long chunk = Math.max(THRESHOLD, length / ((long) parallelism * CHUNKS_PER_THREAD));
+        Chunk task = new Chunk(body, from, to, chunk);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    private static void invoke(MethodHandle body, int from, int to) {
+        try {
+            body.invokeExact(from, to);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Chunk extends RecursiveAction {
+        private final MethodHandle body;
+        private final int from;
+        private final int to;
+        private final long chunk;
+
+        Chunk(MethodHandle body, int from, int to, long chunk) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) to - from + 1 <= chunk) {
+                ParallelLoop.invoke(body, from, to);
+                return;
+            }
+            int middle = (int) (((long) from + to) >> 1);
+            invokeAll(new Chunk(body, from, middle, chunk), new Chunk(body, middle + 1, to, chunk));
+        }
+    }
+}
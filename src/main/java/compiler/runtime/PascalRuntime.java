@@ -0,0 +1,352 @@
+package compiler.runtime;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Helpers called by programs compiled with a shared runtime instead of inlining the same code
+ * into every class. The class initializer of such a program calls {@link #require} first.
+ * Every read, reading and writing whole arrays and array slices and the array intrinsics taking
+ * a range always go through the runtime.
+ *
+ * Helpers are only ever added, never changed or removed, and every addition bumps
+ * {@link #VERSION}, so a runtime runs every program compiled against the same or an older one.
+ *
+ * @author Arkady Rost
+ */
+public final class PascalRuntime {
+    public static final int VERSION = 4;
+
+    private static final int WRITE_BUFFER = 1 << 13;
+    private static final int READ_BUFFER = 1 << 16;
+
+    /**
+     * Bytes of {@link System#in} read ahead, shared by every read of a value or an array so no
+     * input is lost from one read to the next.
+     */
+    private static final byte[] input = new byte[READ_BUFFER];
+    private static int inputPosition;
+    private static int inputLimit;
+
+    private PascalRuntime() {
+    }
+
+    /**
+     * Fails a program compiled against a newer runtime before it gets to call a missing helper.
+     */
+    public static void require(int version) {
+        if (version > VERSION)
+            throw new IncompatibleClassChangeError(String.format(
+                    "Program needs runtime version %d, found version %d", version, VERSION));
+    }
+
+    /**
+     * Reads the next integer from the standard input, values are separated by any whitespace.
+     * Compiled and interpreted programs read every value here, with or without a shared runtime,
+     * so scalar reads and {@link #readElements} take their bytes from the same buffer.
+     */
+    public static synchronized int readInteger() {
+        return readIntegerElement();
+    }
+
+    public static synchronized boolean readBoolean() {
+        return readBooleanElement() != 0;
+    }
+
+    public static void write(int value) {
+        System.out.println(value);
+    }
+
+    public static void write(boolean value) {
+        System.out.println(value);
+    }
+
+    /**
+     * Reads the elements of a slice of an array from the standard input, one per line or
+     * separated by any whitespace. The first index changes fastest. Like for the scalar reads the
+     * input is read in blocks and numbers are parsed straight from the bytes.
+     *
+     * @param indexes the index of every dimension not in {@code ranged}, the first and the last
+     *                index of every other one. The slice is empty if one of its ranges is.
+     * @param ranged  bit set of the dimensions given by a range
+     * @param bounds  the first and the last index of every dimension of the array
+     * @param strides distance between the elements neighbouring in every dimension
+     * @param access  text of the operand for the error of an index out of bounds
+     * @param bool    whether the elements are booleans
+     * @since 2
+     */
+    public static synchronized void readElements(int[] a, int[] indexes, int ranged, int[] bounds, int[] strides, String access, boolean bool) {
+        int[] counts = new int[strides.length];
+        int[] positions = new int[strides.length];
+        for (int row = slice(indexes, ranged, bounds, strides, access, counts); row >= 0; row = nextRow(row, positions, counts, strides)) {
+            for (int i = 0, offset = row; i < counts[0]; i++, offset += strides[0])
+                a[offset] = bool ? readBooleanElement() : readIntegerElement();
+        }
+    }
+
+    /**
+     * @return next byte of the standard input, -1 at its end
+     */
+    private static int nextInput() {
+        if (inputPosition == inputLimit) {
+            try {
+                inputLimit = Math.max(System.in.read(input, 0, input.length), 0);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+            inputPosition = 0;
+            if (inputLimit == 0)
+                return -1;
+        }
+        return input[inputPosition++];
+    }
+
+    /**
+     * @return first byte of the next element, skipping the whitespace before it
+     */
+    private static int startElement() {
+        int c = nextInput();
+        while (c != -1 && Character.isWhitespace(c))
+            c = nextInput();
+        if (c == -1)
+            throw new NumberFormatException("Input ended before the value to read");
+        return c;
+    }
+
+    private static int readIntegerElement() {
+        int c = startElement();
+        boolean negative = c == '-';
+        long value = 0;
+        int digits = 0;
+        if (c == '-' || c == '+')
+            c = nextInput();
+        for (; c >= '0' && c <= '9' && value <= Integer.MAX_VALUE + 1L; c = nextInput(), digits++)
+            value = value * 10 + c - '0';
+        if (digits == 0 || c != -1 && !Character.isWhitespace(c) || value > (negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE)) {
+            // the rest of the element, for the error
+            StringBuilder text = new StringBuilder(negative ? "-" : "").append(digits > 0 ? String.valueOf(value) : "");
+            for (; c != -1 && !Character.isWhitespace(c); c = nextInput())
+                text.append((char) c);
+            throw new NumberFormatException("For input string: \"" + text + "\"");
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private static int readBooleanElement() {
+        StringBuilder text = new StringBuilder();
+        for (int c = startElement(); c != -1 && !Character.isWhitespace(c); c = nextInput())
+            text.append((char) c);
+        return Boolean.parseBoolean(text.toString()) ? 1 : 0;
+    }
+
+    /**
+     * Writes the elements of a slice of an array one per line, like {@link #readElements} reads
+     * them. The lines are printed in blocks rather than flushed one by one.
+     *
+     * @since 2
+     */
+    public static void writeElements(int[] a, int[] indexes, int ranged, int[] bounds, int[] strides, String access, boolean bool) {
+        writeElements(System.out, a, indexes, ranged, bounds, strides, access, bool);
+    }
+
+    /**
+     * Writes the elements of a slice to {@code out}, for programs whose output doesn't go to
+     * {@code System.out}.
+     *
+     * @since 4
+     */
+    public static void writeElements(PrintStream out, int[] a, int[] indexes, int ranged, int[] bounds, int[] strides, String access, boolean bool) {
+        int[] counts = new int[strides.length];
+        int[] positions = new int[strides.length];
+        String separator = System.lineSeparator();
+        StringBuilder lines = new StringBuilder();
+        for (int row = slice(indexes, ranged, bounds, strides, access, counts); row >= 0; row = nextRow(row, positions, counts, strides)) {
+            for (int i = 0, offset = row; i < counts[0]; i++, offset += strides[0]) {
+                if (bool) {
+                    lines.append(a[offset] != 0);
+                } else {
+                    lines.append(a[offset]);
+                }
+                lines.append(separator);
+                if (lines.length() >= WRITE_BUFFER) {
+                    out.print(lines);
+                    lines.setLength(0);
+                }
+            }
+        }
+        out.print(lines);
+        out.flush();
+    }
+
+    /**
+     * Fills {@code counts} with the length of the slice in every dimension.
+     *
+     * @return offset of the first element of the slice, -1 if the slice is empty
+     */
+    private static int slice(int[] indexes, int ranged, int[] bounds, int[] strides, String access, int[] counts) {
+        int[] from = new int[counts.length];
+        int[] to = new int[counts.length];
+        boolean empty = false;
+        for (int d = 0, k = 0; d < counts.length; d++) {
+            from[d] = indexes[k++];
+            to[d] = (ranged & 1 << d) != 0 ? indexes[k++] : from[d];
+            empty |= to[d] < from[d];
+        }
+        if (empty)
+            return -1;
+        int offset = 0;
+        for (int d = 0; d < counts.length; d++) {
+            if (from[d] < bounds[2 * d] || to[d] > bounds[2 * d + 1])
+                throw indexOutOfBound(access);
+            counts[d] = to[d] - from[d] + 1;
+            offset += (from[d] - bounds[2 * d]) * strides[d];
+        }
+        return offset;
+    }
+
+    /**
+     * Steps to the next run of the slice along the first dimension, the other indexes change
+     * like the digits of a number.
+     *
+     * @return offset of the first element of the next run, -1 after the last one
+     */
+    private static int nextRow(int row, int[] positions, int[] counts, int[] strides) {
+        for (int d = 1; d < counts.length; d++) {
+            if (++positions[d] < counts[d])
+                return row + strides[d];
+            row -= (counts[d] - 1) * strides[d];
+            positions[d] = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * Fills elements {@code from..to} of a one-dimensional array indexed from {@code low} to
+     * {@code high}. Like the other intrinsics taking a range it checks the bounds once and does
+     * nothing for an empty range.
+     *
+     * @since 3
+     */
+    public static void fill(int[] a, int value, int from, int to, int low, int high, String access) {
+        if (checkRange(from, to, low, high, access))
+            Arrays.fill(a, from - low, to - low + 1, value);
+    }
+
+    /**
+     * @since 3
+     */
+    public static void sort(int[] a, int from, int to, int low, int high, String access) {
+        if (checkRange(from, to, low, high, access))
+            Arrays.sort(a, from - low, to - low + 1);
+    }
+
+    /**
+     * Copies elements {@code from..to} of {@code src} into {@code dst} starting at {@code at}.
+     *
+     * @since 3
+     */
+    public static void copy(int[] src, int from, int to, int low, int high, int[] dst, int at, int dstLow, int dstHigh, String access) {
+        if (checkRange(from, to, low, high, access) && checkRange(at, at + (to - from), dstLow, dstHigh, access))
+            System.arraycopy(src, from - low, dst, at - dstLow, to - from + 1);
+    }
+
+    /**
+     * @since 3
+     */
+    public static int sum(int[] a, int from, int to, int low, int high, String access) {
+        int sum = 0;
+        if (checkRange(from, to, low, high, access)) {
+            for (int i = from - low; i <= to - low; i++)
+                sum += a[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @since 3
+     */
+    public static int min(int[] a, int from, int to, int low, int high, String access) {
+        if (!checkRange(from, to, low, high, access))
+            throw new RuntimeException("Empty range in " + access);
+        int min = a[from - low];
+        for (int i = from - low + 1; i <= to - low; i++)
+            min = Math.min(min, a[i]);
+        return min;
+    }
+
+    /**
+     * @since 3
+     */
+    public static int max(int[] a, int from, int to, int low, int high, String access) {
+        if (!checkRange(from, to, low, high, access))
+            throw new RuntimeException("Empty range in " + access);
+        int max = a[from - low];
+        for (int i = from - low + 1; i <= to - low; i++)
+            max = Math.max(max, a[i]);
+        return max;
+    }
+
+    /**
+     * Sums every element of a multi-dimensional array in the padded layout, skipping the padding.
+     *
+     * @param counts  length of every dimension
+     * @param strides distance between the elements neighbouring in every dimension
+     * @since 3
+     */
+    public static int sum(int[] a, int[] counts, int[] strides) {
+        int[] positions = new int[counts.length];
+        int sum = 0;
+        for (int row = 0; row >= 0; row = nextRow(row, positions, counts, strides)) {
+            for (int i = row; i < row + counts[0]; i++)
+                sum += a[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @since 3
+     */
+    public static int min(int[] a, int[] counts, int[] strides) {
+        int[] positions = new int[counts.length];
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row >= 0; row = nextRow(row, positions, counts, strides)) {
+            for (int i = row; i < row + counts[0]; i++)
+                min = Math.min(min, a[i]);
+        }
+        return min;
+    }
+
+    /**
+     * @since 3
+     */
+    public static int max(int[] a, int[] counts, int[] strides) {
+        int[] positions = new int[counts.length];
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row >= 0; row = nextRow(row, positions, counts, strides)) {
+            for (int i = row; i < row + counts[0]; i++)
+                max = Math.max(max, a[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return whether the range {@code from..to} has elements, which are then all within
+     * {@code low..high}
+     */
+    private static boolean checkRange(int from, int to, int low, int high, String access) {
+        if (to < from)
+            return false;
+        if (from < low || to > high)
+            throw indexOutOfBound(access);
+        return true;
+    }
+
+    /**
+     * @return exception for the program to throw, so the failing access stays on top of the trace
+     */
+    public static RuntimeException indexOutOfBound(String access) {
+        return new RuntimeException("Index out of bound in access " + access);
+    }
+}
@@ -0,0 +1,124 @@
+package compiler.runtime;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Main class of a jar of programs compiled with the shared runtime. Runs the programs named on
+ * the command line one after another in this JVM, so the runtime and the JDK classes they use
+ * are loaded once. Without arguments lists the programs of the jar.
+ *
+ * The index is only read to list the programs, a run just loads the class of the program. A
+ * program named twice is loaded again for its second run, so it starts from fresh globals.
+ *
+ * @author Arkady Rost
+ */
+public final class ProgramLauncher {
+    /** Lines of a program class name and the name of its source file, separated by a space. */
+    public static final String INDEX = "META-INF/programs.list";
+
+    private ProgramLauncher() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 0) {
+            System.err.println("Usage: java -jar <programs.jar> <program>...");
+            for (Map.Entry<String, String> program : readIndex().entrySet())
+                System.err.println("    " + program.getKey() + " (" + program.getValue() + ")");
+            System.exit(1);
+        }
+        ClassLoader loader = ProgramLauncher.class.getClassLoader();
+        Class<?>[] programs = new Class<?>[args.length];
+        Set<String> loaded = new HashSet<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            try {
+                // programs are compiled into the default package
+                if (name.indexOf('.') >= 0)
+                    throw new ClassNotFoundException(name);
+                programs[i] = loaded.add(name) ? Class.forName(name, false, loader)
+                        : new ProgramLoader(loader, name).loadClass(name);
+            } catch (ClassNotFoundException e) {
+                System.err.println("No program " + name + " in the jar.");
+                System.exit(1);
+            }
+        }
+        for (Class<?> program : programs)
+            run(program);
+    }
+
+    private static void run(Class<?> program) throws Throwable {
+        try {
+            program.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Map<String, String> readIndex() throws IOException {
+        Map<String, String> programs = new LinkedHashMap<>();
+        InputStream in = ProgramLauncher.class.getClassLoader().getResourceAsStream(INDEX);
+        if (in == null)
+            throw new IOException("No " + INDEX + " on the class path");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0)
+                    programs.put(line.substring(0, space), line.substring(space + 1));
+            }
+        }
+        return programs;
+    }
+
+    /**
+     * Defines the program class itself and delegates everything else, the runtime included.
+     */
+    private static class ProgramLoader extends ClassLoader {
+        private final String program;
+
+        ProgramLoader(ClassLoader parent, String program) {
+            super(parent);
+            this.program = program;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!program.equals(name))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null)
+                    c = findClass(name);
+                if (resolve)
+                    resolveClass(c);
+                return c;
+            }
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in == null)
+                    throw new ClassNotFoundException(name);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    bytes.write(buffer, 0, read);
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
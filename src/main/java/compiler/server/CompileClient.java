@@ -0,0 +1,71 @@
+package compiler.server;
+
+import compiler.Compiler;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Thin client for {@link CompileServer}. Takes the same arguments as {@link Compiler}
+ * and falls back to compiling in-process when no server is listening.
+ * Programs started with {@code -run} always run in the client, they need its standard input.
+ * The port can be changed with the {@code compiler.server.port} system property. Requests carry
+ * the token from {@link CompileServer#tokenFile(int)}, without that file the server counts as not running.
+ *
+ * @author Arkady Rost
+ */
+public class CompileClient {
+    public static void main(String[] args) throws IOException {
+        int port = Integer.getInteger("compiler.server.port", CompileServer.DEFAULT_PORT);
+        String dir = new File(System.getProperty("user.dir")).getAbsolutePath();
+        int status;
+        if (Arrays.asList(args).contains("-run")) {
+            status = Compiler.run(args, new File(dir), System.out, System.err);
+        } else {
+            try {
+                status = request(port, readToken(port), dir, args);
+            } catch (ConnectException | FileNotFoundException e) {
+                System.err.println("Compile server is not running on port " + port + ", compiling in-process.");
+                status = Compiler.run(args, new File(dir), System.out, System.err);
+            }
+        }
+        if (status != 0)
+            System.exit(status);
+    }
+
+    private static String readToken(int port) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(CompileServer.tokenFile(port)), StandardCharsets.UTF_8))) {
+            String token = reader.readLine();
+            return token == null ? "" : token;
+        }
+    }
+
+    private static int request(int port, String token, String dir, String[] args) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(dir);
+            out.writeInt(args.length);
+            for (String arg : args)
+                out.writeUTF(arg);
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("out ")) {
+                    System.out.println(line.substring(4));
+                } else if (line.startsWith("err ")) {
+                    System.err.println(line.substring(4));
+                } else if (line.startsWith("exit ")) {
+                    return Integer.parseInt(line.substring(5));
+                }
+            }
+            throw new IOException("Compile server closed connection for " + Arrays.toString(args));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package compiler.server;
+
+import compiler.Compiler;
+import compiler.translator.TranslateVisitor;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived compiler process listening on the loopback interface.
+ * Parser DFA cache, loaded classes and JIT-compiled code are shared by all requests,
+ * so repeated compiles don't pay JVM startup.
+ *
+ * Request: token, absolute working directory, number of compiler arguments and the arguments,
+ * written with {@link DataOutputStream}, so empty arguments and arguments with line breaks arrive intact.
+ * Response: lines prefixed with {@code out } or {@code err }, then {@code exit <status>}.
+ *
+ * Trust model: a request reads and writes files anywhere the user running the server can, so only
+ * that user may send one. The loopback interface keeps other machines out; other users of the same
+ * machine are kept out by the token, a random string the server writes on start to
+ * {@link #tokenFile(int)}, which only its owner can read. Requests without the token are rejected
+ * before their directory or arguments are looked at.
+ *
+ * @author Arkady Rost
+ */
+public class CompileServer {
+    public static final int DEFAULT_PORT = 7532;
+
+    private static final String WARM_UP_PROGRAM = "program warmUp;\n" +
+            "var i, s : integer;\n" +
+            "    a : array [1 .. 10, 1 .. 10] of integer;\n" +
+            "function f(x : integer) : boolean;\n" +
+            "begin\n" +
+            "    f := (x mod 2 = 0) or not (x > 5);\n" +
+            "end;\n" +
+            "begin\n" +
+            "    s := 0;\n" +
+            "    for i := 1 to 10 do begin\n" +
+            "        a[i, i] := i * i;\n" +
+            "        if f(i) then s := s + a[i, i] else continue;\n" +
+            "    end;\n" +
+            "    while s > 0 do s := s - 1;\n" +
+            "    write(s);\n" +
+            "end.\n";
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final int TOKEN_BYTES = 32;
+    /**
+     * Time a session waits for the next bytes of a request, a stalled client doesn't hold a
+     * thread of the pool longer.
+     */
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final int port;
+    private final ExecutorService executor;
+    private byte[] token;
+
+    public CompileServer(int port, int threads) {
+        this.port = port;
+        // sessions compile on the threads of the pool, which get the deep stack of the compiler
+        final AtomicInteger sessions = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                return Compiler.newThread(task, "compile-session-" + sessions.incrementAndGet());
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        new CompileServer(port, threads).serve();
+    }
+
+    /**
+     * File holding the token of the server listening on the port, in the home directory of the user.
+     */
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".pascal-compile-server-" + port);
+    }
+
+    public void serve() throws IOException {
+        warmUp();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            token = writeToken(tokenFile(port));
+            System.out.println("Compile server listening on " + server.getLocalSocketAddress());
+            while (true)
+                executor.execute(new Session(server.accept(), token));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Writes a fresh random token to the file, created readable and writable by the owner only.
+     */
+    private static byte[] writeToken(File file) throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random)
+            hex.append(String.format("%02x", b & 0xff));
+        byte[] token = hex.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        try {
+            if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(path);
+                file.setReadable(false, false);
+                file.setWritable(false, false);
+                file.setReadable(true, true);
+                file.setWritable(true, true);
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("Another compile server is starting with token file " + file, e);
+        }
+        file.deleteOnExit();
+        Files.write(path, token);
+        return token;
+    }
+
+    private static void warmUp() throws IOException {
+        byte[] source = WARM_UP_PROGRAM.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++)
+            new TranslateVisitor().visit(Compiler.parse(new ByteArrayInputStream(source)));
+    }
+
+    private static class Session implements Runnable {
+        private final Socket socket;
+        private final byte[] token;
+
+        Session(Socket socket, byte[] token) {
+            this.socket = socket;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket) {
+                s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                if (!MessageDigest.isEqual(token, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                    System.out.println("Rejected request with a wrong token from " + s.getRemoteSocketAddress());
+                    out.write("err Compile server rejected the request, its token doesn't match.\n");
+                    out.write("exit 1\n");
+                    out.flush();
+                    return;
+                }
+                String dir = in.readUTF();
+                int count = in.readInt();
+                if (count < 0)
+                    throw new IOException("Negative argument count " + count);
+                List<String> args = new ArrayList<>();
+                for (int i = 0; i < count; i++)
+                    args.add(in.readUTF());
+
+                ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+                ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+                long start = System.nanoTime();
+                int status;
+                try (PrintStream o = new PrintStream(stdout, true, "UTF-8");
+                     PrintStream e = new PrintStream(stderr, true, "UTF-8")) {
+                    try {
+                        File directory = new File(dir);
+                        if (!directory.isAbsolute() || !directory.isDirectory()) {
+                            e.println("Working directory must be an absolute path to an existing directory: " + dir);
+                            status = 1;
+                        } else if (args.contains("-run")) {
+                            e.println("Programs run with -run need the standard input of the client.");
+                            status = 1;
+                        } else {
+                            status = Compiler.compile(args.toArray(new String[args.size()]), directory, o, e);
+                        }
+                    } catch (RuntimeException | StackOverflowError ex) {
+                        e.println("Internal compiler error!");
+                        ex.printStackTrace(e);
+                        status = 1;
+                    }
+                }
+                long elapsed = (System.nanoTime() - start) / 1000;
+                System.out.println(String.format("%s %s: status %d in %d.%03d ms", dir, args, status,
+                        elapsed / 1000, elapsed % 1000));
+
+                writeLines(out, "out ", stdout);
+                writeLines(out, "err ", stderr);
+                out.write("exit " + status + "\n");
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Compile session failed: " + e.getMessage());
+            }
+        }
+
+        private static void writeLines(Writer out, String prefix, ByteArrayOutputStream buffer) throws IOException {
+            BufferedReader reader = new BufferedReader(new StringReader(buffer.toString("UTF-8")));
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                out.write(prefix + line + "\n");
+        }
+    }
+}
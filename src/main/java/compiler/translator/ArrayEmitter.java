@@ -0,0 +1,518 @@
+package compiler.translator;
+
+import compiler.parser.PascalParser.AssignmentStatementContext;
+import compiler.parser.PascalParser.ExpressionContext;
+import compiler.parser.PascalParser.FunctionCallContext;
+import compiler.parser.PascalParser.QualifiedNameContext;
+import compiler.runtime.PascalRuntime;
+import compiler.translator.analysis.Usage;
+import compiler.translator.scope.TranslateScope;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Emits the allocation of arrays, the access to their elements and the calls of the
+ * {@link Intrinsic intrinsics} working on whole arrays.
+ *
+ * @author Arkady Rost
+ */
+class ArrayEmitter {
+    private final TranslateVisitor visitor;
+    private final TranslateOptions options;
+    private final List<ScratchArray> scratchArrays = new ArrayList<>();
+    private int scratchCount;
+    private String depthField;
+    private int depthSlot;
+
+    ArrayEmitter(TranslateVisitor visitor, TranslateOptions options) {
+        this.visitor = visitor;
+        this.options = options;
+    }
+
+    /**
+     * Lazy arrays are read through a private accessor, the class initializer leaves them
+     * {@code null}. The field is volatile, so an array allocated by one thread of a parallel loop
+     * is seen zeroed by the others.
+     */
+    void createLazyArrayAccessors() {
+        TranslateScope scope = visitor.scope;
+        for (Map.Entry<String, DataType> var : scope.getGlobalVariables().entrySet()) {
+            if (!isLazyArray(var.getKey()))
+                continue;
+            String name = var.getKey();
+            String descriptor = var.getValue().getType().getDescriptor();
+            String methodDescriptor = "()" + descriptor;
+
+            MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC,
+                    lazyArrayAccessor(name), methodDescriptor);
+            Label readyLabel = new Label();
+            mv.visitFieldInsn(GETSTATIC, scope.getClassName(), name, descriptor);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNONNULL, readyLabel);
+            mv.visitInsn(POP);
+            mv.visitMethodInsn(INVOKESTATIC, scope.getClassName(), lazyArrayAccessor(name) + "$init", methodDescriptor, false);
+            mv.visitLabel(readyLabel);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = visitor.mv = visitor.createMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNCHRONIZED | ACC_SYNTHETIC,
+                    lazyArrayAccessor(name) + "$init", methodDescriptor);
+            Label allocatedLabel = new Label();
+            mv.visitFieldInsn(GETSTATIC, scope.getClassName(), name, descriptor);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNONNULL, allocatedLabel);
+            mv.visitInsn(POP);
+            initializeArray((ArrayType) var.getValue());
+            mv.visitInsn(DUP);
+            mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), name, descriptor);
+            mv.visitLabel(allocatedLabel);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+    }
+
+    boolean isLazyArray(String var) {
+        int threshold = options.getLazyArrayThreshold();
+        TranslateScope scope = visitor.scope;
+        if (threshold <= 0 || !scope.isGlobalVariable(var) || !visitor.hasField(var))
+            return false;
+        DataType type = scope.getGlobalVariableType(var);
+        return !type.isPrimitive() && ((ArrayType) type).getSize() >= threshold;
+    }
+
+    private static String lazyArrayAccessor(String var) {
+        return "$" + var;
+    }
+
+    void loadGlobal(String var, DataType type) {
+        if (isLazyArray(var)) {
+            visitor.mv.visitMethodInsn(INVOKESTATIC, visitor.scope.getClassName(), lazyArrayAccessor(var),
+                    "()" + type.getType().getDescriptor(), false);
+        } else {
+            visitor.mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), var, type.getType().getDescriptor());
+        }
+    }
+
+    void initializeArray(ArrayType type) {
+        visitor.mv.visitLdcInsn(type.getSize());
+        visitor.mv.visitIntInsn(NEWARRAY, T_INT);
+    }
+
+    void copyArray() {
+        visitor.mv.visitMethodInsn(INVOKEVIRTUAL, Type.getDescriptor(int[].class), "clone",
+                Type.getMethodDescriptor(Type.getType(Object.class)), false);
+        visitor.mv.visitTypeInsn(CHECKCAST, Type.getDescriptor(int[].class));
+    }
+
+    /**
+     * Local arrays that never escape their function are taken from a static pool instead of being
+     * allocated on each call. A function that runs on several threads at once can't share a pool.
+     */
+    boolean isScratchArray(String var, DataType type) {
+        Usage usage = visitor.usage;
+        return type instanceof ArrayType && usage != null && !visitor.discarding && !visitor.loops.isInParallelBody()
+                && !usage.isLocalEscaping(var) && !visitor.programUsage.isCalledInParallel(visitor.scope.getMethodName());
+    }
+
+    /**
+     * Leaves a zeroed scratch array on the stack. Recursive functions index their pools by the
+     * recursion depth, so every active call has its own arrays.
+     */
+    void loadScratchArray(ArrayType type) {
+        TranslateScope scope = visitor.scope;
+        MethodVisitor mv = visitor.mv;
+        ScratchArray array = new ScratchArray("$scratch" + scratchCount++, type,
+                visitor.programUsage.isRecursive(scope.getMethodName()));
+        scratchArrays.add(array);
+        if (array.recursive) {
+            if (depthField == null) {
+                depthField = "$depth" + scratchCount;
+                visitor.cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, depthField, "I", null, null).visitEnd();
+                depthSlot = scope.reserveLocalSlot();
+                mv.visitFieldInsn(GETSTATIC, scope.getClassName(), depthField, "I");
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ISTORE, depthSlot);
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(IADD);
+                mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), depthField, "I");
+            }
+            mv.visitVarInsn(ILOAD, depthSlot);
+        }
+        mv.visitMethodInsn(INVOKESTATIC, scope.getClassName(), array.name, array.accessorDescriptor(), false);
+    }
+
+    /**
+     * Gives the scratch arrays of the returning call back to the pool.
+     */
+    void releaseScratchArrays() {
+        if (depthField == null)
+            return;
+        visitor.mv.visitVarInsn(ILOAD, depthSlot);
+        visitor.mv.visitFieldInsn(PUTSTATIC, visitor.scope.getClassName(), depthField, "I");
+    }
+
+    /**
+     * Ends the function using the scratch arrays taken since the last call.
+     */
+    void endFunction() {
+        depthField = null;
+    }
+
+    void createScratchArrayAccessors() {
+        String className = visitor.scope.getClassName();
+        for (ScratchArray array : scratchArrays) {
+            String descriptor = array.type.getType().getDescriptor();
+            String poolDescriptor = array.recursive ? "[" + descriptor : descriptor;
+            visitor.cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, array.name, poolDescriptor, null, null).visitEnd();
+            MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC,
+                    array.name, array.accessorDescriptor());
+            Label allocateLabel = new Label();
+            if (array.recursive) {
+                // int[][] pool = $scratch; if (pool == null || depth >= pool.length) grow
+                Label growLabel = new Label();
+                Label copiedLabel = new Label();
+                Label readyLabel = new Label();
+                mv.visitInsn(ACONST_NULL);
+                mv.visitVarInsn(ASTORE, 2);
+                mv.visitFieldInsn(GETSTATIC, className, array.name, poolDescriptor);
+                mv.visitVarInsn(ASTORE, 1);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitJumpInsn(IFNULL, growLabel);
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitInsn(ARRAYLENGTH);
+                mv.visitJumpInsn(IF_ICMPLT, readyLabel);
+                mv.visitLabel(growLabel);
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(ISHL);
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(IADD);
+                mv.visitTypeInsn(ANEWARRAY, descriptor);
+                mv.visitVarInsn(ASTORE, 2);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitJumpInsn(IFNULL, copiedLabel);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitInsn(ICONST_0);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitInsn(ICONST_0);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitInsn(ARRAYLENGTH);
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(System.class), "arraycopy",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(Object.class), Type.INT_TYPE,
+                                Type.getType(Object.class), Type.INT_TYPE, Type.INT_TYPE), false);
+                mv.visitLabel(copiedLabel);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitInsn(DUP);
+                mv.visitFieldInsn(PUTSTATIC, className, array.name, poolDescriptor);
+                mv.visitVarInsn(ASTORE, 1);
+                mv.visitLabel(readyLabel);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitInsn(AALOAD);
+            } else {
+                mv.visitFieldInsn(GETSTATIC, className, array.name, poolDescriptor);
+            }
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNULL, allocateLabel);
+            mv.visitInsn(DUP);
+            mv.visitInsn(ICONST_0);
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Arrays.class), "fill",
+                    Type.getMethodDescriptor(Type.VOID_TYPE, array.type.getType(), Type.INT_TYPE), false);
+            mv.visitInsn(ARETURN);
+            mv.visitLabel(allocateLabel);
+            mv.visitInsn(POP);
+            if (array.recursive) {
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ILOAD, 0);
+                initializeArray(array.type);
+                mv.visitInsn(DUP_X2);
+                mv.visitInsn(AASTORE);
+            } else {
+                initializeArray(array.type);
+                mv.visitInsn(DUP);
+                mv.visitFieldInsn(PUTSTATIC, className, array.name, poolDescriptor);
+            }
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        scratchArrays.clear();
+    }
+
+    boolean isArrayVariable(String var) {
+        TranslateScope scope = visitor.scope;
+        if (scope.isLocalVariable(var))
+            return !scope.getLocalVariableType(var).isPrimitive();
+        return scope.isGlobalVariable(var) && !scope.getGlobalVariableType(var).isPrimitive();
+    }
+
+    ArrayType loadArray(String var) {
+        TranslateScope scope = visitor.scope;
+        ArrayType type;
+        if (scope.isLocalVariable(var)) {
+            checkArrayType(scope.getLocalVariableType(var));
+            type = (ArrayType)scope.getLocalVariableType(var);
+            visitor.mv.visitVarInsn(ALOAD, scope.getLocalVariableIndex(var));
+        } else if (scope.isGlobalVariable(var)) {
+            checkArrayType(scope.getGlobalVariableType(var));
+            type = (ArrayType)scope.getGlobalVariableType(var);
+            loadGlobal(var, type);
+        } else {
+            throw new CompileException(String.format("Variable %s not found.", var));
+        }
+        return type;
+    }
+
+    /**
+     * Loads the element of the array on the stack.
+     *
+     * @return type of the element
+     */
+    DataType loadElement(DataType type, QualifiedNameContext ctx) {
+        checkArrayType(type);
+        ArrayType arrType = (ArrayType)type;
+        computeArrayIndex(arrType, ctx);
+        visitor.mv.visitInsn(IALOAD);
+        return arrType.getDataType();
+    }
+
+    DataType assignElement(AssignmentStatementContext ctx) {
+        ArrayType type = loadArray(ctx.qualifiedName().ID().getText());
+        computeArrayIndex(type, ctx.qualifiedName());
+        visitor.verifyType(visitor.visitExpression(ctx.expression()), PrimitiveType.INTEGER, ctx);
+        visitor.mv.visitInsn(IASTORE);
+        return PrimitiveType.INTEGER;
+    }
+
+    private void checkArrayType(DataType type) {
+        if (!(type instanceof ArrayType))
+            throw new CompileException("Not an array type: " + type);
+    }
+
+    void computeArrayIndex(ArrayType type, QualifiedNameContext ctx) {
+        if (ctx.expression().size() != type.getDimensions().length) {
+            throw new CompileException(String.format("Arity exception. Got %d. Expected %d.",
+                    ctx.expression().size(), type.getDimensions().length));
+        }
+        MethodVisitor mv = visitor.mv;
+        String errorMessage = String.format("Index out of bound in access %s", ctx.getText());
+        int shift = 0;
+        for (int i = 0; i < ctx.expression().size(); i++) {
+            Label badLabel = new Label();
+            Label okLabel = new Label();
+            visitor.visitExpression(ctx.expression().get(i));
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(type.getDimension(i).getFrom());
+            mv.visitJumpInsn(IF_ICMPLT, badLabel);
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(type.getDimension(i).getTo());
+            mv.visitJumpInsn(IF_ICMPGT, badLabel);
+            mv.visitJumpInsn(GOTO, okLabel);
+            mv.visitLabel(badLabel);
+            if (options.isSharedRuntime()) {
+                mv.visitLdcInsn(ctx.getText());
+                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PascalRuntime.class), "indexOutOfBound",
+                        Type.getMethodDescriptor(Type.getType(RuntimeException.class), Type.getType(String.class)), false);
+            } else {
+                mv.visitTypeInsn(NEW, Type.getInternalName(RuntimeException.class));
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(errorMessage);
+                mv.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(RuntimeException.class), "<init>",
+                        Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(String.class)), false);
+            }
+            mv.visitInsn(ATHROW);
+            mv.visitLabel(okLabel);
+            mv.visitLdcInsn(type.getDimension(i).getFrom());
+            mv.visitInsn(ISUB);
+            if (type.isPadded() && i > 0) {
+                // a sum of shifted indexes, the JIT sees a scaled loop counter in every term
+                mv.visitLdcInsn(shift);
+                mv.visitInsn(ISHL);
+                mv.visitInsn(IADD);
+            }
+            if (type.isPadded() && i < ctx.expression().size() - 1)
+                shift += type.getShift(i);
+        }
+        if (type.isPadded())
+            return;
+        for (int i = ctx.expression().size() - 2; i >= 0; i--) {
+            mv.visitLdcInsn(type.getDimension(i).getLength());
+            mv.visitInsn(IMUL);
+            mv.visitInsn(IADD);
+        }
+    }
+
+    /**
+     * Compiles a call of an {@link Intrinsic}. Whole arrays are filled, copied and sorted by the
+     * JDK directly. The forms taking a range and the reductions call {@link PascalRuntime}, which
+     * checks the bounds once and leaves the JDK methods and its own loops unchecked.
+     */
+    DataType visitIntrinsic(Intrinsic intrinsic, FunctionCallContext ctx) {
+        List<ExpressionContext> arguments = ctx.expression();
+        if (!intrinsic.accepts(arguments.size()))
+            throw new CompileException(String.format("No such method %s available in call %s", intrinsic.getName(), ctx.getText()));
+        MethodVisitor mv = visitor.mv;
+        boolean ranged = intrinsic.isRanged(arguments.size());
+        String runtime = Type.getInternalName(PascalRuntime.class);
+        Type ints = Type.getType(int[].class);
+        Type string = Type.getType(String.class);
+        ArrayType type = intrinsicArray(arguments.get(0), ranged, ctx);
+        switch (intrinsic) {
+            case FILL:
+                visitor.verifyType(visitor.visitExpression(arguments.get(1)), type.getDataType(), ctx);
+                if (!ranged) {
+                    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Arrays.class), "fill",
+                            Type.getMethodDescriptor(Type.VOID_TYPE, ints, Type.INT_TYPE), false);
+                    return null;
+                }
+                pushRange(type, arguments.get(2), arguments.get(3), ctx);
+                mv.visitMethodInsn(INVOKESTATIC, runtime, "fill", Type.getMethodDescriptor(Type.VOID_TYPE, ints,
+                        Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, string), false);
+                return null;
+            case COPY:
+                if (!ranged) {
+                    mv.visitInsn(ICONST_0);
+                    visitor.verifyType(intrinsicArray(arguments.get(1), false, ctx), type, ctx);
+                    mv.visitInsn(ICONST_0);
+                    mv.visitLdcInsn(type.getSize());
+                    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(System.class), "arraycopy",
+                            Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(Object.class), Type.INT_TYPE,
+                                    Type.getType(Object.class), Type.INT_TYPE, Type.INT_TYPE), false);
+                    return null;
+                }
+                pushRangeBounds(type, arguments.get(1), arguments.get(2), ctx);
+                ArrayType target = intrinsicArray(arguments.get(3), true, ctx);
+                visitor.verifyType(target.getDataType(), type.getDataType(), ctx);
+                visitor.verifyType(visitor.visitExpression(arguments.get(4)), PrimitiveType.INTEGER, ctx);
+                mv.visitLdcInsn(target.getDimension(0).getFrom());
+                mv.visitLdcInsn(target.getDimension(0).getTo());
+                mv.visitLdcInsn(ctx.getText());
+                mv.visitMethodInsn(INVOKESTATIC, runtime, "copy", Type.getMethodDescriptor(Type.VOID_TYPE, ints,
+                        Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, ints, Type.INT_TYPE,
+                        Type.INT_TYPE, Type.INT_TYPE, string), false);
+                return null;
+            case SORT:
+                if (!ranged) {
+                    if (type.getDimensions().length > 1)
+                        throw new CompileException(String.format("Type mismatch in %s. Expected one-dimensional array. Got %s.",
+                                ctx.getText(), type));
+                    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Arrays.class), "sort",
+                            Type.getMethodDescriptor(Type.VOID_TYPE, ints), false);
+                    return null;
+                }
+                pushRange(type, arguments.get(1), arguments.get(2), ctx);
+                mv.visitMethodInsn(INVOKESTATIC, runtime, "sort", Type.getMethodDescriptor(Type.VOID_TYPE, ints,
+                        Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, string), false);
+                return null;
+            default:
+                visitor.verifyType(type.getDataType(), PrimitiveType.INTEGER, ctx);
+                String helper = intrinsic.getName();
+                if (ranged) {
+                    pushRange(type, arguments.get(1), arguments.get(2), ctx);
+                } else if (type.isPadded()) {
+                    // the padding isn't part of the array, the runtime steps over it
+                    int[] counts = new int[type.getDimensions().length];
+                    int[] strides = new int[counts.length];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = type.getDimension(i).getLength();
+                        strides[i] = type.getStride(i);
+                    }
+                    pushInts(counts);
+                    pushInts(strides);
+                    mv.visitMethodInsn(INVOKESTATIC, runtime, helper,
+                            Type.getMethodDescriptor(Type.INT_TYPE, ints, ints, ints), false);
+                    return PrimitiveType.INTEGER;
+                } else {
+                    // a dense array is reduced as a flat one
+                    for (int i = 0; i < 2; i++) {
+                        mv.visitLdcInsn(0);
+                        mv.visitLdcInsn(type.getSize() - 1);
+                    }
+                    mv.visitLdcInsn(ctx.getText());
+                }
+                mv.visitMethodInsn(INVOKESTATIC, runtime, helper, Type.getMethodDescriptor(Type.INT_TYPE, ints,
+                        Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, string), false);
+                return PrimitiveType.INTEGER;
+        }
+    }
+
+    /**
+     * Loads an array argument of an intrinsic, which must be an array variable. The analysis
+     * of the function marks the elements of the variable written, see {@link Usage}.
+     */
+    private ArrayType intrinsicArray(ExpressionContext ctx, boolean ranged, FunctionCallContext call) {
+        if (!isArrayVariable(ctx.getText()))
+            throw new CompileException(String.format("Expected array variable in %s. Got %s.", call.getText(), ctx.getText()));
+        ArrayType type = loadArray(ctx.getText());
+        if (ranged && type.getDimensions().length > 1)
+            throw new CompileException(String.format("Type mismatch in %s. Expected one-dimensional array. Got %s.",
+                    call.getText(), type));
+        return type;
+    }
+
+    /**
+     * Pushes the range of a one-dimensional array, its bounds and the text of the call.
+     */
+    private void pushRange(ArrayType type, ExpressionContext from, ExpressionContext to, FunctionCallContext ctx) {
+        pushRangeBounds(type, from, to, ctx);
+        visitor.mv.visitLdcInsn(ctx.getText());
+    }
+
+    private void pushRangeBounds(ArrayType type, ExpressionContext from, ExpressionContext to, FunctionCallContext ctx) {
+        visitor.verifyType(visitor.visitExpression(from), PrimitiveType.INTEGER, ctx);
+        visitor.verifyType(visitor.visitExpression(to), PrimitiveType.INTEGER, ctx);
+        visitor.mv.visitLdcInsn(type.getDimension(0).getFrom());
+        visitor.mv.visitLdcInsn(type.getDimension(0).getTo());
+    }
+
+    void pushBounds(ArrayType type) {
+        int[] bounds = new int[2 * type.getDimensions().length];
+        for (int i = 0; i < type.getDimensions().length; i++) {
+            bounds[2 * i] = type.getDimension(i).getFrom();
+            bounds[2 * i + 1] = type.getDimension(i).getTo();
+        }
+        pushInts(bounds);
+    }
+
+    void pushInts(int[] values) {
+        MethodVisitor mv = visitor.mv;
+        mv.visitLdcInsn(values.length);
+        mv.visitIntInsn(NEWARRAY, T_INT);
+        for (int i = 0; i < values.length; i++) {
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(i);
+            mv.visitLdcInsn(values[i]);
+            mv.visitInsn(IASTORE);
+        }
+    }
+
+    private static class ScratchArray {
+        private final String name;
+        private final ArrayType type;
+        private final boolean recursive;
+
+        ScratchArray(String name, ArrayType type, boolean recursive) {
+            this.name = name;
+            this.type = type;
+            this.recursive = recursive;
+        }
+
+        String accessorDescriptor() {
+            return (recursive ? "(I)" : "()") + type.getType().getDescriptor();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package compiler.translator;
+
+import compiler.runtime.ExecutionBudget;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Emits the tick counting of programs translated with {@link TranslateOptions#isBudgetChecks()},
+ * see {@link ExecutionBudget}. Does nothing for the other programs.
+ *
+ * @author Arkady Rost
+ */
+class BudgetEmitter {
+    private static final String FUEL_FIELD = "$fuel";
+    private static final String THREAD_FUEL_FIELD = "$threadFuel";
+    private static final String TAKE_SLICE = "$takeSlice";
+
+    private final TranslateVisitor visitor;
+    private final boolean enabled;
+    private int fuelSlot;
+    private boolean threadFuel;
+
+    BudgetEmitter(TranslateVisitor visitor, TranslateOptions options) {
+        this.visitor = visitor;
+        this.enabled = options.isBudgetChecks();
+    }
+
+    void declareFields(ClassWriter cw) {
+        if (!enabled)
+            return;
+        cw.visitField(ACC_PRIVATE | ACC_STATIC, FUEL_FIELD, "I", null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, THREAD_FUEL_FIELD,
+                Type.getDescriptor(ThreadLocal.class), null, null).visitEnd();
+        cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, ExecutionBudget.SLICES_FIELD, "I", null, null).visitEnd();
+        cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE | ACC_SYNTHETIC, ExecutionBudget.STOP_FIELD, "I", null, null).visitEnd();
+    }
+
+    /**
+     * Initializes the fields in the class initializer.
+     */
+    void initializeFields() {
+        if (!enabled)
+            return;
+        MethodVisitor mv = visitor.mv;
+        String className = visitor.scope.getClassName();
+        mv.visitLdcInsn(Integer.MAX_VALUE);
+        mv.visitFieldInsn(PUTSTATIC, className, ExecutionBudget.SLICES_FIELD, "I");
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ExecutionBudget.class), "threadFuel",
+                Type.getMethodDescriptor(Type.getType(ThreadLocal.class)), false);
+        mv.visitFieldInsn(PUTSTATIC, className, THREAD_FUEL_FIELD, Type.getDescriptor(ThreadLocal.class));
+    }
+
+    /**
+     * Caches the tick counter in a local for the method being entered and charges the call.
+     * The static field is only synchronized around calls and returns, see {@link #save()}.
+     * Parallel bodies and the functions they may call run on several threads at once, they keep
+     * the counter in a thread local instead and take slices under the lock of the class, so no
+     * thread counts with the ticks of another and no slice is taken twice.
+     */
+    void enter() {
+        if (!enabled)
+            return;
+        threadFuel = visitor.loops.isInParallelBody()
+                || visitor.programUsage.isCalledInParallel(visitor.scope.getMethodName());
+        fuelSlot = visitor.scope.reserveLocalSlot();
+        restore();
+        charge();
+    }
+
+    /**
+     * Counts a tick at a loop head or function entry. Loop heads are used instead of back edges
+     * so that {@code continue} can't skip the check. The refill path makes no calls unless the
+     * program has to stop, otherwise the JIT would give up optimizing the enclosing loop.
+     */
+    void charge() {
+        if (!enabled)
+            return;
+        MethodVisitor mv = visitor.mv;
+        Label okLabel = new Label();
+        Label refilledLabel = new Label();
+        Label stopLabel = new Label();
+        mv.visitIincInsn(fuelSlot, -1);
+        mv.visitVarInsn(ILOAD, fuelSlot);
+        mv.visitJumpInsn(IFGT, okLabel);
+        mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), ExecutionBudget.STOP_FIELD, "I");
+        mv.visitInsn(DUP);
+        mv.visitJumpInsn(IFNE, stopLabel);
+        mv.visitInsn(POP);
+        if (threadFuel) {
+            mv.visitMethodInsn(INVOKESTATIC, visitor.scope.getClassName(), TAKE_SLICE, "()I", false);
+        } else {
+            takeSlice();
+        }
+        mv.visitJumpInsn(IFGE, refilledLabel);
+        mv.visitLdcInsn(ExecutionBudget.TICKS_EXCEEDED);
+        mv.visitLabel(stopLabel);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ExecutionBudget.class), "exceeded",
+                Type.getMethodDescriptor(Type.getType(RuntimeException.class), Type.INT_TYPE), false);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(refilledLabel);
+        mv.visitLdcInsn(ExecutionBudget.SLICE);
+        mv.visitVarInsn(ISTORE, fuelSlot);
+        mv.visitLabel(okLabel);
+    }
+
+    /**
+     * Leaves the remaining slices on the stack.
+     */
+    private void takeSlice() {
+        MethodVisitor mv = visitor.mv;
+        mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), ExecutionBudget.SLICES_FIELD, "I");
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(ISUB);
+        mv.visitInsn(DUP);
+        mv.visitFieldInsn(PUTSTATIC, visitor.scope.getClassName(), ExecutionBudget.SLICES_FIELD, "I");
+    }
+
+    /**
+     * Slices taken by the code running on several threads, see {@link #enter()}.
+     */
+    void createTakeSlice() {
+        if (!enabled)
+            return;
+        MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNCHRONIZED | ACC_SYNTHETIC, TAKE_SLICE, "()I");
+        takeSlice();
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Writes the counter back before a call or a return.
+     */
+    void save() {
+        if (!enabled)
+            return;
+        MethodVisitor mv = visitor.mv;
+        if (threadFuel) {
+            loadThreadFuel();
+            mv.visitInsn(ICONST_0);
+            mv.visitVarInsn(ILOAD, fuelSlot);
+            mv.visitInsn(IASTORE);
+        } else {
+            mv.visitVarInsn(ILOAD, fuelSlot);
+            mv.visitFieldInsn(PUTSTATIC, visitor.scope.getClassName(), FUEL_FIELD, "I");
+        }
+    }
+
+    /**
+     * Reads the counter again after a call.
+     */
+    void restore() {
+        if (!enabled)
+            return;
+        MethodVisitor mv = visitor.mv;
+        if (threadFuel) {
+            loadThreadFuel();
+            mv.visitInsn(ICONST_0);
+            mv.visitInsn(IALOAD);
+        } else {
+            mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), FUEL_FIELD, "I");
+        }
+        mv.visitVarInsn(ISTORE, fuelSlot);
+    }
+
+    private void loadThreadFuel() {
+        MethodVisitor mv = visitor.mv;
+        mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), THREAD_FUEL_FIELD, Type.getDescriptor(ThreadLocal.class));
+        mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(ThreadLocal.class), "get",
+                Type.getMethodDescriptor(Type.getType(Object.class)), false);
+        mv.visitTypeInsn(CHECKCAST, Type.getInternalName(int[].class));
+    }
+}
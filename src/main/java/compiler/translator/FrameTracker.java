@@ -0,0 +1,524 @@
+package compiler.translator;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Method visitor that follows the types of locals and operand stack through the generated code.
+ * Writes an expanded stack map frame at every reachable label but the ones of line numbers and
+ * the exact maxs, so the class writer never has to run its own data flow analysis. Code that can't be reached (e.g. after
+ * {@code break} or a function result assignment) is dropped instead of being emitted.
+ *
+ * Only straight-line code and forward jumps can make a label reachable, backward jumps are
+ * allowed only to labels already visited, which is how structured statements are translated.
+ * The frame of a label merges the states of all the forward jumps to it and of the code falling
+ * into it, e.g. a local that is {@code null} on one path and an array on the other is an array.
+ * A backward jump has to match the frame already written: its stack has to have the same height
+ * and each of its types has to be assignable to the type of the frame.
+ *
+ * @author Arkady Rost
+ */
+class FrameTracker extends MethodVisitor {
+    private List<Object> locals = new ArrayList<>();
+    private List<Object> stack = new ArrayList<>();
+    private final Map<Label, State> forward = new HashMap<>();
+    private final Map<Label, State> visited = new HashMap<>();
+    private final Set<Label> frameLabels = new HashSet<>();
+    private int maxStack;
+    private int maxLocals;
+
+    FrameTracker(MethodVisitor mv, String descriptor) {
+        super(ASM5, mv);
+        for (Type type : Type.getArgumentTypes(descriptor))
+            locals.add(frameType(type));
+        maxLocals = locals.size();
+    }
+
+    /**
+     * @return whether the next emitted instruction is reachable
+     */
+    boolean isReachable() {
+        return stack != null;
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case NOP:
+                break;
+            case ACONST_NULL:
+                push(NULL);
+                break;
+            case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5:
+                push(INTEGER);
+                break;
+            case IALOAD: case BALOAD:
+            case IADD: case ISUB: case IMUL: case IDIV: case IREM:
+            case ISHL: case ISHR: case IUSHR: case IAND: case IOR: case IXOR:
+                pop(2);
+                push(INTEGER);
+                break;
+            case AALOAD:
+                pop(1);
+                push(elementType(pop()));
+                break;
+            case IASTORE: case BASTORE: case AASTORE:
+                pop(3);
+                break;
+            case INEG: case ARRAYLENGTH:
+                pop(1);
+                push(INTEGER);
+                break;
+            case POP:
+                pop(1);
+                break;
+            case POP2:
+                pop(2);
+                break;
+            case DUP:
+                push(peek(0));
+                break;
+            case DUP_X1: {
+                Object a = pop(), b = pop();
+                push(a); push(b); push(a);
+                break;
+            }
+            case DUP_X2: {
+                Object a = pop(), b = pop(), c = pop();
+                push(a); push(c); push(b); push(a);
+                break;
+            }
+            case DUP2: {
+                Object a = peek(0), b = peek(1);
+                push(b); push(a);
+                break;
+            }
+            case SWAP: {
+                Object a = pop(), b = pop();
+                push(a); push(b);
+                break;
+            }
+            case IRETURN: case ARETURN: case ATHROW:
+                pop(1);
+                unreachable();
+                break;
+            case RETURN:
+                unreachable();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case BIPUSH: case SIPUSH:
+                push(INTEGER);
+                break;
+            case NEWARRAY:
+                pop(1);
+                push(operand == T_BOOLEAN ? "[Z" : "[I");
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case ILOAD:
+                push(INTEGER);
+                break;
+            case ALOAD:
+                push(locals.get(var));
+                break;
+            case ISTORE:
+                pop(1);
+                setLocal(var, INTEGER);
+                break;
+            case ASTORE:
+                setLocal(var, pop());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case NEW:
+                // never live at a label, so the initialized type is as good as the uninitialized one
+                push(type);
+                break;
+            case ANEWARRAY:
+                pop(1);
+                push(type.startsWith("[") ? "[" + type : "[L" + type + ";");
+                break;
+            case CHECKCAST:
+                pop(1);
+                push(type);
+                break;
+            case INSTANCEOF:
+                pop(1);
+                push(INTEGER);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case GETSTATIC:
+                push(frameType(Type.getType(desc)));
+                break;
+            case PUTSTATIC:
+                pop(1);
+                break;
+            case GETFIELD:
+                pop(1);
+                push(frameType(Type.getType(desc)));
+                break;
+            case PUTFIELD:
+                pop(2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        super.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        pop(Type.getArgumentTypes(desc).length + (opcode == INVOKESTATIC ? 0 : 1));
+        Type returnType = Type.getReturnType(desc);
+        if (returnType.getSort() != Type.VOID)
+            push(frameType(returnType));
+        super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        pop(Type.getArgumentTypes(desc).length);
+        Type returnType = Type.getReturnType(desc);
+        if (returnType.getSort() != Type.VOID)
+            push(frameType(returnType));
+        super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        if (cst instanceof Integer) {
+            push(INTEGER);
+        } else if (cst instanceof String) {
+            push("java/lang/String");
+        } else if (cst instanceof Type) {
+            push(((Type) cst).getSort() == Type.METHOD ? "java/lang/invoke/MethodType" : "java/lang/Class");
+        } else if (cst instanceof Handle) {
+            push("java/lang/invoke/MethodHandle");
+        } else {
+            throw new IllegalArgumentException("Unsupported constant " + cst);
+        }
+        super.visitLdcInsn(cst);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        switch (opcode) {
+            case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+            case IFNULL: case IFNONNULL:
+                pop(1);
+                break;
+            case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE: case IF_ICMPGT: case IF_ICMPLE:
+            case IF_ACMPEQ: case IF_ACMPNE:
+                pop(2);
+                break;
+            case GOTO:
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode " + opcode);
+        }
+        jumpTo(label);
+        super.visitJumpInsn(opcode, label);
+        if (opcode == GOTO)
+            unreachable();
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        pop(1);
+        jumpTo(dflt);
+        for (Label label : labels)
+            jumpTo(label);
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+        unreachable();
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        if (!isReachable())
+            return;
+        writeFrame();
+        pop(1);
+        jumpTo(dflt);
+        for (Label label : labels)
+            jumpTo(label);
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+        unreachable();
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        State state = forward.remove(label);
+        if (isReachable()) {
+            if (state != null) {
+                State merged = merge(state, snapshot(), label);
+                locals = merged.locals;
+                stack = merged.stack;
+                // labels at the same offset share the frame
+                for (Label pending : frameLabels)
+                    visited.put(pending, snapshot());
+            }
+        } else if (state != null) {
+            locals = state.locals;
+            stack = state.stack;
+        }
+        super.visitLabel(label);
+        if (isReachable()) {
+            visited.put(label, snapshot());
+            frameLabels.add(label);
+        }
+    }
+
+    /**
+     * A line number only marks where a statement starts, so its label needs no frame. Line
+     * numbers of code that can't be reached are dropped with it.
+     */
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        frameLabels.remove(start);
+        if (isReachable())
+            super.visitLineNumber(line, start);
+    }
+
+    /**
+     * Frames passed in, e.g. by a class reader feeding existing code through the tracker, are
+     * dropped: the tracker writes its own at the labels that need one.
+     */
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (!forward.isEmpty())
+            throw new IllegalStateException("Jump to a label that was never visited");
+        super.visitMaxs(this.maxStack, this.maxLocals);
+    }
+
+    private void jumpTo(Label label) {
+        State state = snapshot();
+        State target = visited.get(label);
+        if (target != null) {
+            checkAssignable(state, target, label);
+            return;
+        }
+        State previous = forward.get(label);
+        forward.put(label, previous == null ? state : merge(previous, state, label));
+    }
+
+    /**
+     * Checks a backward jump against the frame of the label it goes to.
+     */
+    private static void checkAssignable(State state, State frame, Label label) {
+        checkHeight(state, frame, label);
+        for (int i = 0; i < frame.locals.size(); i++) {
+            Object type = i < state.locals.size() ? state.locals.get(i) : TOP;
+            if (!isAssignable(type, frame.locals.get(i)))
+                throw new IllegalStateException(String.format("Local %d is %s at a jump to %s, its frame has %s",
+                        i, typeName(type), label, typeName(frame.locals.get(i))));
+        }
+        for (int i = 0; i < frame.stack.size(); i++) {
+            if (!isAssignable(state.stack.get(i), frame.stack.get(i)))
+                throw new IllegalStateException(String.format("Stack slot %d is %s at a jump to %s, its frame has %s",
+                        i, typeName(state.stack.get(i)), label, typeName(frame.stack.get(i))));
+        }
+    }
+
+    /**
+     * @return state both {@code a} and {@code b} are assignable to. A local of types that have
+     * nothing in common becomes unusable, a stack slot like that is an error.
+     */
+    private static State merge(State a, State b, Label label) {
+        checkHeight(a, b, label);
+        List<Object> locals = new ArrayList<>();
+        for (int i = 0; i < Math.min(a.locals.size(), b.locals.size()); i++)
+            locals.add(merge(a.locals.get(i), b.locals.get(i)));
+        List<Object> stack = new ArrayList<>();
+        for (int i = 0; i < a.stack.size(); i++) {
+            Object type = merge(a.stack.get(i), b.stack.get(i));
+            if (type == TOP)
+                throw new IllegalStateException(String.format("Stack slot %d is %s and %s at %s",
+                        i, typeName(a.stack.get(i)), typeName(b.stack.get(i)), label));
+            stack.add(type);
+        }
+        return new State(locals, stack);
+    }
+
+    private static Object merge(Object a, Object b) {
+        if (isAssignable(a, b))
+            return b;
+        if (isAssignable(b, a))
+            return a;
+        return isReference(a) && isReference(b) ? "java/lang/Object" : TOP;
+    }
+
+    private static boolean isAssignable(Object from, Object to) {
+        return from.equals(to) || to == TOP
+                || from == NULL && isReference(to)
+                || "java/lang/Object".equals(to) && isReference(from);
+    }
+
+    private static String typeName(Object type) {
+        if (type == TOP)
+            return "unusable";
+        if (type == INTEGER)
+            return "int";
+        return type == NULL ? "null" : type.toString();
+    }
+
+    private static boolean isReference(Object type) {
+        return type == NULL || type instanceof String;
+    }
+
+    private static void checkHeight(State a, State b, Label label) {
+        if (a.stack.size() != b.stack.size())
+            throw new IllegalStateException(String.format("Stack height mismatch at %s: %d and %d",
+                    label, a.stack.size(), b.stack.size()));
+    }
+
+    /**
+     * Writes the frame of the labels at the offset of the next instruction, once it's known
+     * which of them need one.
+     */
+    private void writeFrame() {
+        if (frameLabels.isEmpty())
+            return;
+        super.visitFrame(F_NEW, locals.size(), locals.toArray(), stack.size(), stack.toArray());
+        frameLabels.clear();
+    }
+
+    private State snapshot() {
+        return new State(new ArrayList<>(locals), new ArrayList<>(stack));
+    }
+
+    private void unreachable() {
+        stack = null;
+    }
+
+    private void push(Object type) {
+        stack.add(type);
+        maxStack = Math.max(maxStack, stack.size());
+    }
+
+    private Object pop() {
+        return stack.remove(stack.size() - 1);
+    }
+
+    private void pop(int n) {
+        for (int i = 0; i < n; i++)
+            pop();
+    }
+
+    private Object peek(int depth) {
+        return stack.get(stack.size() - 1 - depth);
+    }
+
+    private void setLocal(int var, Object type) {
+        while (locals.size() <= var)
+            locals.add(TOP);
+        locals.set(var, type);
+        maxLocals = Math.max(maxLocals, locals.size());
+    }
+
+    private static Object elementType(Object arrayType) {
+        String descriptor = ((String) arrayType).substring(1);
+        return descriptor.startsWith("[") ? descriptor : frameType(Type.getType(descriptor));
+    }
+
+    private static Object frameType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN: case Type.BYTE: case Type.CHAR: case Type.SHORT: case Type.INT:
+                return INTEGER;
+            case Type.ARRAY:
+                return type.getDescriptor();
+            case Type.OBJECT:
+                return type.getInternalName();
+            default:
+                throw new IllegalArgumentException("Unsupported type " + type);
+        }
+    }
+
+    private static class State {
+        private final List<Object> locals;
+        private final List<Object> stack;
+
+        State(List<Object> locals, List<Object> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package compiler.translator;
+
+/**
+ * Built-in array functions. A call is an intrinsic unless a function of the same name is declared
+ * before it, so programs declaring their own {@code max} keep calling it.
+ *
+ * <pre>
+ * fill(a, value)                   fill(a, value, from, to)
+ * copy(src, dst)                   copy(src, from, to, dst, at)
+ * sort(a)                          sort(a, from, to)
+ * sum(a), min(a), max(a)           sum(a, from, to), min(a, from, to), max(a, from, to)
+ * </pre>
+ *
+ * The arrays changed by fill, copy and sort are variables, they are changed in place. The forms
+ * with a range take one-dimensional arrays and check the bounds of the range once, an empty
+ * range is left alone and sums to zero, but has no minimum or maximum. Whole arrays of any
+ * dimensions are filled and copied as flat arrays and only sorted if one-dimensional.
+ * Sums, minimums and maximums are of integer arrays.
+ *
+ * @author Arkady Rost
+ */
+public enum Intrinsic {
+    FILL(false, 2, 4), COPY(false, 2, 5), SORT(false, 1, 3), SUM(true, 1, 3), MIN(true, 1, 3), MAX(true, 1, 3);
+
+    private final boolean value;
+    private final int wholeArguments;
+    private final int rangedArguments;
+
+    Intrinsic(boolean value, int wholeArguments, int rangedArguments) {
+        this.value = value;
+        this.wholeArguments = wholeArguments;
+        this.rangedArguments = rangedArguments;
+    }
+
+    /**
+     * @return intrinsic of the name, {@code null} if there's none
+     */
+    public static Intrinsic of(String name) {
+        for (Intrinsic intrinsic : values()) {
+            if (intrinsic.getName().equals(name))
+                return intrinsic;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * @return whether a call is an integer expression rather than a statement
+     */
+    public boolean hasValue() {
+        return value;
+    }
+
+    /**
+     * @return whether the intrinsic has a form taking the number of arguments
+     */
+    public boolean accepts(int arguments) {
+        return arguments == wholeArguments || arguments == rangedArguments;
+    }
+
+    /**
+     * @return whether the call of the intrinsic takes a range
+     */
+    public boolean isRanged(int arguments) {
+        return arguments == rangedArguments;
+    }
+
+    /**
+     * @return index of the argument naming the array changed in place, -1 if there's none
+     */
+    public int getChangedArgument(int arguments) {
+        switch (this) {
+            case FILL:
+            case SORT:
+                return 0;
+            case COPY:
+                return isRanged(arguments) ? 3 : 1;
+            default:
+                return -1;
+        }
+    }
+}
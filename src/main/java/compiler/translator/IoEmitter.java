@@ -0,0 +1,205 @@
+package compiler.translator;
+
+import compiler.parser.PascalParser.*;
+import compiler.runtime.PascalRuntime;
+import compiler.translator.scope.TranslateScope;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.io.PrintStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Emits the read and write statements. Whole arrays and slices are transferred by one
+ * {@link PascalRuntime} call, scalars are read by the runtime too and written by it or the
+ * {@link PrintStream} of the program.
+ *
+ * @author Arkady Rost
+ */
+class IoEmitter {
+    private final TranslateVisitor visitor;
+    private final TranslateOptions options;
+
+    IoEmitter(TranslateVisitor visitor, TranslateOptions options) {
+        this.visitor = visitor;
+        this.options = options;
+    }
+
+    void visitRead(ReadStatementContext ctx) {
+        ArrayEmitter arrays = visitor.arrays;
+        for (ReadOperandContext octx : ctx.readOperand()) {
+            QualifiedNameContext nctx = octx.qualifiedName();
+            if (nctx == null) {
+                transferSlice(octx.arraySlice(), "readElements");
+            } else if (!nctx.expression().isEmpty()) {
+                readArrayElement(nctx);
+            } else if (arrays.isArrayVariable(nctx.ID().getText())) {
+                transferArray(arrays.loadArray(nctx.ID().getText()), nctx.getText(), "readElements");
+            } else {
+                readVariable(nctx, ctx);
+            }
+        }
+    }
+
+    /**
+     * Reads or writes a slice with one {@link PascalRuntime} call, see
+     * {@link PascalRuntime#readElements}. The indexes are evaluated in order into an array.
+     */
+    private void transferSlice(ArraySliceContext ctx, String helper) {
+        ArrayType type = visitor.arrays.loadArray(ctx.ID().getText());
+        if (ctx.sliceIndex().size() != type.getDimensions().length) {
+            throw new CompileException(String.format("Arity exception. Got %d. Expected %d.",
+                    ctx.sliceIndex().size(), type.getDimensions().length));
+        }
+        MethodVisitor mv = visitor.mv;
+        int count = 0;
+        int ranged = 0;
+        for (int i = 0; i < ctx.sliceIndex().size(); i++) {
+            count += ctx.sliceIndex(i).expression().size();
+            if (ctx.sliceIndex(i).expression().size() > 1)
+                ranged |= 1 << i;
+        }
+        mv.visitLdcInsn(count);
+        mv.visitIntInsn(NEWARRAY, T_INT);
+        int k = 0;
+        for (SliceIndexContext ictx : ctx.sliceIndex()) {
+            for (ExpressionContext ectx : ictx.expression()) {
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(k++);
+                visitor.verifyPrimitiveType(visitor.visitExpression(ectx), ctx);
+                mv.visitInsn(IASTORE);
+            }
+        }
+        mv.visitLdcInsn(ranged);
+        callTransfer(type, ctx.getText(), helper);
+    }
+
+    /**
+     * Reads or writes the whole array on the stack, a slice ranging over every dimension.
+     */
+    private void transferArray(ArrayType type, String access, String helper) {
+        visitor.arrays.pushBounds(type);
+        visitor.mv.visitLdcInsn((1 << type.getDimensions().length) - 1);
+        callTransfer(type, access, helper);
+    }
+
+    private void callTransfer(ArrayType type, String access, String helper) {
+        MethodVisitor mv = visitor.mv;
+        visitor.arrays.pushBounds(type);
+        int[] strides = new int[type.getDimensions().length];
+        for (int i = 0; i < strides.length; i++)
+            strides[i] = type.getStride(i);
+        visitor.arrays.pushInts(strides);
+        mv.visitLdcInsn(access);
+        mv.visitInsn(type.getDataType() == PrimitiveType.BOOLEAN ? ICONST_1 : ICONST_0);
+        Type ints = Type.getType(int[].class);
+        String descriptor = Type.getMethodDescriptor(Type.VOID_TYPE, ints, ints, Type.INT_TYPE, ints, ints, Type.getType(String.class), Type.BOOLEAN_TYPE);
+        // writes of a redirected program take the stream pushed before the array
+        if (options.isOutputField() && "writeElements".equals(helper))
+            descriptor = "(" + Type.getDescriptor(PrintStream.class) + descriptor.substring(1);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PascalRuntime.class), helper, descriptor, false);
+    }
+
+    /**
+     * Scalar reads always call the runtime, they share its buffer over the standard input with
+     * the reads of whole arrays.
+     */
+    private void readValue(PrimitiveType type) {
+        String helper = type == PrimitiveType.BOOLEAN ? "readBoolean" : "readInteger";
+        visitor.mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PascalRuntime.class), helper,
+                Type.getMethodDescriptor(type.getType()), false);
+    }
+
+    private void readArrayElement(QualifiedNameContext nctx) {
+        String var = nctx.ID().getText();
+        ArrayType type = visitor.arrays.loadArray(var);
+        visitor.arrays.computeArrayIndex(type, nctx);
+        readValue(type.getDataType());
+        visitor.mv.visitInsn(IASTORE);
+    }
+
+    private void readVariable(QualifiedNameContext nctx, ReadStatementContext ctx) {
+        TranslateScope scope = visitor.scope;
+        MethodVisitor mv = visitor.mv;
+        String var = nctx.ID().getText();
+        visitor.loops.checkParallelWrite(var, ctx);
+        if (scope.isLocalVariable(var)) {
+            visitor.verifyPrimitiveType(scope.getLocalVariableType(var), ctx);
+            readValue((PrimitiveType)scope.getLocalVariableType(var));
+            if (visitor.isUnreadLocal(var)) {
+                mv.visitInsn(POP);
+            } else {
+                mv.visitVarInsn(ISTORE, scope.getLocalVariableIndex(var));
+            }
+        } else if (scope.isGlobalVariable(var)) {
+            DataType type = scope.getGlobalVariableType(var);
+            visitor.verifyPrimitiveType(type, ctx);
+            readValue((PrimitiveType)scope.getGlobalVariableType(var));
+            if (visitor.hasField(var)) {
+                mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
+            } else {
+                mv.visitInsn(POP);
+            }
+        } else {
+            throw new CompileException(String.format("Variable %s not found in context %s", var, ctx));
+        }
+    }
+
+    void visitWrite(WriteStatementContext ctx) {
+       for (WriteOperandContext octx : ctx.writeOperand()) {
+           ExpressionContext ectx = octx.expression();
+           if (ectx == null) {
+               if (options.isOutputField())
+                   pushOutput();
+               transferSlice(octx.arraySlice(), "writeElements");
+               continue;
+           }
+           String array = arrayVariable(ectx);
+           if (array != null) {
+               if (options.isOutputField())
+                   pushOutput();
+               transferArray(visitor.arrays.loadArray(array), ectx.getText(), "writeElements");
+               continue;
+           }
+           if (options.isSharedRuntime() && !options.isOutputField()) {
+               DataType type = visitor.visitExpression(ectx);
+               visitor.verifyPrimitiveType(type, ctx);
+               visitor.mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PascalRuntime.class), "write",
+                       Type.getMethodDescriptor(Type.VOID_TYPE, type.getType()), false);
+               continue;
+           }
+           pushOutput();
+           DataType type = visitor.visitExpression(ectx);
+           visitor.verifyPrimitiveType(type, ctx);
+           visitor.mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(PrintStream.class), "println", Type.getMethodDescriptor(Type.VOID_TYPE, type.getType()), false);
+       }
+    }
+
+    private void pushOutput() {
+        if (options.isOutputField()) {
+            visitor.mv.visitFieldInsn(GETSTATIC, visitor.scope.getClassName(), TranslateVisitor.OUTPUT_FIELD, Type.getDescriptor(PrintStream.class));
+        } else {
+            visitor.mv.visitFieldInsn(GETSTATIC, Type.getInternalName(System.class), "out", Type.getDescriptor(PrintStream.class));
+        }
+    }
+
+    /**
+     * @return name of the array if the expression is just an array variable, which is written
+     * as a whole
+     */
+    private String arrayVariable(ExpressionContext ctx) {
+        if (ctx.appTerm().size() > 1 || !ctx.appTerm(0).SIGN().isEmpty() || ctx.appTerm(0).mulTerm(0).factor().size() > 1)
+            return null;
+        FactorContext fctx = ctx.appTerm(0).mulTerm(0).factor(0);
+        if (fctx.expression() != null)
+            return arrayVariable(fctx.expression());
+        QualifiedNameContext nctx = fctx.qualifiedName();
+        if (nctx == null || !nctx.expression().isEmpty() || !visitor.arrays.isArrayVariable(nctx.ID().getText()))
+            return null;
+        return nctx.ID().getText();
+    }
+}
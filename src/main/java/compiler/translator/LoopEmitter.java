@@ -0,0 +1,423 @@
+package compiler.translator;
+
+import compiler.parser.PascalParser;
+import compiler.parser.PascalParser.*;
+import compiler.runtime.ParallelLoop;
+import compiler.translator.analysis.ConstantFolder;
+import compiler.translator.analysis.ParallelRules;
+import compiler.translator.scope.LocalVariableDescriptor;
+import compiler.translator.scope.TranslateScope;
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Emits the loops: for and while loops in place, the bodies of parallel for loops as methods of
+ * their own and the methods resuming loops, see {@link TranslateOptions#isLoopEntries()}.
+ *
+ * @author Arkady Rost
+ */
+class LoopEmitter {
+    private final TranslateVisitor visitor;
+    private final TranslateOptions options;
+    private final Queue<ParallelBody> parallelBodies = new ArrayDeque<>();
+    private int parallelBodyCount;
+    private boolean inParallelBody;
+    private final Map<ParserRuleContext, String> loopEntries = new LinkedHashMap<>();
+    private boolean inLoopEntry;
+    private ParserRuleContext resumedLoop;
+    private Label resumeLabel;
+
+    LoopEmitter(TranslateVisitor visitor, TranslateOptions options) {
+        this.visitor = visitor;
+        this.options = options;
+    }
+
+    Map<ParserRuleContext, String> getLoopEntries() {
+        return Collections.unmodifiableMap(loopEntries);
+    }
+
+    boolean isInParallelBody() {
+        return inParallelBody;
+    }
+
+    /**
+     * The main block keeps its state in static fields, so its loop is resumed at the head by
+     * running the loop again without the counter initialization.
+     */
+    void translateMainLoopEntries() {
+        inLoopEntry = true;
+        for (Map.Entry<ParserRuleContext, String> entry : loopEntries.entrySet()) {
+            if (getFunction(entry.getKey()) != null)
+                continue;
+            MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, entry.getValue(), "()V");
+            visitor.budget.enter();
+            if (entry.getKey() instanceof WhileStatementContext) {
+                visitWhile((WhileStatementContext) entry.getKey());
+            } else {
+                visitForLoop((ForStatementContext) entry.getKey());
+            }
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            visitor.scope.refreshLocalVariables();
+            translateParallelBodies();
+        }
+        inLoopEntry = false;
+    }
+
+    void translateFunctionLoopEntries(FunctionDeclarationContext ctx) {
+        for (Map.Entry<ParserRuleContext, String> entry : new ArrayList<>(loopEntries.entrySet())) {
+            if (getFunction(entry.getKey()) == ctx)
+                translateFunctionLoopEntry(ctx, entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * A loop of a function is resumed by a copy of the function taking every parameter and local
+     * in slot order and a flag jumping to the loop head, so the rest of the call runs in the copy.
+     * Code before the head stays reachable, the frames at the loop labels are the function's.
+     */
+    private void translateFunctionLoopEntry(FunctionDeclarationContext ctx, String name, ParserRuleContext loop) {
+        TranslateScope scope = visitor.scope;
+        scope.setMethodName(ctx.ID().getText());
+        scope.setMethodType(visitor.getType(ctx.type()));
+        List<Type> argumentType = new ArrayList<>();
+        for (VarDeclarationContext pctx : ctx.varDeclaration()) {
+            DataType type = visitor.getType(pctx.type());
+            for (TerminalNode id : pctx.ID()) {
+                scope.addLocalVariable(id.getText(), type);
+                argumentType.add(type.getType());
+            }
+        }
+        visitor.parameterCount = scope.getLocalVariables().size();
+        for (VarDeclarationContext vctx : ctx.varDeclarations().varDeclaration()) {
+            DataType type = visitor.getType(vctx.type());
+            for (TerminalNode id : vctx.ID()) {
+                scope.addLocalVariable(id.getText(), type);
+                argumentType.add(type.getType());
+            }
+        }
+        int resume = scope.reserveLocalSlot();
+        argumentType.add(Type.BOOLEAN_TYPE);
+        String descriptor = Type.getMethodDescriptor(scope.getMethodType().getType(),
+                argumentType.toArray(new Type[argumentType.size()]));
+
+        inLoopEntry = true;
+        resumedLoop = loop;
+        resumeLabel = new Label();
+        MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, name, descriptor);
+        Label start = visitor.markBody(ctx.block());
+        visitor.budget.enter();
+        mv.visitVarInsn(ILOAD, resume);
+        mv.visitJumpInsn(IFNE, resumeLabel);
+        visitor.visitBlock(ctx.block());
+        visitor.describeLocals(start);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        resumedLoop = null;
+        inLoopEntry = false;
+        scope.refreshLocalVariables();
+        visitor.parameterCount = 0;
+        translateParallelBodies();
+    }
+
+    private void addLoopEntry(ParserRuleContext ctx) {
+        if (options.isLoopEntries() && !visitor.discarding && !inParallelBody && !inLoopEntry)
+            loopEntries.put(ctx, "$loop" + loopEntries.size());
+        if (ctx == resumedLoop)
+            visitor.mv.visitLabel(resumeLabel);
+    }
+
+    /**
+     * @return declaration of the function the statement belongs to, {@code null} in the main block
+     */
+    private static FunctionDeclarationContext getFunction(ParserRuleContext ctx) {
+        while (ctx != null && !(ctx instanceof FunctionDeclarationContext))
+            ctx = ctx.getParent();
+        return (FunctionDeclarationContext) ctx;
+    }
+
+    void visitFor(ForStatementContext ctx) {
+        if (ctx.parallel != null) {
+            visitParallelFor(ctx);
+            return;
+        }
+        visitor.verifyType(visitor.visitAssignment(ctx.assignmentStatement()), PrimitiveType.INTEGER, ctx);
+        addLoopEntry(ctx);
+        visitForLoop(ctx);
+    }
+
+    private void visitForLoop(ForStatementContext ctx) {
+        MethodVisitor mv = visitor.mv;
+        Label startLabel = new Label();
+        Label breakLabel = new Label();
+        Label continueLabel = new Label();
+        visitor.scope.enterLoop(continueLabel, breakLabel);
+        boolean to = "to".equals(ctx.DIRECTION().getText());
+        mv.visitLabel(startLabel);
+        visitor.budget.charge();
+        visitor.visitExpression(ctx.expression());
+        visitor.visitQualifiedName(ctx.assignmentStatement().qualifiedName());
+        mv.visitJumpInsn(to ? IF_ICMPLT : IF_ICMPGT, breakLabel);
+        visitor.visitStatement(ctx.statement());
+        mv.visitLabel(continueLabel);
+        visitor.markLine(ctx);
+        updateForCounter(ctx.assignmentStatement().qualifiedName(), to);
+        mv.visitJumpInsn(GOTO, startLabel);
+        mv.visitLabel(breakLabel);
+        visitor.scope.exitLoop();
+    }
+
+    /**
+     * Moves the loop body to a synthetic method running a range of iterations and hands it to
+     * {@link ParallelLoop}. Bounds are evaluated once. Locals used by the body are passed by value
+     * and arrays are shared. The body may only assign array elements, see {@link #checkParallelWrite}.
+     */
+    private void visitParallelFor(ForStatementContext ctx) {
+        TranslateScope scope = visitor.scope;
+        MethodVisitor mv = visitor.mv;
+        QualifiedNameContext counter = ctx.assignmentStatement().qualifiedName();
+        if (!counter.expression().isEmpty())
+            throw new CompileException("Parallel loop counter must be a variable: " + ctx.getText());
+        String var = counter.ID().getText();
+        if (scope.isLocalVariable(var)) {
+            visitor.verifyType(scope.getLocalVariableType(var), PrimitiveType.INTEGER, ctx);
+        } else if (scope.isGlobalVariable(var)) {
+            visitor.verifyType(scope.getGlobalVariableType(var), PrimitiveType.INTEGER, ctx);
+        } else {
+            throw new CompileException(String.format("Variable %s not found in context %s.", var, ctx.getText()));
+        }
+
+        Set<String> used = new HashSet<>();
+        collectIdentifiers(ctx.statement(), used);
+        List<String> captured = new ArrayList<>();
+        for (Map.Entry<String, LocalVariableDescriptor> local : TranslateVisitor.sortByIndex(scope.getLocalVariables())) {
+            String name = local.getKey();
+            if (!name.equals(var) && used.contains(name))
+                captured.add(name);
+        }
+        List<Type> argumentType = new ArrayList<>(Arrays.asList(Type.INT_TYPE, Type.INT_TYPE));
+        ParallelBody body = new ParallelBody("$parallel" + parallelBodyCount++, ctx, var);
+        for (String name : captured) {
+            DataType type = scope.getLocalVariableType(name);
+            body.captured.put(name, type);
+            argumentType.add(type.getType());
+        }
+        String descriptor = Type.getMethodDescriptor(Type.VOID_TYPE, argumentType.toArray(new Type[argumentType.size()]));
+        body.descriptor = descriptor;
+        body.methodName = scope.getMethodName();
+        body.methodType = scope.getMethodType();
+        body.discarding = visitor.discarding;
+        parallelBodies.add(body);
+
+        mv.visitLdcInsn(new Handle(H_INVOKESTATIC, scope.getClassName(), body.name, descriptor));
+        if (!captured.isEmpty()) {
+            mv.visitLdcInsn(2);
+            mv.visitLdcInsn(captured.size());
+            mv.visitTypeInsn(ANEWARRAY, Type.getInternalName(Object.class));
+            int i = 0;
+            for (String name : captured) {
+                mv.visitInsn(DUP);
+                mv.visitLdcInsn(i++);
+                DataType type = scope.getLocalVariableType(name);
+                mv.visitVarInsn(type.isPrimitive() ? ILOAD : ALOAD, scope.getLocalVariableIndex(name));
+                box(type);
+                mv.visitInsn(AASTORE);
+            }
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(MethodHandles.class), "insertArguments",
+                    Type.getMethodDescriptor(Type.getType(MethodHandle.class), Type.getType(MethodHandle.class),
+                            Type.INT_TYPE, Type.getType(Object[].class)), false);
+        }
+        visitor.verifyType(visitor.visitExpression(ctx.assignmentStatement().expression()), PrimitiveType.INTEGER, ctx);
+        visitor.verifyType(visitor.visitExpression(ctx.expression()), PrimitiveType.INTEGER, ctx);
+        if (!"to".equals(ctx.DIRECTION().getText()))
+            mv.visitInsn(SWAP);
+        visitor.budget.save();
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ParallelLoop.class), "run",
+                Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(MethodHandle.class), Type.INT_TYPE, Type.INT_TYPE), false);
+        visitor.budget.restore();
+    }
+
+    void translateParallelBodies() {
+        TranslateScope scope = visitor.scope;
+        while (!parallelBodies.isEmpty()) {
+            ParallelBody body = parallelBodies.remove();
+            scope.setMethodName(body.methodName);
+            scope.setMethodType(body.methodType);
+            int counter = scope.addLocalVariable(body.counter, PrimitiveType.INTEGER);
+            int to = scope.reserveLocalSlot();
+            for (Map.Entry<String, DataType> var : body.captured.entrySet())
+                scope.addLocalVariable(var.getKey(), var.getValue());
+            boolean wasDiscarding = visitor.discarding;
+            visitor.discarding = body.discarding;
+            MethodVisitor mv = visitor.mv = visitor.createMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, body.name, body.descriptor);
+            inParallelBody = true;
+            visitor.budget.enter();
+
+            Label startLabel = new Label();
+            Label continueLabel = new Label();
+            Label breakLabel = new Label();
+            scope.enterParallelLoop(continueLabel, breakLabel);
+            mv.visitLabel(startLabel);
+            Label start = visitor.markLine(body.ctx);
+            visitor.budget.charge();
+            mv.visitVarInsn(ILOAD, counter);
+            mv.visitVarInsn(ILOAD, to);
+            mv.visitJumpInsn(IF_ICMPGT, breakLabel);
+            visitor.visitStatement(body.ctx.statement());
+            mv.visitLabel(continueLabel);
+            visitor.markLine(body.ctx);
+            mv.visitIincInsn(counter, 1);
+            mv.visitJumpInsn(GOTO, startLabel);
+            mv.visitLabel(breakLabel);
+            scope.exitLoop();
+            visitor.budget.save();
+            mv.visitInsn(RETURN);
+            visitor.describeLocals(start);
+
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            inParallelBody = false;
+            visitor.discarding = wasDiscarding;
+            scope.refreshLocalVariables();
+        }
+    }
+
+    /**
+     * Rejects assigning a variable in a parallel body, see {@link ParallelRules#checkWrite}.
+     */
+    void checkParallelWrite(String var, ParseTree ctx) {
+        if (!inParallelBody)
+            return;
+        TranslateScope scope = visitor.scope;
+        ParallelRules.checkWrite(var, var.equals(scope.getMethodName()),
+                scope.isLocalVariable(var) || scope.isGlobalVariable(var), ctx);
+    }
+
+    void checkParallelCall(String name, ParseTree ctx) {
+        if (inParallelBody)
+            ParallelRules.checkCall(visitor.programUsage, name, ctx);
+    }
+
+    private void box(DataType type) {
+        if (type == PrimitiveType.INTEGER) {
+            visitor.mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Integer.class), "valueOf",
+                    Type.getMethodDescriptor(Type.getType(Integer.class), Type.INT_TYPE), false);
+        } else if (type == PrimitiveType.BOOLEAN) {
+            visitor.mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Boolean.class), "valueOf",
+                    Type.getMethodDescriptor(Type.getType(Boolean.class), Type.BOOLEAN_TYPE), false);
+        }
+    }
+
+    private static void collectIdentifiers(ParseTree ctx, Set<String> ids) {
+        if (ctx instanceof TerminalNode) {
+            if (((TerminalNode) ctx).getSymbol().getType() == PascalParser.ID)
+                ids.add(ctx.getText());
+            return;
+        }
+        for (int i = 0; i < ctx.getChildCount(); i++)
+            collectIdentifiers(ctx.getChild(i), ids);
+    }
+
+    private void updateForCounter(QualifiedNameContext ctx, boolean to) {
+        if (ctx.expression().isEmpty()) {
+            updateForVariableCounter(ctx, to);
+        } else {
+            updateForArrayCellCounter(ctx, to);
+        }
+    }
+
+    private void updateForArrayCellCounter(QualifiedNameContext ctx, boolean to) {
+        ArrayType type = visitor.arrays.loadArray(ctx.ID().getText());
+        visitor.arrays.computeArrayIndex(type, ctx);
+        updateCounterValue(ctx, to);
+        visitor.mv.visitInsn(IASTORE);
+    }
+
+    private void updateCounterValue(QualifiedNameContext ctx, boolean to) {
+        visitor.visitQualifiedName(ctx);
+        visitor.mv.visitInsn(to ? ICONST_1 : ICONST_M1);
+        visitor.mv.visitInsn(IADD);
+    }
+
+    private void updateForVariableCounter(QualifiedNameContext ctx, boolean to) {
+        TranslateScope scope = visitor.scope;
+        String var = ctx.ID().getText();
+        if (scope.isLocalVariable(var)) {
+            visitor.mv.visitIincInsn(scope.getLocalVariableIndex(var), to ? 1 : -1);
+        } else if (scope.isGlobalVariable(var)) {
+            DataType type = scope.getGlobalVariableType(var);
+            updateCounterValue(ctx, to);
+            visitor.mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
+        } else {
+            throw new RuntimeException("No variable in contexts " + ctx.getText());
+        }
+    }
+
+    void visitWhile(WhileStatementContext ctx) {
+        Boolean condition = ConstantFolder.booleanValue(ctx.expression());
+        if (Boolean.FALSE.equals(condition) && !visitor.discarding) {
+            visitor.discardStatement((StatementContext) ctx.getParent());
+            return;
+        }
+        addLoopEntry(ctx);
+        MethodVisitor mv = visitor.mv;
+        Label continueLabel = new Label();
+        Label breakLabel = new Label();
+        visitor.scope.enterLoop(continueLabel, breakLabel);
+        mv.visitLabel(continueLabel);
+        visitor.budget.charge();
+        if (condition == null) {
+            visitor.verifyType(visitor.visitExpression(ctx.expression()), PrimitiveType.BOOLEAN, ctx);
+            mv.visitJumpInsn(IFEQ, breakLabel);
+        }
+        visitor.visitStatement(ctx.statement());
+        mv.visitJumpInsn(GOTO, continueLabel);
+        mv.visitLabel(breakLabel);
+        visitor.scope.exitLoop();
+    }
+
+    void visitBreak(BreakStatementContext ctx) {
+        if (!visitor.scope.inLoop())
+            throw new CompileException("Break is out of loop " + ctx.getText());
+        ParallelRules.checkBreak(visitor.scope.inParallelLoop(), ctx);
+        visitor.mv.visitJumpInsn(GOTO, visitor.scope.getBreakLabel());
+    }
+
+    void visitContinue(ContinueStatementContext ctx) {
+        if (!visitor.scope.inLoop())
+            throw new CompileException("Continue is out of loop " + ctx.getText());
+        visitor.mv.visitJumpInsn(GOTO, visitor.scope.getContinueLabel());
+    }
+
+    private static class ParallelBody {
+        private final String name;
+        private final ForStatementContext ctx;
+        private final String counter;
+        private final Map<String, DataType> captured = new LinkedHashMap<>();
+        private String descriptor;
+        private String methodName;
+        private DataType methodType;
+        private boolean discarding;
+
+        ParallelBody(String name, ForStatementContext ctx, String counter) {
+            this.name = name;
+            this.ctx = ctx;
+            this.counter = counter;
+        }
+    }
+}
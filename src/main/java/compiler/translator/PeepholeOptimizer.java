@@ -0,0 +1,339 @@
+package compiler.translator;
+
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Rewrites short instruction sequences left by the straightforward translation of expressions
+ * and statements. Runs on a method body without frames, the frames are computed afterwards.
+ * Labels that are no longer jumped to are removed, so no frames are written for them.
+ *
+ * Patterns only match across labels that are not jump targets.
+ *
+ * @author Arkady Rost
+ */
+public class PeepholeOptimizer {
+    public enum Rule {
+        /** {@code LDC n} of a small {@code int} becomes {@code ICONST_n}, {@code BIPUSH} or {@code SIPUSH}. */
+        CONSTANT_PUSH,
+        /** {@code IFcc F; ICONST_1; GOTO E; F: ICONST_0; E: IFEQ T} becomes {@code IFcc T}, with {@code IFNE} the condition is inverted. */
+        COMPARE_BRANCH,
+        /** {@code ICONST_1 IXOR ICONST_1 IXOR} is removed. */
+        DOUBLE_NOT,
+        /** {@code ICONST_1 IXOR IFEQ T} becomes {@code IFNE T} and vice versa. */
+        NOT_BRANCH,
+        /** {@code xSTORE n; xLOAD n} becomes {@code DUP; xSTORE n}. */
+        STORE_LOAD,
+        /** A constant or a local pushed and popped right away is removed. */
+        PUSH_POP,
+        /** A jump to a {@code GOTO} jumps to its target instead. */
+        JUMP_THREADING,
+        /** {@code IFcc A; GOTO B; A:} becomes {@code IF!cc B; A:}. */
+        BRANCH_OVER_GOTO,
+        /** A {@code GOTO} to the next instruction is removed. */
+        GOTO_NEXT
+    }
+
+    private final Map<Rule, Integer> hits = new EnumMap<>(Rule.class);
+    private final Map<LabelNode, Integer> references = new HashMap<>();
+    private InsnList instructions;
+
+    /**
+     * @return number of times each rule was applied, over all optimized methods
+     */
+    public Map<Rule, Integer> getHits() {
+        return Collections.unmodifiableMap(hits);
+    }
+
+    public void optimize(MethodNode method) {
+        instructions = method.instructions;
+        references.clear();
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; ) {
+            AbstractInsnNode next = insn.getNext();
+            if (insn instanceof FrameNode) {
+                instructions.remove(insn);
+            } else {
+                for (LabelNode label : targets(insn))
+                    reference(label, 1);
+            }
+            insn = next;
+        }
+        for (Object node : method.tryCatchBlocks) {
+            TryCatchBlockNode block = (TryCatchBlockNode) node;
+            reference(block.start, 1);
+            reference(block.end, 1);
+            reference(block.handler, 1);
+        }
+
+        AbstractInsnNode insn = instructions.getFirst();
+        while (insn != null) {
+            AbstractInsnNode previous = insn.getPrevious();
+            if (insn.getOpcode() >= 0 && apply(insn)) {
+                // a rewrite can complete a pattern starting one instruction earlier
+                insn = previous == null ? instructions.getFirst() : previous;
+            } else {
+                insn = insn.getNext();
+            }
+        }
+        removeUnusedLabels(method);
+        instructions = null;
+    }
+
+    /**
+     * Applies the first matching rule to the sequence starting at {@code insn}. Never removes
+     * instructions before it.
+     */
+    private boolean apply(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof Integer) {
+            int value = (Integer) ((LdcInsnNode) insn).cst;
+            AbstractInsnNode push;
+            if (value >= -1 && value <= 5) {
+                push = new InsnNode(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                push = new IntInsnNode(BIPUSH, value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                push = new IntInsnNode(SIPUSH, value);
+            } else {
+                return false;
+            }
+            instructions.set(insn, push);
+            return hit(Rule.CONSTANT_PUSH);
+        }
+        AbstractInsnNode next = nextInsn(insn);
+        if (next == null)
+            return false;
+
+        if (isPurePush(insn) && next.getOpcode() == POP) {
+            remove(next);
+            remove(insn);
+            return hit(Rule.PUSH_POP);
+        }
+        if (opcode == ICONST_1 && next.getOpcode() == IXOR) {
+            AbstractInsnNode after = nextInsn(next);
+            if (after != null && after.getOpcode() == ICONST_1 && nextInsn(after) != null && nextInsn(after).getOpcode() == IXOR) {
+                AbstractInsnNode xor = nextInsn(after);
+                remove(xor);
+                remove(after);
+                remove(next);
+                remove(insn);
+                return hit(Rule.DOUBLE_NOT);
+            }
+            if (after != null && (after.getOpcode() == IFEQ || after.getOpcode() == IFNE)) {
+                JumpInsnNode jump = (JumpInsnNode) after;
+                jump.setOpcode(invert(jump.getOpcode()));
+                remove(next);
+                remove(insn);
+                return hit(Rule.NOT_BRANCH);
+            }
+        }
+        if ((opcode == ISTORE || opcode == ASTORE) && next.getOpcode() == (opcode == ISTORE ? ILOAD : ALOAD)
+                && ((VarInsnNode) next).var == ((VarInsnNode) insn).var) {
+            remove(next);
+            instructions.insertBefore(insn, new InsnNode(DUP));
+            return hit(Rule.STORE_LOAD);
+        }
+        if (insn instanceof JumpInsnNode) {
+            JumpInsnNode jump = (JumpInsnNode) insn;
+            if (opcode == GOTO && isNext(jump, jump.label)) {
+                remove(jump);
+                return hit(Rule.GOTO_NEXT);
+            }
+            LabelNode destination = threadJump(jump.label);
+            if (destination != jump.label) {
+                retarget(jump, destination);
+                return hit(Rule.JUMP_THREADING);
+            }
+            if (opcode != GOTO && next.getOpcode() == GOTO && isNext(next, jump.label)) {
+                LabelNode label = ((JumpInsnNode) next).label;
+                remove(next);
+                jump.setOpcode(invert(opcode));
+                retarget(jump, label);
+                return hit(Rule.BRANCH_OVER_GOTO);
+            }
+            if (opcode != GOTO && matchCompareBranch(jump, next))
+                return hit(Rule.COMPARE_BRANCH);
+        }
+        return false;
+    }
+
+    private boolean matchCompareBranch(JumpInsnNode jump, AbstractInsnNode next) {
+        if (next.getOpcode() != ICONST_1)
+            return false;
+        AbstractInsnNode jumpToEnd = nextInsn(next);
+        if (jumpToEnd == null || jumpToEnd.getOpcode() != GOTO || !isNext(jumpToEnd, jump.label) || references(jump.label) != 1)
+            return false;
+        AbstractInsnNode zero = nextInsn(jump.label);
+        LabelNode end = ((JumpInsnNode) jumpToEnd).label;
+        if (zero == null || zero.getOpcode() != ICONST_0 || !isNext(zero, end) || references(end) != 1)
+            return false;
+        AbstractInsnNode test = nextInsn(end);
+        if (test == null || (test.getOpcode() != IFEQ && test.getOpcode() != IFNE))
+            return false;
+        // the comparison jumps when the result is false
+        if (test.getOpcode() == IFNE)
+            jump.setOpcode(invert(jump.getOpcode()));
+        retarget(jump, ((JumpInsnNode) test).label);
+        remove(next);
+        remove(jumpToEnd);
+        remove(zero);
+        remove(test);
+        return true;
+    }
+
+    /**
+     * @return final target of a chain of {@code GOTO}s, or the label itself if the chain loops
+     */
+    private LabelNode threadJump(LabelNode label) {
+        Set<LabelNode> visited = new HashSet<>();
+        LabelNode destination = label;
+        while (visited.add(destination)) {
+            AbstractInsnNode target = nextInsn(destination, true);
+            if (target == null || target.getOpcode() != GOTO)
+                return destination;
+            destination = ((JumpInsnNode) target).label;
+        }
+        return label;
+    }
+
+    private boolean hit(Rule rule) {
+        Integer count = hits.get(rule);
+        hits.put(rule, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    private void removeUnusedLabels(MethodNode method) {
+        Set<LabelNode> used = new HashSet<>();
+        if (method.localVariables != null) {
+            for (Object node : method.localVariables) {
+                LocalVariableNode var = (LocalVariableNode) node;
+                used.add(var.start);
+                used.add(var.end);
+            }
+        }
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; ) {
+            AbstractInsnNode next = insn.getNext();
+            if (insn instanceof LineNumberNode) {
+                used.add(((LineNumberNode) insn).start);
+            }
+            insn = next;
+        }
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; ) {
+            AbstractInsnNode next = insn.getNext();
+            if (insn instanceof LabelNode && references(insn) == 0 && !used.contains(insn))
+                instructions.remove(insn);
+            insn = next;
+        }
+    }
+
+    /**
+     * @return next instruction, skipping labels that aren't jump targets
+     */
+    private AbstractInsnNode nextInsn(AbstractInsnNode insn) {
+        return nextInsn(insn, false);
+    }
+
+    private AbstractInsnNode nextInsn(AbstractInsnNode insn, boolean skipTargets) {
+        for (AbstractInsnNode next = insn.getNext(); next != null; next = next.getNext()) {
+            if (next instanceof LineNumberNode)
+                continue;
+            if (next instanceof LabelNode && (skipTargets || references(next) == 0))
+                continue;
+            return next instanceof LabelNode ? null : next;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether only labels are between the instruction and the label
+     */
+    private static boolean isNext(AbstractInsnNode insn, LabelNode label) {
+        for (AbstractInsnNode next = insn.getNext(); next != null; next = next.getNext()) {
+            if (next == label)
+                return true;
+            if (next.getOpcode() >= 0)
+                return false;
+        }
+        return false;
+    }
+
+    private static boolean isPurePush(AbstractInsnNode insn) {
+        switch (insn.getOpcode()) {
+            case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5: case BIPUSH: case SIPUSH: case LDC:
+            case ILOAD: case ALOAD: case DUP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void retarget(JumpInsnNode jump, LabelNode label) {
+        reference(jump.label, -1);
+        reference(label, 1);
+        jump.label = label;
+    }
+
+    private void remove(AbstractInsnNode insn) {
+        for (LabelNode label : targets(insn))
+            reference(label, -1);
+        instructions.remove(insn);
+    }
+
+    private int references(AbstractInsnNode label) {
+        Integer count = references.get(label);
+        return count == null ? 0 : count;
+    }
+
+    private void reference(LabelNode label, int delta) {
+        references.put(label, references(label) + delta);
+    }
+
+    private static List<LabelNode> targets(AbstractInsnNode insn) {
+        if (insn instanceof JumpInsnNode)
+            return Collections.singletonList(((JumpInsnNode) insn).label);
+        List<LabelNode> targets = new ArrayList<>();
+        if (insn instanceof TableSwitchInsnNode) {
+            targets.add(((TableSwitchInsnNode) insn).dflt);
+            addLabels(targets, ((TableSwitchInsnNode) insn).labels);
+        } else if (insn instanceof LookupSwitchInsnNode) {
+            targets.add(((LookupSwitchInsnNode) insn).dflt);
+            addLabels(targets, ((LookupSwitchInsnNode) insn).labels);
+        }
+        return targets;
+    }
+
+    /**
+     * Copies the labels of a switch, kept in a raw list by the asm tree, one by one.
+     */
+    private static void addLabels(List<LabelNode> targets, List<?> labels) {
+        for (Object label : labels)
+            targets.add((LabelNode) label);
+    }
+
+    private static int invert(int opcode) {
+        switch (opcode) {
+            case IFEQ: return IFNE;
+            case IFNE: return IFEQ;
+            case IFLT: return IFGE;
+            case IFGE: return IFLT;
+            case IFGT: return IFLE;
+            case IFLE: return IFGT;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            case IF_ICMPLE: return IF_ICMPGT;
+            case IF_ACMPEQ: return IF_ACMPNE;
+            case IF_ACMPNE: return IF_ACMPEQ;
+            case IFNULL: return IFNONNULL;
+            case IFNONNULL: return IFNULL;
+            default:
+                throw new IllegalArgumentException("Not a conditional jump " + opcode);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package compiler.translator;
+
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.PrimitiveType;
+import compiler.translator.type.Range;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Code generation switches, all off by default.
+ *
+ * @author Arkady Rost
+ */
+public class TranslateOptions {
+    public static final int DEFAULT_LAZY_ARRAY_THRESHOLD = 1 << 16;
+    public static final int DEFAULT_MAX_ARRAY_PADDING = 50;
+
+    private boolean budgetChecks;
+    private int lazyArrayThreshold;
+    private boolean skipPeephole;
+    private boolean loopEntries;
+    private boolean outputField;
+    private int maxArrayPadding;
+    private boolean sharedRuntime;
+    private String sourceFile;
+    private List<File> unitPath = new ArrayList<>();
+
+    public TranslateOptions() {
+    }
+
+    /**
+     * Copies the options, so a compile can change its own without affecting other compiles.
+     */
+    public TranslateOptions(TranslateOptions options) {
+        budgetChecks = options.budgetChecks;
+        lazyArrayThreshold = options.lazyArrayThreshold;
+        skipPeephole = options.skipPeephole;
+        loopEntries = options.loopEntries;
+        outputField = options.outputField;
+        maxArrayPadding = options.maxArrayPadding;
+        sharedRuntime = options.sharedRuntime;
+        sourceFile = options.sourceFile;
+        unitPath = new ArrayList<>(options.unitPath);
+    }
+
+    /**
+     * @return whether loop heads and function entries charge the running {@code ExecutionBudget}
+     */
+    public boolean isBudgetChecks() {
+        return budgetChecks;
+    }
+
+    public void setBudgetChecks(boolean budgetChecks) {
+        this.budgetChecks = budgetChecks;
+    }
+
+    /**
+     * @return minimal number of elements of a global array allocated on first access instead of
+     * in the class initializer, zero if every array is allocated eagerly
+     */
+    public int getLazyArrayThreshold() {
+        return lazyArrayThreshold;
+    }
+
+    public void setLazyArrayThreshold(int lazyArrayThreshold) {
+        this.lazyArrayThreshold = lazyArrayThreshold;
+    }
+
+    /**
+     * @return whether methods are written as translated, without the {@link PeepholeOptimizer}
+     */
+    public boolean isSkipPeephole() {
+        return skipPeephole;
+    }
+
+    public void setSkipPeephole(boolean skipPeephole) {
+        this.skipPeephole = skipPeephole;
+    }
+
+    /**
+     * @return whether every loop of the main block also gets a public method resuming it at the
+     * loop head, so a program started elsewhere can hand a running loop over to the class
+     */
+    public boolean isLoopEntries() {
+        return loopEntries;
+    }
+
+    public void setLoopEntries(boolean loopEntries) {
+        this.loopEntries = loopEntries;
+    }
+
+    /**
+     * @return whether the program writes to the {@link TranslateVisitor#OUTPUT_FIELD} of its class,
+     * set by whoever loads it, instead of {@code System.out}
+     */
+    public boolean isOutputField() {
+        return outputField;
+    }
+
+    public void setOutputField(boolean outputField) {
+        this.outputField = outputField;
+    }
+
+    /**
+     * @return percent of memory multi-dimensional arrays may grow by to be stored in the padded
+     * layout of {@link ArrayType}, zero if every array is dense
+     */
+    public int getMaxArrayPadding() {
+        return maxArrayPadding;
+    }
+
+    public void setMaxArrayPadding(int maxArrayPadding) {
+        this.maxArrayPadding = maxArrayPadding;
+    }
+
+    /**
+     * @return whether scalar writes and error reporting call {@code PascalRuntime} too instead of
+     * being inlined, and the class checks the version of the runtime when it's loaded. Reads, whole
+     * array and slice I/O, intrinsics taking a range, parallel loops and budget checks call the
+     * {@code compiler.runtime} package either way, so a class using them needs the runtime jar on
+     * its class path with or without this option.
+     */
+    public boolean isSharedRuntime() {
+        return sharedRuntime;
+    }
+
+    public void setSharedRuntime(boolean sharedRuntime) {
+        this.sharedRuntime = sharedRuntime;
+    }
+
+    /**
+     * @return name of the source file recorded in the class along with line numbers and the names
+     * of locals, {@code null} to write no debug information
+     */
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    public void setSourceFile(String sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    /**
+     * @return directories searched in order for the {@link UnitManifest manifests} and classes of
+     * the units a program uses
+     */
+    public List<File> getUnitPath() {
+        return Collections.unmodifiableList(unitPath);
+    }
+
+    public void setUnitPath(List<File> unitPath) {
+        this.unitPath = new ArrayList<>(unitPath);
+    }
+
+    /**
+     * @return type of an array declared with the dimensions
+     */
+    public ArrayType getArrayType(PrimitiveType type, Range... dimensions) {
+        if (maxArrayPadding <= 0)
+            return new ArrayType(type, dimensions);
+        return ArrayType.padded(type, maxArrayPadding, dimensions);
+    }
+}
@@ -1,12 +1,19 @@
 package compiler.translator;
 
 import compiler.parser.PascalParser.*;
+import compiler.runtime.PascalRuntime;
+import compiler.translator.analysis.CaseLabels;
+import compiler.translator.analysis.ConstantFolder;
+import compiler.translator.analysis.ProgramUsage;
+import compiler.translator.analysis.Usage;
+import compiler.translator.scope.LocalVariableDescriptor;
 import compiler.translator.scope.Scope;
 import compiler.translator.scope.TranslateScope;
 import compiler.translator.type.ArrayType;
 import compiler.translator.type.DataType;
 import compiler.translator.type.PrimitiveType;
 import compiler.translator.type.Range;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.NotNull;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
@@ -14,28 +21,147 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 
-import java.io.Console;
 import java.io.PrintStream;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static org.objectweb.asm.Opcodes.*;
 
 /**
+ * Functions unreachable from the main block, globals never read, locals never read together with
+ * the stores to them and branches under constant conditions are type checked but not emitted.
+ * A store to a local that is read somewhere in its function is always kept, even if it is
+ * overwritten before any read: {@link Usage} is flow insensitive, there is no per-store liveness.
+ *
+ * The visitor translates declarations, statements and expressions. Array access, input and
+ * output, loops and budget checks are emitted by {@link ArrayEmitter}, {@link IoEmitter},
+ * {@link LoopEmitter} and {@link BudgetEmitter}, which write to the method of the visitor.
+ *
  * @author Arkady Rost
  */
 public class TranslateVisitor {
-    private ClassWriter cw;
-    private MethodVisitor mv;
-    private TranslateScope scope;
+    /**
+     * Stream a program translated with {@link TranslateOptions#isOutputField()} writes to.
+     */
+    public static final String OUTPUT_FIELD = "$out";
+    /**
+     * Case labels spanning more values than this are tested with two comparisons rather than
+     * filling the switch.
+     */
+    private static final int MAX_SWITCH_RANGE = 32;
+    /**
+     * Shortest else-if chain over one variable that is translated to a switch.
+     */
+    private static final int MIN_SWITCH_CHAIN = 3;
+    private static final MethodVisitor DISCARD = new MethodVisitor(ASM5) {
+    };
+
+    private final TranslateOptions options;
+    private final PeepholeOptimizer peephole = new PeepholeOptimizer();
+    // the state below is shared with the emitters of the features, created for every class
+    ClassWriter cw;
+    MethodVisitor mv;
+    TranslateScope scope;
+    ProgramUsage programUsage;
+    Usage usage;
+    boolean discarding;
+    int parameterCount;
+    BudgetEmitter budget;
+    ArrayEmitter arrays;
+    IoEmitter io;
+    LoopEmitter loops;
+    private final Set<String> copiedParameters = new HashSet<>();
+    private int lastLine;
+
+    public TranslateVisitor() {
+        this(new TranslateOptions());
+    }
+
+    public TranslateVisitor(TranslateOptions options) {
+        this.options = options;
+    }
+
+    public PeepholeOptimizer getPeepholeOptimizer() {
+        return peephole;
+    }
+
+    /**
+     * @return names of the methods resuming loops of the main block, see
+     * {@link TranslateOptions#isLoopEntries()}
+     */
+    public Map<ParserRuleContext, String> getLoopEntries() {
+        return loops.getLoopEntries();
+    }
 
     public Scope visit(ProgramContext ctx) {
         if (ctx == null)
             throw new IllegalArgumentException("ctx is null");
         refresh();
         visitProgram(ctx);
-        scope.setByteCode(cw.toByteArray());
+        return writeClass();
+    }
+
+    /**
+     * Translates a library unit. Any program may call any of its functions, from any number of
+     * threads, so they are all kept and translated like the functions of a streamed program, see
+     * {@link ProgramUsage#streaming()}. Their signatures are collected into the
+     * {@link Scope#getManifest() manifest} written along with the class.
+     */
+    public Scope visit(UnitContext ctx) {
+        if (ctx == null)
+            throw new IllegalArgumentException("ctx is null");
+        if (options.isBudgetChecks())
+            throw new CompileException("Units are shared by programs and can't have budget checks: " + ctx.ID().getText());
+        refresh();
+        programUsage = ProgramUsage.streaming();
+        visitProgramHeader(ctx.ID().getText());
+        scope.setManifest(new UnitManifest(scope.getClassName(), options.getMaxArrayPadding()));
+        visitUses(ctx.uses());
+        createConstructors();
+        visitFunctionDeclarations(ctx.functionDeclarations());
+        cw.visitEnd();
+        return writeClass();
+    }
+
+    /**
+     * Starts a program handed over one declaration at a time, so the caller can drop the parse
+     * tree of a function once it's translated. Continued by {@link #translateGlobals},
+     * {@link #translateFunction} for every function and {@link #translateMain}.
+     * Whole-program analyses need the rest of the program, so no function or global is dropped
+     * and local arrays aren't pooled, see {@link ProgramUsage#streaming()}.
+     */
+    public void startProgram(String name) {
+        refresh();
+        programUsage = ProgramUsage.streaming();
+        visitProgramHeader(name);
+    }
+
+    public void translateUses(UsesContext ctx) {
+        visitUses(ctx);
+    }
+
+    public void translateGlobals(VarDeclarationsContext ctx) {
+        visitGlobalVarDeclarations(ctx);
+    }
+
+    public void translateFunction(FunctionDeclarationContext ctx) {
+        visitFunctionDeclaration(ctx);
+    }
+
+    public Scope translateMain(BlockContext ctx) {
+        visitMain(ctx);
+        cw.visitEnd();
+        return writeClass();
+    }
+
+    private Scope writeClass() {
+        try {
+            scope.setByteCode(cw.toByteArray());
+        } catch (RuntimeException e) {
+            // ASM only finds out here that a method exceeds the 64 KB code limit of the JVM
+            throw new CompileException("Program doesn't fit into a class file: " + e.getMessage(), e);
+        }
         return scope;
     }
 
@@ -43,40 +169,103 @@ public class TranslateVisitor {
         cw = null;
         mv = null;
         scope = new TranslateScope();
+        programUsage = null;
+        usage = null;
+        discarding = false;
+        budget = new BudgetEmitter(this, options);
+        arrays = new ArrayEmitter(this, options);
+        io = new IoEmitter(this, options);
+        loops = new LoopEmitter(this, options);
     }
 
     private void visitProgram(ProgramContext ctx) {
-        cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        String name = capitalize(ctx.ID().getText());
+        programUsage = ProgramUsage.analyze(ctx);
+        visitProgramHeader(ctx.ID().getText());
+        visitUses(ctx.uses());
+        visitBody(ctx.body());
+        cw.visitEnd();
+    }
+
+    private void visitProgramHeader(String programName) {
+        cw = new ClassWriter(0);
+        String name = Utils.getClassName(programName);
         scope.setClassName(name);
         cw.visit(V1_7, ACC_PUBLIC, name, null, "java/lang/Object", null);
+        if (options.getSourceFile() != null)
+            cw.visitSource(options.getSourceFile(), null);
+        budget.declareFields(cw);
+        if (options.isOutputField())
+            cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, OUTPUT_FIELD, Type.getDescriptor(PrintStream.class), null, null).visitEnd();
+    }
 
-        visitBody(ctx.body());
-        cw.visitEnd();
+    /**
+     * Declares the functions of the used units from their manifests, calls go straight to the
+     * classes of the units. No two functions of the units may have the same signature.
+     * Units don't count ticks, so a program with budget checks can't use them.
+     */
+    private void visitUses(UsesContext ctx) {
+        if (ctx == null)
+            return;
+        if (options.isBudgetChecks())
+            throw new CompileException("Units don't count ticks, a program with budget checks can't use them: " + ctx.getText());
+        Set<String> used = new HashSet<>();
+        for (TerminalNode id : ctx.ID()) {
+            String className = Utils.getClassName(id.getText());
+            if (className.equals(scope.getClassName()))
+                throw new CompileException(String.format("%s can't use itself", className));
+            if (!used.add(className))
+                throw new CompileException(String.format("Unit %s is used twice: %s", className, ctx.getText()));
+            UnitManifest unit = UnitManifest.find(className, options);
+            for (UnitManifest.Declaration function : unit.getFunctions()) {
+                if (scope.getFunctionReturnType(function.getName(), function.getParameterTypes()) != null)
+                    throw new CompileException(String.format("Function %s of unit %s has the same signature as a function of another used unit",
+                            function.getName(), className));
+                scope.declareFunction(function.getName(), function.getType(), function.getParameterTypes(), className);
+            }
+            addUnit(unit);
+            if (scope.getManifest() != null)
+                scope.getManifest().addUse(className);
+        }
     }
 
-    private static String capitalize(String text) {
-        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    /**
+     * Adds the unit and the units it uses to the units needed at run time.
+     */
+    private void addUnit(UnitManifest unit) {
+        if (scope.isUnitAdded(unit.getClassName()))
+            return;
+        scope.addUnit(unit);
+        for (String used : unit.getUses())
+            addUnit(UnitManifest.find(used, options));
     }
 
     private void visitBody(BodyContext ctx) {
         visitGlobalVarDeclarations(ctx.varDeclarations());
         visitFunctionDeclarations(ctx.functionDeclarations());
+        visitMain(ctx.block());
+    }
 
+    private void visitMain(BlockContext ctx) {
         // entry point
-        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+        mv = createMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        scope.reserveLocalSlot();
+        budget.enter();
 
-        visitBlock(ctx.block());
+        visitBlock(ctx);
 
         mv.visitInsn(RETURN);
         mv.visitMaxs(0, 0);
         mv.visitEnd();
+        scope.refreshLocalVariables();
+        loops.translateParallelBodies();
+        loops.translateMainLoopEntries();
     }
 
     private void visitGlobalVarDeclarations(VarDeclarationsContext ctx) {
         for (VarDeclarationContext vctx : ctx.varDeclaration())
             visitGlobalVarDeclaration(vctx);
         createConstructors();
+        arrays.createLazyArrayAccessors();
     }
 
     private void visitGlobalVarDeclaration(VarDeclarationContext ctx) {
@@ -88,15 +277,22 @@ public class TranslateVisitor {
     private void createConstructors() {
         createInstanceConstructor();
         createClassConstructor();
+        budget.createTakeSlice();
     }
 
     private void createClassConstructor() {
-        mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv = createMethod(ACC_STATIC, "<clinit>", "()V");
+        if (options.isSharedRuntime()) {
+            mv.visitLdcInsn(PascalRuntime.VERSION);
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PascalRuntime.class), "require",
+                    Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE), false);
+        }
+        budget.initializeFields();
         for (Map.Entry<String, DataType> var : scope.getGlobalVariables().entrySet()) {
-            if (var.getValue().isPrimitive())
+            if (var.getValue().isPrimitive() || !hasField(var.getKey()) || arrays.isLazyArray(var.getKey()))
                 continue;
             ArrayType type = (ArrayType)var.getValue();
-            initializeArray(type);
+            arrays.initializeArray(type);
             mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var.getKey(), Type.getDescriptor(int[].class));
         }
         mv.visitInsn(RETURN);
@@ -104,21 +300,38 @@ public class TranslateVisitor {
         mv.visitEnd();
     }
 
-    private void initializeArray(ArrayType type) {
-        mv.visitLdcInsn(type.getSize());
-        mv.visitIntInsn(NEWARRAY, T_INT);
-    }
-
     private void createInstanceConstructor() {
         MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
         mv.visitVarInsn(ALOAD, 0);
         mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
         mv.visitInsn(RETURN);
-        mv.visitMaxs(0, 0);
+        mv.visitMaxs(1, 1);
         mv.visitEnd();
     }
 
-    private static DataType getType(TypeContext ctx) {
+    /**
+     * Methods are buffered as trees, so the peephole optimizer can run on a complete body.
+     * Frames are tracked twice: while translating, to drop unreachable code, and after the
+     * optimization for the class file.
+     */
+    MethodVisitor createMethod(int access, String name, String descriptor) {
+        lastLine = 0;
+        if (discarding)
+            return DISCARD;
+        if (options.isSkipPeephole())
+            return new FrameTracker(cw.visitMethod(access, name, descriptor, null, null), descriptor);
+        MethodNode method = new MethodNode(ASM5, access, name, descriptor, null, null) {
+            @Override
+            public void visitEnd() {
+                super.visitEnd();
+                peephole.optimize(this);
+                accept(new FrameTracker(cw.visitMethod(this.access, this.name, desc, null, null), desc));
+            }
+        };
+        return new FrameTracker(method, descriptor);
+    }
+
+    DataType getType(TypeContext ctx) {
         List<RangeContext> rctxList = ctx.range();
         if (rctxList.isEmpty()) {
             return getPrimitiveType(ctx.getText());
@@ -130,7 +343,7 @@ public class TranslateVisitor {
             int to = Integer.parseInt(rctx.NUMBER(1).getText());
             dimensions[i++] = new Range(from, to);
         }
-        return new ArrayType(getPrimitiveType(ctx.PRIMITIVE_TYPE().getText()), dimensions);
+        return options.getArrayType(getPrimitiveType(ctx.PRIMITIVE_TYPE().getText()), dimensions);
     }
 
     private static PrimitiveType getPrimitiveType(String type) {
@@ -145,9 +358,12 @@ public class TranslateVisitor {
 
     private void declareField(String name, DataType type) {
         scope.addGlobalVariable(name, type);
+        if (!hasField(name))
+            return;
         String descriptor = type.getType().getDescriptor();
         Object value = type.isPrimitive() ? 0 : null;
-        cw.visitField(ACC_PUBLIC | ACC_STATIC, name, descriptor, null, value).visitEnd();
+        int access = ACC_PUBLIC | ACC_STATIC | (arrays.isLazyArray(name) ? ACC_VOLATILE : 0);
+        cw.visitField(access, name, descriptor, null, value).visitEnd();
     }
 
     private void visitFunctionDeclarations(FunctionDeclarationsContext ctx) {
@@ -173,18 +389,38 @@ public class TranslateVisitor {
             }
             argType[i++] = type;
         }
-        if (scope.isFunctionDeclared(name, argType))
+        if (scope.isOwnFunctionDeclared(name, argType))
             throw new CompileException(String.format("Function with same signature as %s already declared.", ctx.getText()));
+        if (scope.getFunctionReturnType(name, argType) != null)
+            throw new CompileException(String.format("Function %s has the same signature as a function of a used unit: %s", name, ctx.getText()));
         scope.declareFunction(name, retType, argType);
-        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, name, Utils.getFunctionDescriptor(retType, argType), null, null);
+        if (scope.getManifest() != null)
+            scope.getManifest().addFunction(name, retType, argType);
+        discarding = !programUsage.isFunctionReachable(name);
+        usage = Usage.of(ctx);
+        programUsage.declare(name, usage);
+        mv = createMethod(ACC_PUBLIC | ACC_STATIC, name, Utils.getFunctionDescriptor(retType, argType));
+        parameterCount = scope.getLocalVariables().size();
+        copyArrayParameters(ctx);
 
         visitLocalVariableDeclarations(ctx.varDeclarations());
+        budget.enter();
+        Label start = markBody(ctx.block());
         visitBlock(ctx.block());
 
+        describeLocals(start);
         mv.visitMaxs(0, 0);
         mv.visitEnd();
-        scope.setMethodName("");
         scope.refreshLocalVariables();
+        arrays.endFunction();
+        parameterCount = 0;
+        copiedParameters.clear();
+        loops.translateParallelBodies();
+        arrays.createScratchArrayAccessors();
+        loops.translateFunctionLoopEntries(ctx);
+        scope.setMethodName("");
+        usage = null;
+        discarding = false;
     }
 
     private void visitLocalVariableDeclarations(VarDeclarationsContext ctx) {
@@ -198,301 +434,465 @@ public class TranslateVisitor {
             if (var.getText().equals(scope.getMethodName()))
                 throw new CompileException(String.format("Illegal local variable name %s in %s.", var.getText(), ctx.getText()));
             int index = scope.addLocalVariable(var.getText(), type);
-            if (type instanceof ArrayType) {
-                initializeArray((ArrayType) type);
+            if (isUnreadLocal(var.getText())) {
+                continue;
+            } else if (arrays.isScratchArray(var.getText(), type)) {
+                arrays.loadScratchArray((ArrayType) type);
                 mv.visitVarInsn(ASTORE, index);
+            } else if (type instanceof ArrayType) {
+                arrays.initializeArray((ArrayType) type);
+                mv.visitVarInsn(ASTORE, index);
+            } else {
+                // every local is assigned before the first label, so all frames share the same locals
+                mv.visitInsn(ICONST_0);
+                mv.visitVarInsn(ISTORE, index);
+            }
+        }
+    }
+
+    /**
+     * @return whether the global has a static field, i.e. its value is ever read
+     */
+    boolean hasField(String var) {
+        return programUsage.isGlobalRead(var);
+    }
+
+    /**
+     * @return whether the local is never read in its function, so it gets no slot initialization
+     * and stores to it only pop their values. Locals of the parallel loop bodies are left alone,
+     * they are captured by name.
+     */
+    boolean isUnreadLocal(String var) {
+        return usage != null && !loops.isInParallelBody() && !usage.isLocalRead(var);
+    }
+
+    private boolean isReachable() {
+        return !(mv instanceof FrameTracker) || ((FrameTracker) mv).isReachable();
+    }
+
+    /**
+     * Type checks a statement without emitting it.
+     */
+    void discardStatement(StatementContext ctx) {
+        MethodVisitor live = mv;
+        boolean wasDiscarding = discarding;
+        mv = DISCARD;
+        discarding = true;
+        visitStatement(ctx);
+        discarding = wasDiscarding;
+        mv = live;
+    }
+
+    /**
+     * Arrays are passed by value, but the caller's array is only copied when the function could
+     * tell the difference: when it assigns elements of the parameter, or when the argument may be
+     * a global array that the function changes while reading the parameter.
+     */
+    private void copyArrayParameters(FunctionDeclarationContext ctx) {
+        boolean writesGlobals = programUsage.isWritingGlobalElements(ctx.ID().getText());
+        for (VarDeclarationContext pctx : ctx.varDeclaration()) {
+            for (TerminalNode id : pctx.ID()) {
+                String var = id.getText();
+                if (scope.getLocalVariableType(var).isPrimitive() || isUnreadLocal(var))
+                    continue;
+                if (writesGlobals || usage.isLocalElementWritten(var)) {
+                    mv.visitVarInsn(ALOAD, scope.getLocalVariableIndex(var));
+                    arrays.copyArray();
+                    mv.visitVarInsn(ASTORE, scope.getLocalVariableIndex(var));
+                    copiedParameters.add(var);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the array value of the expression is not referenced by any variable
+     */
+    private boolean isFreshArray(ExpressionContext ctx) {
+        FactorContext fctx = getSingleFactor(ctx);
+        return fctx != null && fctx.functionCall() != null;
+    }
+
+    /**
+     * @return whether the value is a local array of the current function, which dies on return,
+     * or a parameter already copied on entry
+     */
+    private boolean isOwnLocalArray(ExpressionContext ctx) {
+        FactorContext fctx = getSingleFactor(ctx);
+        if (fctx == null || fctx.qualifiedName() == null || !fctx.qualifiedName().expression().isEmpty())
+            return false;
+        String var = fctx.qualifiedName().ID().getText();
+        return scope.isLocalVariable(var)
+                && (scope.getLocalVariableIndex(var) >= parameterCount || copiedParameters.contains(var));
+    }
+
+    private static FactorContext getSingleFactor(ExpressionContext ctx) {
+        while (ctx.appTerm().size() == 1 && ctx.appTerm(0).SIGN().isEmpty() && ctx.appTerm(0).mulTerm(0).factor().size() == 1) {
+            FactorContext fctx = ctx.appTerm(0).mulTerm(0).factor(0);
+            if (fctx.expression() == null)
+                return fctx;
+            ctx = fctx.expression();
+        }
+        return null;
+    }
+
+    /**
+     * Starts a line number at the code of {@code ctx} unless the code before is on the same line.
+     * Written only with a {@link TranslateOptions#getSourceFile() source file}.
+     *
+     * @return label of the line number, {@code null} if none is written
+     */
+    Label markLine(ParserRuleContext ctx) {
+        int line = ctx.getStart().getLine();
+        if (options.getSourceFile() == null || discarding || !isReachable() || line == lastLine)
+            return null;
+        Label label = new Label();
+        mv.visitLabel(label);
+        mv.visitLineNumber(line, label);
+        lastLine = line;
+        return label;
+    }
+
+    /**
+     * Marks the first statement of the body of a method, where the locals named by
+     * {@link #describeLocals} start.
+     */
+    Label markBody(BlockContext ctx) {
+        return markLine(ctx.statement().isEmpty() ? ctx : ctx.statement(0));
+    }
+
+    /**
+     * Names the locals of the method from {@code start} to the end of its code. Called after the
+     * last instruction, which can't be reached past, so the end label needs no frame.
+     */
+    void describeLocals(Label start) {
+        if (start == null)
+            return;
+        Label end = new Label();
+        mv.visitLabel(end);
+        for (Map.Entry<String, LocalVariableDescriptor> local : sortByIndex(scope.getLocalVariables())) {
+            if (!isUnreadLocal(local.getKey())) {
+                mv.visitLocalVariable(local.getKey(), local.getValue().getType().getType().getDescriptor(), null,
+                        start, end, local.getValue().getIndex());
             }
         }
     }
 
-    private void visitStatement(StatementContext ctx) {
+    void visitStatement(StatementContext ctx) {
+        markLine(ctx);
         if (ctx.ifStatement() != null) {
             visitIf(ctx.ifStatement());
+        } else if (ctx.caseStatement() != null) {
+            visitCase(ctx.caseStatement());
         } else if (ctx.forStatement() != null) {
-            visitFor(ctx.forStatement());
+            loops.visitFor(ctx.forStatement());
         } else if (ctx.whileStatement() != null) {
-            visitWhile(ctx.whileStatement());
+            loops.visitWhile(ctx.whileStatement());
         } else if (ctx.assignmentStatement() != null) {
             visitAssignment(ctx.assignmentStatement());
         } else if (ctx.block() != null) {
             visitBlock(ctx.block());
         } else if (ctx.functionCall() != null) {
-            visitFunctionCall(ctx.functionCall());
+            if (visitFunctionCall(ctx.functionCall()) != null)
+                mv.visitInsn(POP);
         } else if (ctx.readStatement() != null) {
-            visitRead(ctx.readStatement());
+            io.visitRead(ctx.readStatement());
         } else if (ctx.writeStatement() != null) {
-            visitWrite(ctx.writeStatement());
+            io.visitWrite(ctx.writeStatement());
         } else if (ctx.breakStatement() != null) {
-            visitBreak(ctx.breakStatement());
+            loops.visitBreak(ctx.breakStatement());
         } else if (ctx.continueStatement() != null) {
-            visitContinue(ctx.continueStatement());
+            loops.visitContinue(ctx.continueStatement());
         } else {
             throw new CompileException("Unsupported statement: " + ctx.getText());
         }
     }
 
+    /**
+     * Else-if chains are translated in a loop rather than recursively, generated programs chain
+     * thousands of branches.
+     */
     private void visitIf(IfStatementContext ctx) {
-        verifyType(visitExpression(ctx.expression()), PrimitiveType.BOOLEAN, ctx);
+        if (visitSwitchChain(ctx))
+            return;
         Label endLabel = new Label();
-        if (ctx.elsePart() == null) {
-            mv.visitJumpInsn(IFEQ, endLabel);
-            visitStatement(ctx.statement());
-        } else {
-            Label elseLabel = new Label();
-            mv.visitJumpInsn(IFEQ, elseLabel);
-            visitStatement(ctx.statement());
-            mv.visitJumpInsn(GOTO, endLabel);
-            mv.visitLabel(elseLabel);
-            visitStatement(ctx.elsePart().statement());
+        boolean jumped = false;
+        for (IfStatementContext link = ctx; link != null; ) {
+            markLine(link);
+            StatementContext otherwise = link.elsePart() == null ? null : link.elsePart().statement();
+            Boolean condition = ConstantFolder.booleanValue(link.expression());
+            if (condition == null) {
+                verifyType(visitExpression(link.expression()), PrimitiveType.BOOLEAN, link);
+                if (otherwise == null) {
+                    mv.visitJumpInsn(IFEQ, endLabel);
+                    visitStatement(link.statement());
+                } else {
+                    Label elseLabel = new Label();
+                    mv.visitJumpInsn(IFEQ, elseLabel);
+                    visitStatement(link.statement());
+                    mv.visitJumpInsn(GOTO, endLabel);
+                    mv.visitLabel(elseLabel);
+                }
+                jumped = true;
+            } else if (condition) {
+                if (otherwise != null)
+                    discardStatement(otherwise);
+                visitStatement(link.statement());
+                otherwise = null;
+            } else {
+                discardStatement(link.statement());
+            }
+            link = otherwise == null ? null : otherwise.ifStatement();
+            if (otherwise != null && link == null)
+                visitStatement(otherwise);
         }
-        mv.visitLabel(endLabel);
+        if (jumped)
+            mv.visitLabel(endLabel);
     }
 
-    private void visitFor(ForStatementContext ctx) {
-        verifyType(visitAssignment(ctx.assignmentStatement()), PrimitiveType.INTEGER, ctx);
-        Label startLabel = new Label();
-        Label breakLabel = new Label();
-        Label continueLabel = new Label();
-        scope.enterLoop(continueLabel, breakLabel);
-        boolean to = "to".equals(ctx.DIRECTION().getText());
-        mv.visitLabel(startLabel);
-        visitExpression(ctx.expression());
-        visitQualifiedName(ctx.assignmentStatement().qualifiedName());
-        mv.visitJumpInsn(to ? IF_ICMPLT : IF_ICMPGT, breakLabel);
-        visitStatement(ctx.statement());
-        mv.visitLabel(continueLabel);
-        updateForCounter(ctx.assignmentStatement().qualifiedName(), to);
-        mv.visitJumpInsn(GOTO, startLabel);
-        mv.visitLabel(breakLabel);
-        scope.exitLoop();
-    }
-
-    private void updateForCounter(QualifiedNameContext ctx, boolean to) {
-        if (ctx.expression().isEmpty()) {
-            updateForVariableCounter(ctx, to);
-        } else {
-            updateForArrayCellCounter(ctx, to);
+    /**
+     * An else-if chain comparing one integer variable with different constants is a case
+     * statement in disguise, the variable is loaded once and switched on. The chain ends at the
+     * first other condition, which is left to the default branch.
+     *
+     * @return whether the chain was translated, chains shorter than {@link #MIN_SWITCH_CHAIN}
+     * stay comparisons
+     */
+    private boolean visitSwitchChain(IfStatementContext ctx) {
+        String var = null;
+        QualifiedNameContext selector = null;
+        List<IfStatementContext> links = new ArrayList<>();
+        List<Label> labels = new ArrayList<>();
+        SortedMap<Integer, Label> keys = new TreeMap<>();
+        for (IfStatementContext link = ctx; link != null; ) {
+            ExpressionContext condition = link.expression();
+            if (condition.appTerm().size() != 2 || !"=".equals(condition.APP_OP(0).getText()))
+                break;
+            int side = switchVariable(condition.appTerm(0)) != null ? 0 : 1;
+            QualifiedNameContext name = switchVariable(condition.appTerm(side));
+            Integer key = ConstantFolder.integerValue(condition.appTerm(1 - side));
+            if (name == null || key == null || keys.containsKey(key) || var != null && !var.equals(name.ID().getText()))
+                break;
+            var = name.ID().getText();
+            selector = name;
+            Label label = new Label();
+            keys.put(key, label);
+            labels.add(label);
+            links.add(link);
+            link = link.elsePart() == null ? null : link.elsePart().statement().ifStatement();
         }
+        if (links.size() < MIN_SWITCH_CHAIN)
+            return false;
+        ElsePartContext elsePart = links.get(links.size() - 1).elsePart();
+        Label endLabel = new Label();
+        Label defaultLabel = elsePart == null ? endLabel : new Label();
+        visitQualifiedName(selector);
+        switchOn(keys, defaultLabel);
+        for (int i = 0; i < links.size(); i++) {
+            mv.visitLabel(labels.get(i));
+            visitStatement(links.get(i).statement());
+            mv.visitJumpInsn(GOTO, endLabel);
+        }
+        if (elsePart != null) {
+            mv.visitLabel(defaultLabel);
+            visitStatement(elsePart.statement());
+        }
+        mv.visitLabel(endLabel);
+        return true;
     }
 
-    private void updateForArrayCellCounter(QualifiedNameContext ctx, boolean to) {
-        ArrayType type = loadArray(ctx.ID().getText());
-        computeArrayIndex(type, ctx);
-        updateCounterValue(ctx, to);
-        mv.visitInsn(IASTORE);
-    }
-
-    private void updateCounterValue(QualifiedNameContext ctx, boolean to) {
-        visitQualifiedName(ctx);
-        mv.visitInsn(to ? ICONST_1 : ICONST_M1);
-        mv.visitInsn(IADD);
+    /**
+     * @return name of the operand if it's a plain integer variable, {@code null} otherwise
+     */
+    private QualifiedNameContext switchVariable(AppTermContext ctx) {
+        if (!ctx.SIGN().isEmpty() || ctx.mulTerm(0).factor().size() != 1)
+            return null;
+        QualifiedNameContext name = ctx.mulTerm(0).factor(0).qualifiedName();
+        if (name == null || !name.expression().isEmpty())
+            return null;
+        String var = name.ID().getText();
+        if (scope.isLocalVariable(var))
+            return scope.getLocalVariableType(var) == PrimitiveType.INTEGER ? name : null;
+        return scope.isGlobalVariable(var) && scope.getGlobalVariableType(var) == PrimitiveType.INTEGER ? name : null;
     }
 
-    private ArrayType loadArray(String var) {
-        ArrayType type;
-        if (scope.isLocalVariable(var)) {
-            checkArrayType(scope.getLocalVariableType(var));
-            type = (ArrayType)scope.getLocalVariableType(var);
-            mv.visitVarInsn(ALOAD, scope.getLocalVariableIndex(var));
-        } else if (scope.isGlobalVariable(var)) {
-            checkArrayType(scope.getGlobalVariableType(var));
-            type = (ArrayType)scope.getGlobalVariableType(var);
-            mv.visitFieldInsn(GETSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
-        } else {
-            throw new CompileException(String.format("Variable %s not found.", var));
+    /**
+     * The selector stays on the stack while the wide ranges are tested, so a case needs no
+     * temporary local. The switch over the other values consumes it, a matching wide range pops
+     * it before its branch. No matching label and no else does nothing.
+     */
+    private void visitCase(CaseStatementContext ctx) {
+        CaseLabels labels = CaseLabels.of(ctx);
+        verifyType(visitExpression(ctx.expression()), PrimitiveType.INTEGER, ctx);
+        List<CaseBranchContext> branches = ctx.caseBranch();
+        Label[] branchLabels = new Label[branches.size()];
+        Label[] rangeLabels = new Label[branches.size()];
+        for (int i = 0; i < branchLabels.length; i++)
+            branchLabels[i] = new Label();
+        Label endLabel = new Label();
+        Label defaultLabel = ctx.elsePart() == null ? endLabel : new Label();
+        SortedMap<Integer, Label> keys = new TreeMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            int low = labels.getLow(i);
+            int high = labels.getHigh(i);
+            int branch = labels.getBranch(i);
+            if ((long) high - low < MAX_SWITCH_RANGE) {
+                for (long key = low; key <= high; key++)
+                    keys.put((int) key, branchLabels[branch]);
+                continue;
+            }
+            if (rangeLabels[branch] == null)
+                rangeLabels[branch] = new Label();
+            Label skipLabel = new Label();
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(low);
+            mv.visitJumpInsn(IF_ICMPLT, skipLabel);
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(high);
+            mv.visitJumpInsn(IF_ICMPLE, rangeLabels[branch]);
+            mv.visitLabel(skipLabel);
         }
-        return type;
+        switchOn(keys, defaultLabel);
+        for (int i = 0; i < branchLabels.length; i++) {
+            if (rangeLabels[i] != null) {
+                mv.visitLabel(rangeLabels[i]);
+                mv.visitInsn(POP);
+            }
+            mv.visitLabel(branchLabels[i]);
+            visitStatement(branches.get(i).statement());
+            mv.visitJumpInsn(GOTO, endLabel);
+        }
+        if (ctx.elsePart() != null) {
+            mv.visitLabel(defaultLabel);
+            visitStatement(ctx.elsePart().statement());
+        }
+        mv.visitLabel(endLabel);
     }
 
-    private void updateForVariableCounter(QualifiedNameContext ctx, boolean to) {
-        String var = ctx.ID().getText();
-        if (scope.isLocalVariable(var)) {
-            mv.visitIincInsn(scope.getLocalVariableIndex(var), to ? 1 : -1);
-        } else if (scope.isGlobalVariable(var)) {
-            DataType type = scope.getGlobalVariableType(var);
-            updateCounterValue(ctx, to);
-            mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
+    /**
+     * Consumes the integer on the stack. Picks a table or a lookup switch by the cost javac uses,
+     * the space plus three times the time of each.
+     */
+    private void switchOn(SortedMap<Integer, Label> keys, Label defaultLabel) {
+        if (keys.isEmpty()) {
+            mv.visitInsn(POP);
+            mv.visitJumpInsn(GOTO, defaultLabel);
+            return;
+        }
+        int low = keys.firstKey();
+        int high = keys.lastKey();
+        long tableSpace = 4 + ((long) high - low + 1);
+        long tableTime = 3;
+        long lookupSpace = 3 + 2L * keys.size();
+        long lookupTime = keys.size();
+        if (tableSpace + 3 * tableTime <= lookupSpace + 3 * lookupTime) {
+            Label[] table = new Label[high - low + 1];
+            Arrays.fill(table, defaultLabel);
+            for (Map.Entry<Integer, Label> key : keys.entrySet())
+                table[key.getKey() - low] = key.getValue();
+            mv.visitTableSwitchInsn(low, high, defaultLabel, table);
         } else {
-            throw new RuntimeException("No variable in contexts " + ctx.getText());
+            int[] values = new int[keys.size()];
+            Label[] targets = new Label[keys.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Label> key : keys.entrySet()) {
+                values[i] = key.getKey();
+                targets[i++] = key.getValue();
+            }
+            mv.visitLookupSwitchInsn(defaultLabel, values, targets);
         }
     }
 
-    private void visitWhile(WhileStatementContext ctx) {
-        Label continueLabel = new Label();
-        Label breakLabel = new Label();
-        scope.enterLoop(continueLabel, breakLabel);
-        mv.visitLabel(continueLabel);
-        verifyType(visitExpression(ctx.expression()), PrimitiveType.BOOLEAN, ctx);
-        mv.visitJumpInsn(IFEQ, breakLabel);
-        visitStatement(ctx.statement());
-        mv.visitJumpInsn(GOTO, continueLabel);
-        mv.visitLabel(breakLabel);
-        scope.exitLoop();
+    static List<Map.Entry<String, LocalVariableDescriptor>> sortByIndex(Map<String, LocalVariableDescriptor> locals) {
+        List<Map.Entry<String, LocalVariableDescriptor>> sorted = new ArrayList<>(locals.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, LocalVariableDescriptor>>() {
+            @Override
+            public int compare(Map.Entry<String, LocalVariableDescriptor> a, Map.Entry<String, LocalVariableDescriptor> b) {
+                return Integer.compare(a.getValue().getIndex(), b.getValue().getIndex());
+            }
+        });
+        return sorted;
     }
-
-    private DataType visitAssignment(AssignmentStatementContext ctx) {
+    DataType visitAssignment(AssignmentStatementContext ctx) {
         if (ctx.qualifiedName().expression().isEmpty()) {
             return visitVariableAssignment(ctx);
         } else {
-            return visitArrayAssignment(ctx);
+            return arrays.assignElement(ctx);
         }
     }
 
     private DataType visitVariableAssignment(AssignmentStatementContext ctx) {
         String var = ctx.qualifiedName().ID().getText();
+        loops.checkParallelWrite(var, ctx);
         DataType etype = visitExpression(ctx.expression());
+        boolean copy = !etype.isPrimitive() && !isFreshArray(ctx.expression());
         if (var.equals(scope.getMethodName())) {
             verifyType(etype, scope.getMethodType(), ctx);
+            if (copy && !isOwnLocalArray(ctx.expression()))
+                arrays.copyArray();
+            arrays.releaseScratchArrays();
+            budget.save();
             mv.visitInsn(etype.isPrimitive() ? IRETURN : ARETURN);
         } else if (scope.isLocalVariable(var)) {
             verifyType(etype, scope.getLocalVariableType(var), ctx);
-            int opcode = scope.getLocalVariableType(var).isPrimitive() ? ISTORE : ASTORE;
-            mv.visitVarInsn(opcode, scope.getLocalVariableIndex(var));
+            if (isUnreadLocal(var)) {
+                mv.visitInsn(POP);
+            } else {
+                if (copy)
+                    arrays.copyArray();
+                int opcode = scope.getLocalVariableType(var).isPrimitive() ? ISTORE : ASTORE;
+                mv.visitVarInsn(opcode, scope.getLocalVariableIndex(var));
+            }
         } else if (scope.isGlobalVariable(var)) {
             DataType vtype = scope.getGlobalVariableType(var);
             verifyType(etype, vtype, ctx);
-            mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, vtype.getType().getDescriptor());
+            if (hasField(var)) {
+                if (copy)
+                    arrays.copyArray();
+                mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, vtype.getType().getDescriptor());
+            } else {
+                mv.visitInsn(POP);
+            }
         } else {
             throw new CompileException(String.format("Variable %s not found in context %s.", var, ctx.getText()));
         }
         return etype;
     }
 
-    private DataType visitArrayAssignment(AssignmentStatementContext ctx) {
-        ArrayType type = loadArray(ctx.qualifiedName().ID().getText());
-        computeArrayIndex(type, ctx.qualifiedName());
-        verifyType(visitExpression(ctx.expression()), PrimitiveType.INTEGER, ctx);
-        mv.visitInsn(IASTORE);
-        return PrimitiveType.INTEGER;
-    }
-
-    private void checkArrayType(DataType type) {
-        if (!(type instanceof ArrayType))
-            throw new CompileException("Not an array type: " + type);
-    }
-
-    private void computeArrayIndex(ArrayType type, QualifiedNameContext ctx) {
-        if (ctx.expression().size() != type.getDimensions().length) {
-            throw new CompileException(String.format("Arity exception. Got %d. Expected %d.",
-                    ctx.expression().size(), type.getDimensions().length));
-        }
-        String errorMessage = String.format("Index out of bound in access %s", ctx.getText());
-        for (int i = 0; i < ctx.expression().size(); i++) {
-            Label badLabel = new Label();
-            Label okLabel = new Label();
-            visitExpression(ctx.expression().get(i));
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(type.getDimension(i).getFrom());
-            mv.visitJumpInsn(IF_ICMPLT, badLabel);
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(type.getDimension(i).getTo());
-            mv.visitJumpInsn(IF_ICMPGT, badLabel);
-            mv.visitJumpInsn(GOTO, okLabel);
-            mv.visitLabel(badLabel);
-            mv.visitTypeInsn(NEW, Type.getInternalName(RuntimeException.class));
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(errorMessage);
-            mv.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(RuntimeException.class), "<init>",
-                    Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(String.class)), false);
-            mv.visitInsn(ATHROW);
-            mv.visitLabel(okLabel);
-            mv.visitLdcInsn(type.getDimension(i).getFrom());
-            mv.visitInsn(ISUB);
-        }
-        for (int i = ctx.expression().size() - 2; i >= 0; i--) {
-            mv.visitLdcInsn(type.getDimension(i).getLength());
-            mv.visitInsn(IMUL);
-            mv.visitInsn(IADD);
+    void visitBlock(BlockContext ctx) {
+        for (StatementContext sctx : ctx.statement()) {
+            if (isReachable()) {
+                visitStatement(sctx);
+            } else {
+                discardStatement(sctx);
+            }
         }
     }
 
-    private void visitBlock(BlockContext ctx) {
-        for (StatementContext sctx : ctx.statement())
-            visitStatement(sctx);
-    }
-
+    /**
+     * @return type of the value, {@code null} for the intrinsics that are statements
+     */
     private DataType visitFunctionCall(FunctionCallContext ctx) {
         String name = ctx.ID().getText();
+        Intrinsic intrinsic = Intrinsic.of(name);
+        if (intrinsic != null && !scope.isFunctionNameDeclared(name))
+            return arrays.visitIntrinsic(intrinsic, ctx);
         int i = 0;
         DataType[] argumentType = new DataType[ctx.expression().size()];
         for (ExpressionContext ectx : ctx.expression())
             argumentType[i++] = visitExpression(ectx);
         if (!scope.isFunctionDeclared(name, argumentType))
             throw new CompileException(String.format("No such method %s available in call %s", name, ctx.getText()));
+        loops.checkParallelCall(name, ctx);
         DataType returnType = scope.getFunctionReturnType(name, argumentType);
-        mv.visitMethodInsn(INVOKESTATIC, scope.getClassName(), name, Utils.getFunctionDescriptor(returnType, argumentType), false);
+        budget.save();
+        mv.visitMethodInsn(INVOKESTATIC, scope.getFunctionOwner(name, argumentType), name,
+                Utils.getFunctionDescriptor(returnType, argumentType), false);
+        budget.restore();
         return returnType;
     }
 
-    private void visitRead(ReadStatementContext ctx) {
-        for (QualifiedNameContext nctx : ctx.qualifiedName()) {
-            if (nctx.expression().isEmpty()) {
-                readVariable(nctx, ctx);
-            } else {
-                readArrayElement(nctx);
-            }
-        }
-    }
-
-    private void readValue(PrimitiveType type) {
-        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(System.class), "console", Type.getMethodDescriptor(Type.getType(Console.class)), false);
-        mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Console.class), "readLine", Type.getMethodDescriptor(Type.getType(String.class)), false);
-        switch (type) {
-            case BOOLEAN:
-                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Boolean.class), "parseBoolean", Type.getMethodDescriptor(Type.BOOLEAN_TYPE, Type.getType(String.class)), false);
-                break;
-            case INTEGER:
-                mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Integer.class), "parseInt", Type.getMethodDescriptor(Type.INT_TYPE, Type.getType(String.class)), false);
-                break;
-        }
-    }
-
-    private void readArrayElement(QualifiedNameContext nctx) {
-        String var = nctx.ID().getText();
-        ArrayType type = loadArray(var);
-        computeArrayIndex(type, nctx);
-        readValue(type.getDataType());
-        mv.visitInsn(IASTORE);
-    }
-
-    private void readVariable(QualifiedNameContext nctx, ReadStatementContext ctx) {
-        String var = nctx.ID().getText();
-        if (scope.isLocalVariable(var)) {
-            verifyPrimitiveType(scope.getLocalVariableType(var), ctx);
-            readValue((PrimitiveType)scope.getLocalVariableType(var));
-            mv.visitVarInsn(ISTORE, scope.getLocalVariableIndex(var));
-        } else if (scope.isGlobalVariable(var)) {
-            DataType type = scope.getGlobalVariableType(var);
-            verifyPrimitiveType(type, ctx);
-            readValue((PrimitiveType)scope.getGlobalVariableType(var));
-            mv.visitFieldInsn(PUTSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
-        } else {
-            throw new CompileException(String.format("Variable %s not found in context %s", var, ctx));
-        }
-    }
-
-    private void visitWrite(WriteStatementContext ctx) {
-       for (ExpressionContext ectx : ctx.expression()) {
-           mv.visitFieldInsn(GETSTATIC, Type.getInternalName(System.class), "out", Type.getDescriptor(PrintStream.class));
-           DataType type = visitExpression(ectx);
-           verifyPrimitiveType(type, ctx);
-           mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(PrintStream.class), "println", Type.getMethodDescriptor(Type.VOID_TYPE, type.getType()), false);
-       }
-    }
-
-    private void visitBreak(BreakStatementContext ctx) {
-        if (!scope.inLoop())
-            throw new CompileException("Break is out of loop " + ctx.getText());
-        mv.visitJumpInsn(GOTO, scope.getBreakLabel());
-    }
-
-    private void visitContinue(ContinueStatementContext ctx) {
-        if (!scope.inLoop())
-            throw new CompileException("Continue is out of loop " + ctx.getText());
-        mv.visitJumpInsn(GOTO, scope.getContinueLabel());
-    }
-
-    private DataType visitExpression(ExpressionContext ctx) {
+    DataType visitExpression(ExpressionContext ctx) {
         AppTermContext actx = ctx.appTerm(0);
         DataType type = visitAppTerm(actx);
         if (!ctx.APP_OP().isEmpty()) {
@@ -591,7 +991,10 @@ public class TranslateVisitor {
         if (ctx.expression() != null) {
             return visitExpression(ctx.expression());
         } else if (ctx.functionCall() != null) {
-            return visitFunctionCall(ctx.functionCall());
+            DataType type = visitFunctionCall(ctx.functionCall());
+            if (type == null)
+                throw new CompileException("No value of call " + ctx.getText());
+            return type;
         } else if (ctx.qualifiedName() != null) {
             return visitQualifiedName(ctx.qualifiedName());
         } else if (ctx.NUMBER() != null) {
@@ -622,7 +1025,7 @@ public class TranslateVisitor {
         return PrimitiveType.BOOLEAN;
     }
 
-    private DataType visitQualifiedName(QualifiedNameContext ctx) {
+    DataType visitQualifiedName(QualifiedNameContext ctx) {
         String var = ctx.ID().getText();
         DataType type;
         if (scope.isLocalVariable(var)) {
@@ -630,27 +1033,22 @@ public class TranslateVisitor {
             mv.visitVarInsn(type.isPrimitive() ? ILOAD : ALOAD, scope.getLocalVariableIndex(var));
         } else if (scope.isGlobalVariable(var)) {
             type = scope.getGlobalVariableType(var);
-            mv.visitFieldInsn(GETSTATIC, scope.getClassName(), var, type.getType().getDescriptor());
+            arrays.loadGlobal(var, type);
         } else {
             throw new CompileException(String.format("Variable %s not found in context %s.", var, ctx.getText()));
         }
-        if (!ctx.expression().isEmpty()) {
-            checkArrayType(type);
-            ArrayType arrType = (ArrayType)type;
-            computeArrayIndex(arrType, ctx);
-            mv.visitInsn(IALOAD);
-            return arrType.getDataType();
-        }
+        if (!ctx.expression().isEmpty())
+            return arrays.loadElement(type, ctx);
         return type;
     }
 
-    private void verifyType(@NotNull DataType gotten, @NotNull DataType expected, ParseTree ctx) {
+    void verifyType(@NotNull DataType gotten, @NotNull DataType expected, ParseTree ctx) {
         if (!expected.equals(gotten))
             throw new CompileException(String.format("Type mismatch in %s. Expected %s. Got %s.", ctx.getText(),
                     expected.toString(), gotten.toString()));
     }
 
-    private void verifyPrimitiveType(@NotNull DataType gotten, ParseTree ctx) {
+    void verifyPrimitiveType(@NotNull DataType gotten, ParseTree ctx) {
         if (!gotten.isPrimitive())
             throw new CompileException(String.format("Type mismatch in %s. Expected primitive type. Got %s.",
                     ctx.getText(), gotten.toString()));
@@ -4,6 +4,16 @@ package compiler.translator;
  * @author Arkady Rost
  */
 public class TranslatedClassLoader extends ClassLoader {
+    public TranslatedClassLoader() {
+    }
+
+    /**
+     * @param parent loader of the classes the translated ones call, e.g. of used units
+     */
+    public TranslatedClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
     public final Class<?> defineClass(String name, byte[] b) {
         return defineClass(name, b, 0, b.length);
     }
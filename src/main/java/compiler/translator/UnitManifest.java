@@ -0,0 +1,209 @@
+package compiler.translator;
+
+import compiler.translator.type.ArrayType;
+import compiler.translator.type.DataType;
+import compiler.translator.type.PrimitiveType;
+import compiler.translator.type.Range;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signatures of the functions of a compiled unit, written next to the class of the unit as
+ * {@code <Class>.unit}. Programs using the unit are checked and translated from the manifest
+ * alone, the source of the unit isn't parsed again. The manifest is a text file:
+ *
+ * <pre>
+ * unit Mathlib
+ * padding 0
+ * uses Bits
+ * function gcd integer integer integer
+ * function total integer integer[1..3,0..4]
+ * </pre>
+ *
+ * A function line has the name, the result type and the parameter types. Multi-dimensional
+ * arrays are laid out by the {@link TranslateOptions#getMaxArrayPadding() padding} the unit is
+ * compiled with, programs using the unit have to be compiled with the same one. The units the
+ * unit uses are needed on the class path, but their functions aren't visible through it.
+ *
+ * @author Arkady Rost
+ */
+public class UnitManifest {
+    public static final String EXTENSION = ".unit";
+
+    private final String className;
+    private final int arrayPadding;
+    private final List<String> uses = new ArrayList<>();
+    private final List<Declaration> functions = new ArrayList<>();
+    private File directory;
+
+    public UnitManifest(String className, int arrayPadding) {
+        this.className = className;
+        this.arrayPadding = arrayPadding;
+    }
+
+    /**
+     * Reads the manifest of the unit from the first directory of the
+     * {@link TranslateOptions#getUnitPath() unit path} that has one.
+     *
+     * @param className class of the unit, see {@link Utils#getClassName}
+     * @throws CompileException if there's none, it can't be read or the unit lays out arrays
+     *                          differently than {@code options} do
+     */
+    public static UnitManifest find(String className, TranslateOptions options) {
+        List<File> path = options.getUnitPath();
+        for (File directory : path) {
+            File file = new File(directory, className + EXTENSION);
+            if (!file.isFile())
+                continue;
+            UnitManifest manifest;
+            try (InputStream in = new FileInputStream(file)) {
+                manifest = read(in);
+            } catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new CompileException("Can't read unit manifest " + file + ": " + e.getMessage(), e);
+            }
+            if (!manifest.className.equals(className))
+                throw new CompileException(String.format("Manifest %s is of unit %s", file, manifest.className));
+            if (manifest.arrayPadding != options.getMaxArrayPadding())
+                throw new CompileException(String.format("Unit %s is compiled with array padding %d%%, expected %d%%",
+                        className, manifest.arrayPadding, options.getMaxArrayPadding()));
+            manifest.directory = directory;
+            return manifest;
+        }
+        throw new CompileException(String.format("No unit %s, expected %s%s in %s", className, className, EXTENSION, path));
+    }
+
+    static UnitManifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String[] unit = fields(reader.readLine(), "unit", 2);
+        String[] padding = fields(reader.readLine(), "padding", 2);
+        UnitManifest manifest = new UnitManifest(unit[1], Integer.parseInt(padding[1]));
+        TranslateOptions layout = new TranslateOptions();
+        layout.setMaxArrayPadding(manifest.arrayPadding);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("uses ")) {
+                manifest.addUse(fields(line, "uses", 2)[1]);
+                continue;
+            }
+            String[] function = fields(line, "function", 3);
+            DataType[] parameterTypes = new DataType[function.length - 3];
+            for (int i = 0; i < parameterTypes.length; i++)
+                parameterTypes[i] = parseType(function[i + 3], layout);
+            manifest.addFunction(function[1], parseType(function[2], layout), parameterTypes);
+        }
+        return manifest;
+    }
+
+    private static String[] fields(String line, String keyword, int min) throws IOException {
+        String[] fields = line == null ? new String[0] : line.split(" ");
+        if (fields.length < min || !fields[0].equals(keyword))
+            throw new IOException("Expected " + keyword + " line, got " + line);
+        return fields;
+    }
+
+    private static DataType parseType(String text, TranslateOptions layout) {
+        int bracket = text.indexOf('[');
+        PrimitiveType type = PrimitiveType.valueOf((bracket < 0 ? text : text.substring(0, bracket)).toUpperCase());
+        if (bracket < 0)
+            return type;
+        String[] ranges = text.substring(bracket + 1, text.length() - 1).split(",");
+        Range[] dimensions = new Range[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            String[] bounds = ranges[i].split("\\.\\.");
+            dimensions[i] = new Range(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]));
+        }
+        return layout.getArrayType(type, dimensions);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write("unit " + className + "\n");
+        writer.write("padding " + arrayPadding + "\n");
+        for (String unit : uses)
+            writer.write("uses " + unit + "\n");
+        for (Declaration function : functions) {
+            StringBuilder line = new StringBuilder("function ").append(function.name).append(' ');
+            line.append(typeText(function.type));
+            for (DataType parameterType : function.parameterTypes)
+                line.append(' ').append(typeText(parameterType));
+            writer.write(line.append('\n').toString());
+        }
+        writer.flush();
+    }
+
+    private static String typeText(DataType type) {
+        if (type.isPrimitive())
+            return ((PrimitiveType) type).name().toLowerCase();
+        ArrayType arrayType = (ArrayType) type;
+        StringBuilder text = new StringBuilder(arrayType.getDataType().name().toLowerCase()).append('[');
+        for (Range range : arrayType.getDimensions())
+            text.append(range.getFrom()).append("..").append(range.getTo()).append(',');
+        text.setCharAt(text.length() - 1, ']');
+        return text.toString();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getArrayPadding() {
+        return arrayPadding;
+    }
+
+    /**
+     * @return class names of the units the unit uses
+     */
+    public List<String> getUses() {
+        return Collections.unmodifiableList(uses);
+    }
+
+    public void addUse(String unit) {
+        uses.add(unit);
+    }
+
+    public List<Declaration> getFunctions() {
+        return Collections.unmodifiableList(functions);
+    }
+
+    public void addFunction(String name, DataType type, DataType[] parameterTypes) {
+        functions.add(new Declaration(name, type, parameterTypes));
+    }
+
+    /**
+     * @return directory of the manifest and the class of the unit, {@code null} if the manifest
+     * isn't {@link #find found} but built by the translator
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public static class Declaration {
+        private final String name;
+        private final DataType type;
+        private final DataType[] parameterTypes;
+
+        Declaration(String name, DataType type, DataType[] parameterTypes) {
+            this.name = name;
+            this.type = type;
+            this.parameterTypes = parameterTypes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataType getType() {
+            return type;
+        }
+
+        public DataType[] getParameterTypes() {
+            return parameterTypes.clone();
+        }
+    }
+}
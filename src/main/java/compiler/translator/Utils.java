@@ -14,6 +14,13 @@ public class Utils {
         return Type.getMethodDescriptor(returnDataType.getType(), argumentType);
     }
 
+    /**
+     * @return name of the class a program or a unit is translated to
+     */
+    public static String getClassName(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
     public static boolean isBooleanOperator(String op) {
         return "or".equals(op) || "and".equals(op);
     }
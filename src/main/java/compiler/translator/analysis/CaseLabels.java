@@ -0,0 +1,93 @@
+package compiler.translator.analysis;
+
+import compiler.parser.PascalParser.*;
+import compiler.translator.CompileException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Labels of a case statement sorted by value. Every label is a range, a single value is a range
+ * of one. Labels can't overlap, so at most one branch matches a value.
+ *
+ * @author Arkady Rost
+ */
+public class CaseLabels {
+    private final int[] lows;
+    private final int[] highs;
+    private final int[] branches;
+
+    private CaseLabels(int[] lows, int[] highs, int[] branches) {
+        this.lows = lows;
+        this.highs = highs;
+        this.branches = branches;
+    }
+
+    public static CaseLabels of(CaseStatementContext ctx) {
+        List<int[]> labels = new ArrayList<>();
+        for (int branch = 0; branch < ctx.caseBranch().size(); branch++) {
+            for (CaseLabelContext lctx : ctx.caseBranch(branch).caseLabel()) {
+                int low = value(lctx.caseConstant(0));
+                int high = lctx.caseConstant().size() == 1 ? low : value(lctx.caseConstant(1));
+                if (high < low)
+                    throw new CompileException(String.format("Empty range %s in %s", lctx.getText(), ctx.getText()));
+                labels.add(new int[]{low, high, branch});
+            }
+        }
+        Collections.sort(labels, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        int[] lows = new int[labels.size()];
+        int[] highs = new int[labels.size()];
+        int[] branches = new int[labels.size()];
+        for (int i = 0; i < labels.size(); i++) {
+            lows[i] = labels.get(i)[0];
+            highs[i] = labels.get(i)[1];
+            branches[i] = labels.get(i)[2];
+            if (i > 0 && lows[i] <= highs[i - 1])
+                throw new CompileException(String.format("Duplicate case label %d in %s", lows[i], ctx.getText()));
+        }
+        return new CaseLabels(lows, highs, branches);
+    }
+
+    private static int value(CaseConstantContext ctx) {
+        int value = Integer.parseInt(ctx.NUMBER().getText());
+        return ctx.SIGN() != null && "-".equals(ctx.SIGN().getText()) ? -value : value;
+    }
+
+    public int size() {
+        return lows.length;
+    }
+
+    public int getLow(int i) {
+        return lows[i];
+    }
+
+    public int getHigh(int i) {
+        return highs[i];
+    }
+
+    /**
+     * @return index of the branch the label belongs to
+     */
+    public int getBranch(int i) {
+        return branches[i];
+    }
+
+    public int[] getLows() {
+        return lows.clone();
+    }
+
+    public int[] getHighs() {
+        return highs.clone();
+    }
+
+    public int[] getBranches() {
+        return branches.clone();
+    }
+}
@@ -0,0 +1,135 @@
+package compiler.translator.analysis;
+
+import compiler.parser.PascalParser.*;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Evaluates expressions built only from literals with the same semantics as the generated code.
+ *
+ * @author Arkady Rost
+ */
+public class ConstantFolder {
+    private ConstantFolder() {
+    }
+
+    /**
+     * @return value of a constant boolean expression or {@code null}
+     */
+    public static Boolean booleanValue(ExpressionContext ctx) {
+        Object value = evaluate(ctx);
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    /**
+     * @return value of a constant integer operand of a comparison or {@code null}
+     */
+    public static Integer integerValue(AppTermContext ctx) {
+        Object value = evaluate(ctx);
+        return value instanceof Integer ? (Integer) value : null;
+    }
+
+    /**
+     * @return {@link Integer} or {@link Boolean} value of a constant expression or {@code null}
+     */
+    public static Object evaluate(ExpressionContext ctx) {
+        Object value = evaluate(ctx.appTerm(0));
+        int i = 1;
+        for (TerminalNode op : ctx.APP_OP()) {
+            Object right = evaluate(ctx.appTerm(i++));
+            if (value == null || right == null)
+                return null;
+            switch (op.getText()) {
+                case "or":
+                case "and":
+                    if (!(value instanceof Boolean) || !(right instanceof Boolean))
+                        return null;
+                    value = "or".equals(op.getText()) ? (Boolean) value | (Boolean) right : (Boolean) value & (Boolean) right;
+                    break;
+                default:
+                    if (!(value instanceof Integer) || !(right instanceof Integer))
+                        return null;
+                    value = compare(op.getText(), (Integer) value, (Integer) right);
+            }
+        }
+        return value;
+    }
+
+    private static Boolean compare(String op, int a, int b) {
+        switch (op) {
+            case ">=": return a >= b;
+            case "<=": return a <= b;
+            case "<>": return a != b;
+            case "=": return a == b;
+            case ">": return a > b;
+            case "<": return a < b;
+            default: return null;
+        }
+    }
+
+    private static Object evaluate(AppTermContext ctx) {
+        if (ctx.SIGN().isEmpty())
+            return evaluate(ctx.mulTerm(0));
+        int i = 0;
+        int value = 0;
+        if (ctx.mulTerm().size() != ctx.SIGN().size()) {
+            Object first = evaluate(ctx.mulTerm(i++));
+            if (!(first instanceof Integer))
+                return null;
+            value = (Integer) first;
+        }
+        for (TerminalNode op : ctx.SIGN()) {
+            Object next = evaluate(ctx.mulTerm(i++));
+            if (!(next instanceof Integer))
+                return null;
+            value = "+".equals(op.getText()) ? value + (Integer) next : value - (Integer) next;
+        }
+        return value;
+    }
+
+    private static Object evaluate(MulTermContext ctx) {
+        Object value = evaluate(ctx.factor(0));
+        int i = 1;
+        for (TerminalNode op : ctx.MUL_OP()) {
+            Object next = evaluate(ctx.factor(i++));
+            if (!(value instanceof Integer) || !(next instanceof Integer))
+                return null;
+            int a = (Integer) value, b = (Integer) next;
+            switch (op.getText()) {
+                case "*":
+                    value = a * b;
+                    break;
+                case "/":
+                    if (b == 0)
+                        return null;
+                    value = a / b;
+                    break;
+                case "mod":
+                    if (b == 0)
+                        return null;
+                    value = a % b;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return value;
+    }
+
+    private static Object evaluate(FactorContext ctx) {
+        if (ctx.expression() != null) {
+            return evaluate(ctx.expression());
+        } else if (ctx.NUMBER() != null) {
+            try {
+                return Integer.parseInt(ctx.NUMBER().getText());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else if (ctx.bool() != null) {
+            return !"false".equals(ctx.bool().getText());
+        } else if (ctx.notFactor() != null) {
+            Object value = evaluate(ctx.notFactor().factor());
+            return value instanceof Boolean ? !(Boolean) value : null;
+        }
+        return null;
+    }
+}
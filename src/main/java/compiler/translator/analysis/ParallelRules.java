@@ -0,0 +1,49 @@
+package compiler.translator.analysis;
+
+import compiler.translator.CompileException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Rules of the parallel loop bodies, checked by the translator and the interpreter alike so a
+ * program is rejected the same way whichever tier runs it.
+ *
+ * @author Arkady Rost
+ */
+public class ParallelRules {
+    private ParallelRules() {
+    }
+
+    /**
+     * Rejects assigning a variable in a parallel body. Every variable the body sees is declared
+     * outside it, a local would only change the copy of one chunk and a global would race, so
+     * the result would depend on how the iterations are split. Code needing variables of its own
+     * goes to a function called by the body.
+     *
+     * @param result whether the variable is the result of the enclosing function
+     * @param declared whether the variable is a local or a global variable
+     */
+    public static void checkWrite(String var, boolean result, boolean declared, ParseTree ctx) {
+        if (result)
+            throw new CompileException("Function result can't be assigned in parallel loop " + ctx.getText());
+        if (declared)
+            throw new CompileException(String.format("Variable %s is declared outside the parallel loop and can't be assigned in it: %s", var, ctx.getText()));
+    }
+
+    /**
+     * Rejects calling a function assigning globals in a parallel body, the calls would race.
+     */
+    public static void checkCall(ProgramUsage usage, String name, ParseTree ctx) {
+        if (usage.isWritingGlobals(name))
+            throw new CompileException(String.format("Function %s assigns globals and can't be called in parallel loop: %s", name, ctx.getText()));
+    }
+
+    /**
+     * Rejects breaking a parallel loop, its chunks run at once and can't stop the others.
+     *
+     * @param parallel whether the innermost loop is parallel
+     */
+    public static void checkBreak(boolean parallel, ParseTree ctx) {
+        if (parallel)
+            throw new CompileException("Break is not allowed in parallel loop " + ctx.getText());
+    }
+}
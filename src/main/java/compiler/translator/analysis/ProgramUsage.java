@@ -0,0 +1,169 @@
+package compiler.translator.analysis;
+
+import compiler.parser.PascalParser.FunctionDeclarationContext;
+import compiler.parser.PascalParser.ProgramContext;
+
+import java.util.*;
+
+/**
+ * Functions reachable from the main block and globals read by them. Element stores count as
+ * reads of the array.
+ * Overloaded functions are told apart only by name, so they are kept or dropped together.
+ *
+ * @author Arkady Rost
+ */
+public class ProgramUsage {
+    private final Set<String> reachable = new HashSet<>();
+    private final Set<String> readGlobals = new HashSet<>();
+    private final Set<String> recursive = new HashSet<>();
+    private final Set<String> calledInParallel = new HashSet<>();
+    private final Set<String> writingGlobalElements = new HashSet<>();
+    private final Set<String> writingGlobals = new HashSet<>();
+    private final Map<String, Set<String>> declaredCalls = new HashMap<>();
+    private boolean streaming;
+
+    /**
+     * Usage of a program translated one function at a time, every function is {@link #declare}d
+     * before its translation. A function can only call itself and the functions declared before
+     * it, so recursion and writes to global elements are known by then. Reachability, parallel
+     * calls and reads of globals depend on the code that follows, so every function is kept,
+     * may run in parallel and every global is read.
+     */
+    public static ProgramUsage streaming() {
+        ProgramUsage result = new ProgramUsage();
+        result.streaming = true;
+        return result;
+    }
+
+    public static ProgramUsage analyze(ProgramContext ctx) {
+        Map<String, List<Usage>> functions = new HashMap<>();
+        for (FunctionDeclarationContext fctx : ctx.body().functionDeclarations().functionDeclaration()) {
+            String name = fctx.ID().getText();
+            if (!functions.containsKey(name))
+                functions.put(name, new ArrayList<Usage>());
+            functions.get(name).add(Usage.of(fctx));
+        }
+
+        ProgramUsage result = new ProgramUsage();
+        Usage main = Usage.of(ctx.body().block());
+        Set<String> parallelCalls = new HashSet<>(main.getParallelCalls());
+        result.reachable.addAll(closure(main.getCalls(), functions));
+        result.readGlobals.addAll(main.getReadGlobals());
+        for (String name : result.reachable) {
+            for (Usage usage : functions.get(name)) {
+                result.readGlobals.addAll(usage.getReadGlobals());
+                parallelCalls.addAll(usage.getParallelCalls());
+            }
+        }
+        result.calledInParallel.addAll(closure(parallelCalls, functions));
+        for (Map.Entry<String, List<Usage>> function : functions.entrySet()) {
+            Set<String> calls = new HashSet<>();
+            for (Usage usage : function.getValue())
+                calls.addAll(usage.getCalls());
+            Set<String> callees = closure(calls, functions);
+            if (callees.contains(function.getKey()))
+                result.recursive.add(function.getKey());
+            callees.add(function.getKey());
+            for (String callee : callees) {
+                for (Usage usage : functions.get(callee)) {
+                    if (!usage.getWrittenGlobalElements().isEmpty())
+                        result.writingGlobalElements.add(function.getKey());
+                    if (!usage.getWrittenGlobalElements().isEmpty() || !usage.getWrittenGlobals().isEmpty())
+                        result.writingGlobals.add(function.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return declared functions called directly or indirectly by the calls
+     */
+    private static Set<String> closure(Set<String> calls, Map<String, List<Usage>> functions) {
+        Set<String> result = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(calls);
+        while (!queue.isEmpty()) {
+            String call = queue.remove();
+            if (!functions.containsKey(call) || !result.add(call))
+                continue;
+            for (Usage usage : functions.get(call))
+                queue.addAll(usage.getCalls());
+        }
+        return result;
+    }
+
+    /**
+     * Adds a function of a {@link #streaming()} program, ignored by the usage of a whole program.
+     */
+    public void declare(String name, Usage usage) {
+        if (!streaming)
+            return;
+        boolean overload = declaredCalls.containsKey(name);
+        if (!overload)
+            declaredCalls.put(name, new HashSet<String>());
+        declaredCalls.get(name).addAll(usage.getCalls());
+
+        // the flags of the callees already cover their own callees
+        if (!usage.getWrittenGlobalElements().isEmpty())
+            writingGlobalElements.add(name);
+        if (!usage.getWrittenGlobalElements().isEmpty() || !usage.getWrittenGlobals().isEmpty())
+            writingGlobals.add(name);
+        for (String call : usage.getCalls()) {
+            if (writingGlobalElements.contains(call))
+                writingGlobalElements.add(name);
+            if (writingGlobals.contains(call))
+                writingGlobals.add(name);
+        }
+        // a callee can only call back through an overload declared before
+        if (usage.getCalls().contains(name)) {
+            recursive.add(name);
+        } else if (overload) {
+            Set<String> callees = new HashSet<>();
+            Deque<String> queue = new ArrayDeque<>(usage.getCalls());
+            while (!queue.isEmpty()) {
+                String call = queue.remove();
+                if (declaredCalls.containsKey(call) && callees.add(call))
+                    queue.addAll(declaredCalls.get(call));
+            }
+            if (callees.contains(name))
+                recursive.add(name);
+        }
+    }
+
+    public boolean isFunctionReachable(String name) {
+        return streaming || reachable.contains(name);
+    }
+
+    /**
+     * @return whether the function can be called again before it returns
+     */
+    public boolean isRecursive(String name) {
+        return recursive.contains(name);
+    }
+
+    /**
+     * @return whether the function can run on several threads at once
+     */
+    public boolean isCalledInParallel(String name) {
+        return streaming || calledInParallel.contains(name);
+    }
+
+    /**
+     * @return whether the function or a function it calls assigns elements of global arrays
+     */
+    public boolean isWritingGlobalElements(String name) {
+        return writingGlobalElements.contains(name);
+    }
+
+    /**
+     * @return whether the function or a function it calls assigns globals or elements of global
+     * arrays, which a parallel loop can't allow
+     */
+    public boolean isWritingGlobals(String name) {
+        return writingGlobals.contains(name);
+    }
+
+    public boolean isGlobalRead(String name) {
+        return streaming || readGlobals.contains(name);
+    }
+}
@@ -0,0 +1,275 @@
+package compiler.translator.analysis;
+
+import compiler.parser.PascalBaseVisitor;
+import compiler.parser.PascalParser;
+import compiler.parser.PascalParser.*;
+import compiler.translator.Intrinsic;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Variables read and functions called by one function or the main block. Names are resolved
+ * like in the translator, locals shadow globals. The analysis is flow insensitive: a variable
+ * is read if its value is used anywhere in the function.
+ *
+ * @author Arkady Rost
+ */
+public class Usage {
+    private final Set<String> locals = new HashSet<>();
+    private final Set<String> arrayLocals = new HashSet<>();
+    private Set<String> arrayGlobals;
+    private final Set<String> readLocals = new HashSet<>();
+    private final Set<String> escapingLocals = new HashSet<>();
+    private final Set<String> writtenLocalElements = new HashSet<>();
+    private final Set<String> writtenGlobalElements = new HashSet<>();
+    private final Set<String> writtenGlobals = new HashSet<>();
+    private String result;
+    private final Set<String> readGlobals = new HashSet<>();
+    private final Set<String> calls = new HashSet<>();
+    private final Set<String> parallelCalls = new HashSet<>();
+
+    public static Usage of(FunctionDeclarationContext ctx) {
+        Usage usage = new Usage();
+        usage.result = ctx.ID().getText();
+        usage.declareGlobals(ctx);
+        for (VarDeclarationContext vctx : ctx.varDeclaration())
+            usage.declare(vctx);
+        for (VarDeclarationContext vctx : ctx.varDeclarations().varDeclaration())
+            usage.declare(vctx);
+        ctx.block().accept(usage.new Collector());
+        return usage;
+    }
+
+    public static Usage of(BlockContext main) {
+        Usage usage = new Usage();
+        usage.declareGlobals(main);
+        main.accept(usage.new Collector());
+        return usage;
+    }
+
+    /**
+     * Global arrays are found in the program the function belongs to. A function parsed on its
+     * own, see {@link ProgramUsage#streaming()}, takes every global for an array.
+     */
+    private void declareGlobals(ParserRuleContext ctx) {
+        while (ctx != null && !(ctx instanceof BodyContext))
+            ctx = ctx.getParent();
+        if (ctx == null)
+            return;
+        arrayGlobals = new HashSet<>();
+        for (VarDeclarationContext vctx : ((BodyContext) ctx).varDeclarations().varDeclaration()) {
+            if (!vctx.type().range().isEmpty()) {
+                for (TerminalNode id : vctx.ID())
+                    arrayGlobals.add(id.getText());
+            }
+        }
+    }
+
+    private void declare(VarDeclarationContext ctx) {
+        for (TerminalNode id : ctx.ID()) {
+            locals.add(id.getText());
+            if (!ctx.type().range().isEmpty())
+                arrayLocals.add(id.getText());
+        }
+    }
+
+    /**
+     * @return whether the value of a local or parameter is ever used
+     */
+    public boolean isLocalRead(String name) {
+        return readLocals.contains(name);
+    }
+
+    /**
+     * @return whether a local is used as a whole, i.e. without an index. Only then the reference
+     * to a local array can be returned, stored or passed to a function.
+     */
+    public boolean isLocalEscaping(String name) {
+        return escapingLocals.contains(name);
+    }
+
+    /**
+     * @return whether an element of a local array is ever assigned
+     */
+    public boolean isLocalElementWritten(String name) {
+        return writtenLocalElements.contains(name);
+    }
+
+    /**
+     * @return global arrays with elements assigned
+     */
+    public Set<String> getWrittenGlobalElements() {
+        return Collections.unmodifiableSet(writtenGlobalElements);
+    }
+
+    /**
+     * @return globals assigned as a whole, including global arrays
+     */
+    public Set<String> getWrittenGlobals() {
+        return Collections.unmodifiableSet(writtenGlobals);
+    }
+
+    public Set<String> getReadGlobals() {
+        return Collections.unmodifiableSet(readGlobals);
+    }
+
+    public Set<String> getCalls() {
+        return Collections.unmodifiableSet(calls);
+    }
+
+    /**
+     * @return functions called from the bodies of parallel loops
+     */
+    public Set<String> getParallelCalls() {
+        return Collections.unmodifiableSet(parallelCalls);
+    }
+
+    private void read(String name) {
+        if (locals.contains(name)) {
+            readLocals.add(name);
+        } else {
+            readGlobals.add(name);
+        }
+    }
+
+    private void escape(String name) {
+        if (locals.contains(name))
+            escapingLocals.add(name);
+    }
+
+    private class Collector extends PascalBaseVisitor<Void> {
+        private int parallelDepth;
+
+        @Override
+        public Void visitAssignmentStatement(AssignmentStatementContext ctx) {
+            assign(ctx.qualifiedName());
+            return visit(ctx.expression());
+        }
+
+        @Override
+        public Void visitReadStatement(ReadStatementContext ctx) {
+            for (ReadOperandContext octx : ctx.readOperand()) {
+                if (octx.arraySlice() != null) {
+                    visitArraySlice(octx.arraySlice());
+                    writeElements(octx.arraySlice().ID().getText());
+                } else if (octx.qualifiedName().expression().isEmpty() && isArray(octx.qualifiedName().ID().getText())) {
+                    // a whole array is read into, the reference isn't stored
+                    read(octx.qualifiedName().ID().getText());
+                    writeElements(octx.qualifiedName().ID().getText());
+                } else {
+                    assign(octx.qualifiedName());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitArraySlice(ArraySliceContext ctx) {
+            read(ctx.ID().getText());
+            return visitChildren(ctx);
+        }
+
+        @Override
+        public Void visitIfStatement(IfStatementContext ctx) {
+            Boolean condition = ConstantFolder.booleanValue(ctx.expression());
+            if (condition == null)
+                return visitChildren(ctx);
+            // the translator drops the other branch
+            if (condition)
+                return visit(ctx.statement());
+            return ctx.elsePart() == null ? null : visit(ctx.elsePart());
+        }
+
+        @Override
+        public Void visitWhileStatement(WhileStatementContext ctx) {
+            if (Boolean.FALSE.equals(ConstantFolder.booleanValue(ctx.expression())))
+                return null;
+            return visitChildren(ctx);
+        }
+
+        @Override
+        public Void visitForStatement(ForStatementContext ctx) {
+            // the counter of a parallel loop is a local of its body, even if it names a global
+            if (ctx.parallel == null) {
+                visit(ctx.assignmentStatement());
+            } else {
+                visit(ctx.assignmentStatement().expression());
+            }
+            // the counter is compared and incremented
+            read(ctx.assignmentStatement().qualifiedName().ID().getText());
+            visit(ctx.expression());
+            if (ctx.parallel == null)
+                return visit(ctx.statement());
+            // every local mentioned in a parallel body is passed to it
+            readIdentifiers(ctx.statement());
+            parallelDepth++;
+            visit(ctx.statement());
+            parallelDepth--;
+            return null;
+        }
+
+        @Override
+        public Void visitQualifiedName(QualifiedNameContext ctx) {
+            read(ctx.ID().getText());
+            if (ctx.expression().isEmpty())
+                escape(ctx.ID().getText());
+            return visitChildren(ctx);
+        }
+
+        @Override
+        public Void visitFunctionCall(FunctionCallContext ctx) {
+            calls.add(ctx.ID().getText());
+            if (parallelDepth > 0)
+                parallelCalls.add(ctx.ID().getText());
+            // fill, copy and sort change an array in place, a function of the same name
+            // only costs a copy of the argument
+            Intrinsic intrinsic = Intrinsic.of(ctx.ID().getText());
+            int changed = intrinsic == null ? -1 : intrinsic.getChangedArgument(ctx.expression().size());
+            if (changed >= 0 && changed < ctx.expression().size() && isArray(ctx.expression(changed).getText()))
+                writeElements(ctx.expression(changed).getText());
+            return visitChildren(ctx);
+        }
+
+        private void assign(QualifiedNameContext ctx) {
+            // an element store loads the array itself
+            if (!ctx.expression().isEmpty()) {
+                visitQualifiedName(ctx);
+                writeElements(ctx.ID().getText());
+            } else {
+                escape(ctx.ID().getText());
+                String name = ctx.ID().getText();
+                if (!locals.contains(name) && !name.equals(result))
+                    writtenGlobals.add(name);
+            }
+        }
+
+        private void writeElements(String name) {
+            if (locals.contains(name)) {
+                writtenLocalElements.add(name);
+            } else {
+                writtenGlobalElements.add(name);
+            }
+        }
+
+        private boolean isArray(String name) {
+            if (locals.contains(name))
+                return arrayLocals.contains(name);
+            return arrayGlobals == null || arrayGlobals.contains(name);
+        }
+
+        private void readIdentifiers(ParseTree ctx) {
+            if (ctx instanceof TerminalNode) {
+                if (((TerminalNode) ctx).getSymbol().getType() == PascalParser.ID && locals.contains(ctx.getText()))
+                    readLocals.add(ctx.getText());
+                return;
+            }
+            for (int i = 0; i < ctx.getChildCount(); i++)
+                readIdentifiers(ctx.getChild(i));
+        }
+    }
+}
@@ -8,10 +8,12 @@ import org.objectweb.asm.Label;
 class LoopDescriptor {
     private final Label continueLabel;
     private final Label breakLabel;
+    private final boolean parallel;
 
-    public LoopDescriptor(Label continueLabel, Label breakLabel) {
+    public LoopDescriptor(Label continueLabel, Label breakLabel, boolean parallel) {
         this.continueLabel = continueLabel;
         this.breakLabel = breakLabel;
+        this.parallel = parallel;
     }
 
     public Label getBreakLabel() {
@@ -21,4 +23,8 @@ class LoopDescriptor {
     public Label getContinueLabel() {
         return continueLabel;
     }
+
+    public boolean isParallel() {
+        return parallel;
+    }
 }
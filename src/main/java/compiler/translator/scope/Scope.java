@@ -1,9 +1,23 @@
 package compiler.translator.scope;
 
+import compiler.translator.UnitManifest;
+
+import java.util.Collection;
+
 /**
  * @author Arkady Rost
  */
 public interface Scope {
     String getClassName();
     byte[] getByteCode();
+
+    /**
+     * @return units whose classes the translated class needs at run time
+     */
+    Collection<UnitManifest> getUnits();
+
+    /**
+     * @return signatures of the functions of a translated unit, {@code null} for a program
+     */
+    UnitManifest getManifest();
 }
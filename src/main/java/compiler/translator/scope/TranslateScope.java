@@ -1,12 +1,10 @@
 package compiler.translator.scope;
 
+import compiler.translator.UnitManifest;
 import compiler.translator.type.DataType;
 import org.objectweb.asm.Label;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Stack;
+import java.util.*;
 
 /**
  * @author Arkady Rost
@@ -18,7 +16,12 @@ public class TranslateScope implements Scope {
     private byte[] byteCode;
     private Map<String, DataType> global = new HashMap<>();
     private Map<FunctionSignature, DataType> functions = new HashMap<>();
+    private Set<String> functionNames = new HashSet<>();
+    private Map<FunctionSignature, String> functionOwners = new HashMap<>();
+    private Map<String, UnitManifest> units = new LinkedHashMap<>();
+    private UnitManifest manifest;
     private Map<String, LocalVariableDescriptor> local = new HashMap<>();
+    private int localSlots;
     private Stack<LoopDescriptor> loop = new Stack<>();
 
     public String getClassName() {
@@ -55,12 +58,17 @@ public class TranslateScope implements Scope {
 
     public void refreshLocalVariables() {
         local.clear();
+        localSlots = 0;
     }
 
     public boolean isLocalVariable(String name) {
         return local.containsKey(name);
     }
 
+    public Map<String, LocalVariableDescriptor> getLocalVariables() {
+        return Collections.unmodifiableMap(local);
+    }
+
     public int getLocalVariableIndex(String name) {
         return local.get(name).getIndex();
     }
@@ -70,20 +78,90 @@ public class TranslateScope implements Scope {
     }
 
     public int addLocalVariable(String name, DataType type) {
-        local.put(name, new LocalVariableDescriptor(local.size(), type));
-        return local.size() - 1;
+        local.put(name, new LocalVariableDescriptor(localSlots, type));
+        return localSlots++;
+    }
+
+    /**
+     * Reserves a local slot that isn't visible by name, e.g. for compiler generated temporaries.
+     */
+    public int reserveLocalSlot() {
+        return localSlots++;
     }
 
     public boolean isFunctionDeclared(String name, DataType[] argumentType) {
         return functions.containsKey(new FunctionSignature(name, argumentType));
     }
 
+    /**
+     * @return whether a function of the name is declared, whatever its parameters
+     */
+    public boolean isFunctionNameDeclared(String name) {
+        return functionNames.contains(name);
+    }
+
     public DataType getFunctionReturnType(String name, DataType[] argumentType) {
         return functions.get(new FunctionSignature(name, argumentType));
     }
 
     public void declareFunction(String name, DataType resType, DataType[] argumentType) {
-        functions.put(new FunctionSignature(name, argumentType), resType);
+        declareFunction(name, resType, argumentType, null);
+    }
+
+    /**
+     * Declares a function of another class, e.g. of a used unit. The signature must not be
+     * declared yet, the translator rejects a function of the class with the signature of a unit's.
+     *
+     * @param owner internal name of the class, {@code null} for a function of this class
+     */
+    public void declareFunction(String name, DataType resType, DataType[] argumentType, String owner) {
+        FunctionSignature signature = new FunctionSignature(name, argumentType);
+        functions.put(signature, resType);
+        functionNames.add(name);
+        if (owner != null)
+            functionOwners.put(signature, owner);
+    }
+
+    /**
+     * @return whether the function is declared by this class rather than by a used unit
+     */
+    public boolean isOwnFunctionDeclared(String name, DataType[] argumentType) {
+        FunctionSignature signature = new FunctionSignature(name, argumentType);
+        return functions.containsKey(signature) && !functionOwners.containsKey(signature);
+    }
+
+    /**
+     * @return internal name of the class declaring the function
+     */
+    public String getFunctionOwner(String name, DataType[] argumentType) {
+        String owner = functionOwners.get(new FunctionSignature(name, argumentType));
+        return owner == null ? className : owner;
+    }
+
+    /**
+     * Records a unit whose class the program needs at run time, whether it calls the unit
+     * directly or through another unit.
+     */
+    public void addUnit(UnitManifest unit) {
+        units.put(unit.getClassName(), unit);
+    }
+
+    public boolean isUnitAdded(String className) {
+        return units.containsKey(className);
+    }
+
+    @Override
+    public Collection<UnitManifest> getUnits() {
+        return Collections.unmodifiableCollection(units.values());
+    }
+
+    @Override
+    public UnitManifest getManifest() {
+        return manifest;
+    }
+
+    public void setManifest(UnitManifest manifest) {
+        this.manifest = manifest;
     }
 
     public String getMethodName() {
@@ -115,8 +193,19 @@ public class TranslateScope implements Scope {
         return loop.peek().getBreakLabel();
     }
 
+    public boolean inParallelLoop() {
+        return loop.peek().isParallel();
+    }
+
     public void enterLoop(Label continueLabel, Label breakLabel) {
-        loop.push(new LoopDescriptor(continueLabel, breakLabel));
+        loop.push(new LoopDescriptor(continueLabel, breakLabel, false));
+    }
+
+    /**
+     * Enters the sequential loop over one chunk of a parallel loop, it can be continued but not broken.
+     */
+    public void enterParallelLoop(Label continueLabel, Label breakLabel) {
+        loop.push(new LoopDescriptor(continueLabel, breakLabel, true));
     }
 
     public void exitLoop() {
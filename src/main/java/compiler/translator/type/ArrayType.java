@@ -5,17 +5,53 @@ import org.objectweb.asm.Type;
 import java.util.Arrays;
 
 /**
+ * Elements are stored in a flat array, the first index changes fastest. In the dense layout the
+ * offset is {@code x0 + len0 * (x1 + len1 * x2)}. The padded layout rounds the length of every
+ * dimension but the last up to a power of two, the offset is {@code x0 | (x1 << s0) | (x2 << s0 + s1)}.
+ *
  * @author Arkady Rost
  */
 public class ArrayType implements DataType {
     private final PrimitiveType type;
     private final Range[] dimensions;
+    private final int[] shifts;
 
     public ArrayType(PrimitiveType type, Range... dimensions) {
+        this(type, null, dimensions);
+    }
+
+    private ArrayType(PrimitiveType type, int[] shifts, Range... dimensions) {
         this.type = type;
+        this.shifts = shifts;
         this.dimensions = dimensions;
     }
 
+    /**
+     * @param maxOverhead percent of the dense size the padding may add
+     * @return array in the padded layout, or in the dense one if it has a single dimension or the
+     * padding would take more memory
+     */
+    public static ArrayType padded(PrimitiveType type, int maxOverhead, Range... dimensions) {
+        if (dimensions.length < 2)
+            return new ArrayType(type, dimensions);
+        int[] shifts = new int[dimensions.length - 1];
+        long dense = 1;
+        long padded = 1;
+        for (int i = 0; i < dimensions.length; i++) {
+            int length = dimensions[i].getLength();
+            dense *= length;
+            if (i < shifts.length) {
+                shifts[i] = 32 - Integer.numberOfLeadingZeros(length - 1);
+                padded <<= shifts[i];
+            } else {
+                padded *= length;
+            }
+        }
+        if (padded > Integer.MAX_VALUE || padded * 100 > dense * (100 + maxOverhead))
+            return new ArrayType(type, dimensions);
+        return new ArrayType(type, shifts, dimensions);
+    }
+
     public Range[] getDimensions() {
         return dimensions;
     }
@@ -33,10 +69,36 @@ public class ArrayType implements DataType {
         return type;
     }
 
+    public boolean isPadded() {
+        return shifts != null;
+    }
+
+    /**
+     * @return binary logarithm of the padded length of the dimension, only for padded arrays
+     * and dimensions but the last
+     */
+    public int getShift(int i) {
+        return shifts[i];
+    }
+
+    /**
+     * @return distance in the flat array between elements whose indexes differ by one in the
+     * dimension
+     */
+    public int getStride(int i) {
+        int stride = 1;
+        for (int j = 0; j < i; j++)
+            stride = isPadded() ? stride << shifts[j] : stride * dimensions[j].getLength();
+        return stride;
+    }
+
+    /**
+     * @return length of the flat array
+     */
     public int getSize() {
-        int size = 1;
-        for (Range d : dimensions)
-            size *= d.getLength();
+        int size = dimensions[dimensions.length - 1].getLength();
+        for (int i = 0; i < dimensions.length - 1; i++)
+            size = isPadded() ? size << shifts[i] : size * dimensions[i].getLength();
         return size;
     }
 
@@ -59,7 +121,7 @@ public class ArrayType implements DataType {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ArrayType arrayType = (ArrayType) o;
-        return Arrays.equals(dimensions, arrayType.dimensions) && !(type != null ? !type.equals(arrayType.type) : arrayType.type != null);
+        return Arrays.equals(dimensions, arrayType.dimensions) && Arrays.equals(shifts, arrayType.shifts) && !(type != null ? !type.equals(arrayType.type) : arrayType.type != null);
 
     }
 
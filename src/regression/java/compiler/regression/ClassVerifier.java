@@ -0,0 +1,90 @@
+package compiler.regression;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+/**
+ * Loads and initializes compiled classes for {@link RegressionHarness} in a JVM of its own, run
+ * with {@code -Xverify:all}. The classes are checked against the stack map frames written by the
+ * translator, which never lets ASM compute them. Older JVMs fall back to inferring the types
+ * themselves when the frames of a class older than Java 8 are wrong, so every class is raised to
+ * version 52 before it's defined, which has no such fallback. Exits with status 1 at the first
+ * class failing.
+ *
+ * @author Arkady Rost
+ */
+public class ClassVerifier {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ClassVerifier <directory of classes> <class>...");
+            System.exit(1);
+        }
+        ClassLoader loader = new VersionRaisingLoader(new File(args[0]));
+        for (int i = 1; i < args.length; i++) {
+            try {
+                Class.forName(args[i], true, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                System.err.println("Failed to verify " + args[i] + ": " + e);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Defines the classes of the directory itself, units used by a program included, everything
+     * else comes from the class path.
+     */
+    private static class VersionRaisingLoader extends ClassLoader {
+        private final File directory;
+
+        VersionRaisingLoader(File directory) {
+            super(ClassVerifier.class.getClassLoader());
+            this.directory = directory;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                File file = new File(directory, name.replace('.', '/') + ".class");
+                if (!file.isFile())
+                    return super.loadClass(name, resolve);
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    byte[] bytes;
+                    try {
+                        bytes = raiseVersion(Files.readAllBytes(file.toPath()));
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                    c = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve)
+                    resolveClass(c);
+                return c;
+            }
+        }
+    }
+
+    /**
+     * @return the class with its code and frames copied as they are and version 52 if it was older
+     */
+    static byte[] raiseVersion(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(ASM5, writer) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(Math.max(version, V1_8), access, name, signature, superName, interfaces);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,52 @@
+package compiler.regression;
+
+import com.sun.management.ThreadMXBean;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs a compiled program once for {@link RegressionHarness}, in a JVM of its own, so every run
+ * starts with fresh globals and nothing compiled by the JIT. Writes the bytes allocated and the
+ * microseconds spent by the main method to a file, the output of the program goes to its stdout
+ * as usual. Allocations are counted for the threads alive at the end, which include the workers
+ * of parallel loops.
+ *
+ * @author Arkady Rost
+ */
+public class ProgramProbe {
+    public static void main(String[] args) throws Throwable {
+        if (args.length != 2) {
+            System.err.println("Usage: ProgramProbe <program class> <metrics file>");
+            System.exit(1);
+        }
+        Method main = Class.forName(args[0], false, ProgramProbe.class.getClassLoader()).getMethod("main", String[].class);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = -allocated(threads);
+        long start = System.nanoTime();
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        long time = System.nanoTime() - start;
+        allocated += allocated(threads);
+        System.out.flush();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8)) {
+            out.write("allocated " + allocated + "\n");
+            out.write("time " + time / 1000 + "\n");
+        }
+    }
+
+    private static long allocated(ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,473 @@
+package compiler.regression;
+
+import compiler.Compiler;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles a corpus of programs and measures the code generated for them, so a change of the
+ * translator making programs larger or slower shows up against a baseline. Every metric is a
+ * {@code <key> <value>} line of the report, in the order of the corpus, so two reports can be
+ * compared with diff:
+ *
+ * <pre>
+ * Sort.bytes 412                        length of the code of all methods of the program
+ * Sort.instructions 230
+ * Sort.allocated 16544                  bytes allocated by the program, fewest of all runs
+ * Sort.time 8123                        microseconds the program ran, shortest of all runs
+ * Sort.output 2854263694                CRC-32 of what the program printed
+ * Sort/Sort.main([Ljava/lang/String;)V.bytes 398
+ * Sort/Sort.main([Ljava/lang/String;)V.instructions 220
+ * </pre>
+ *
+ * A program metric growing by more than its threshold percent over the baseline, or any change
+ * of the output, is a regression and fails the run. Changed method metrics are listed in the
+ * comparison to tell where a program changed, but don't fail it. Every class is loaded by
+ * {@link ClassVerifier} under {@code -Xverify:all}, a class failing it fails the run too. Units are measured but not run,
+ * and neither are programs reading the standard input, there's none to give them fixed input.
+ *
+ * <pre>
+ * RegressionHarness [-baseline=&lt;file&gt;] [-local=&lt;file&gt;] [-report=&lt;file&gt;] [-work=&lt;dir&gt;]
+ *                   [-runs=&lt;n&gt;] [-bytes=&lt;%&gt;] [-instructions=&lt;%&gt;] [-allocated=&lt;%&gt;]
+ *                   [-time=&lt;%&gt;] [-update] &lt;source or directory of sources&gt;...
+ * </pre>
+ *
+ * Times and allocations depend on the machine, so the baseline only keeps the code metrics and
+ * outputs, the others are kept apart in the local baseline, {@code local-baseline.txt} of the work
+ * directory by default. The first run on a machine records its local baseline, the next ones are
+ * compared with it. {@code -update} makes the report the new baseline, both of them.
+ *
+ * @author Arkady Rost
+ */
+public class RegressionHarness {
+    private static final String BYTES = "bytes";
+    private static final String INSTRUCTIONS = "instructions";
+    private static final String ALLOCATED = "allocated";
+    private static final String TIME = "time";
+    private static final String OUTPUT = "output";
+    /**
+     * Microseconds a program may run longer whatever its threshold, the time of a short program
+     * varies by more than its threshold from run to run.
+     */
+    private static final long TIME_NOISE = 1000;
+
+    private final File work;
+    private final int runs;
+    private final Map<String, Integer> thresholds = new HashMap<>();
+    private final Map<String, Long> report = new LinkedHashMap<>();
+
+    private RegressionHarness(File work, int runs) {
+        this.work = work;
+        this.runs = runs;
+        thresholds.put(BYTES, 2);
+        thresholds.put(INSTRUCTIONS, 2);
+        thresholds.put(ALLOCATED, 10);
+        thresholds.put(TIME, 30);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File baseline = null;
+        File local = null;
+        File reportFile = new File("regression-report.txt");
+        File work = new File("regression");
+        int runs = 3;
+        boolean update = false;
+        Map<String, Integer> thresholds = new HashMap<>();
+        List<File> sources = new ArrayList<>();
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("-baseline=")) {
+                baseline = new File(value);
+            } else if (arg.startsWith("-local=")) {
+                local = new File(value);
+            } else if (arg.startsWith("-report=")) {
+                reportFile = new File(value);
+            } else if (arg.startsWith("-work=")) {
+                work = new File(value);
+            } else if (arg.startsWith("-runs=")) {
+                runs = parsePositive(arg, value);
+            } else if (arg.equals("-update") || arg.startsWith("-update=")) {
+                update = arg.equals("-update") || Boolean.parseBoolean(value);
+            } else if (arg.startsWith("-") && arg.contains("=")) {
+                thresholds.put(arg.substring(1, arg.indexOf('=')), parsePositive(arg, value));
+            } else if (arg.startsWith("-")) {
+                usage("Unknown option: " + arg);
+            } else {
+                sources.addAll(sources(new File(arg)));
+            }
+        }
+        if (sources.isEmpty())
+            usage("Expected sources to measure.");
+        if (update && baseline == null)
+            usage("-update needs -baseline=<file>.");
+        if (local == null)
+            local = new File(work, "local-baseline.txt");
+
+        RegressionHarness harness = new RegressionHarness(work, runs);
+        for (Map.Entry<String, Integer> threshold : thresholds.entrySet()) {
+            if (!harness.thresholds.containsKey(threshold.getKey()))
+                usage("Unknown option: -" + threshold.getKey());
+            harness.thresholds.put(threshold.getKey(), threshold.getValue());
+        }
+        boolean measured = harness.measure(sources);
+        write(reportFile, harness.report);
+        System.out.println("Wrote " + harness.report.size() + " metrics to " + reportFile);
+        if (!measured)
+            System.exit(1);
+        if (update || !local.isFile()) {
+            write(local, harness.metrics(true));
+            System.out.println((update ? "Updated" : "Recorded") + " local baseline " + local);
+        }
+        if (update) {
+            write(baseline, harness.metrics(false));
+            System.out.println("Updated baseline " + baseline);
+        } else if (baseline != null && baseline.isFile()) {
+            Map<String, Long> metrics = read(baseline);
+            metrics.putAll(read(local));
+            File comparison = new File(reportFile.getParentFile(), "comparison.txt");
+            int regressions = harness.compare(metrics, comparison);
+            if (regressions > 0)
+                System.exit(1);
+        } else if (baseline != null) {
+            System.out.println("No baseline " + baseline + " to compare with, run with -update to record one.");
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: RegressionHarness [-baseline=<file>] [-local=<file>] [-report=<file>] [-work=<dir>]"
+                + " [-runs=<n>] [-bytes=<%>] [-instructions=<%>] [-allocated=<%>] [-time=<%>] [-update]"
+                + " <source or directory>...");
+        System.exit(1);
+    }
+
+    private static int parsePositive(String arg, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 0)
+                return number;
+        } catch (NumberFormatException ignored) {
+        }
+        usage("Expected a number in " + arg);
+        return -1;
+    }
+
+    /**
+     * @return the source or the sources of the directory, units first so programs can use them
+     */
+    private static List<File> sources(File path) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (path.isDirectory()) {
+            File[] children = path.listFiles();
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && child.getName().endsWith(".pas"))
+                    files.add(child);
+            }
+        } else {
+            files.add(path);
+        }
+        List<File> units = new ArrayList<>();
+        for (File file : files) {
+            String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            if (text.startsWith("unit") && text.length() > 4 && Character.isWhitespace(text.charAt(4)))
+                units.add(file);
+        }
+        files.removeAll(units);
+        units.addAll(files);
+        return units;
+    }
+
+    /**
+     * Compiles every source into the work directory, where the units are found by the programs
+     * after them, and measures the classes it produced. The classes are loaded first, so each of
+     * them passes the verifier even if the program isn't run.
+     *
+     * @return whether every source compiled, every class passed the verifier and every program ran
+     */
+    private boolean measure(List<File> sources) throws IOException, InterruptedException {
+        File classes = new File(work, "classes");
+        File runDirectory = new File(work, "runs");
+        if (!classes.isDirectory() && !classes.mkdirs() || !runDirectory.isDirectory() && !runDirectory.mkdirs())
+            throw new IOException("Can't create " + classes + " and " + runDirectory);
+        for (File file : classes.listFiles())
+            Files.delete(file.toPath());
+        boolean measured = true;
+        for (File source : sources) {
+            Set<String> before = new HashSet<>(Arrays.asList(classes.list()));
+            ByteArrayOutputStream messages = new ByteArrayOutputStream();
+            int status = Compiler.run(new String[]{source.getAbsolutePath()}, classes, new PrintStream(messages), System.err);
+            if (status != 0) {
+                System.err.println("Failed to compile " + source);
+                measured = false;
+                continue;
+            }
+            Map<ClassNode, Map<String, Integer>> nodes = new LinkedHashMap<>();
+            String program = null;
+            boolean reads = false;
+            String[] names = classes.list();
+            Arrays.sort(names);
+            for (String name : names) {
+                if (before.contains(name) || !name.endsWith(".class"))
+                    continue;
+                ClassReader reader = new ClassReader(Files.readAllBytes(new File(classes, name).toPath()));
+                ClassNode node = new ClassNode();
+                reader.accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                nodes.put(node, codeLengths(reader));
+                for (Object m : node.methods) {
+                    MethodNode method = (MethodNode) m;
+                    if ("main".equals(method.name) && "([Ljava/lang/String;)V".equals(method.desc))
+                        program = node.name;
+                    reads |= readsInput(method);
+                }
+            }
+            if (program == null) {
+                // a unit, named by its class
+                program = nodes.keySet().iterator().next().name;
+            }
+            measureCode(program, nodes);
+            if (!verify(nodes.keySet(), classes)) {
+                measured = false;
+                continue;
+            }
+            if (!reads && !new File(classes, program + ".unit").exists())
+                measured &= run(program, classes, runDirectory);
+        }
+        return measured;
+    }
+
+    /**
+     * Loads and initializes the classes with {@link ClassVerifier} in a new JVM, which verifies
+     * them against the stack map frames written by the translator.
+     */
+    private static boolean verify(Collection<ClassNode> nodes, File classes) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(java(), "-Xverify:all",
+                "-cp", System.getProperty("java.class.path"), ClassVerifier.class.getName(), classes.getAbsolutePath()));
+        for (ClassNode node : nodes)
+            command.add(node.name.replace('/', '.'));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        process.getOutputStream().close();
+        return process.waitFor() == 0;
+    }
+
+    private static String java() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    }
+
+    /**
+     * @param nodes classes of the program with the code lengths of their methods
+     */
+    private void measureCode(String program, Map<ClassNode, Map<String, Integer>> nodes) {
+        long bytes = 0;
+        long instructions = 0;
+        Map<String, Long> methods = new LinkedHashMap<>();
+        for (ClassNode node : nodes.keySet()) {
+            Map<String, Integer> lengths = nodes.get(node);
+            for (Object m : node.methods) {
+                MethodNode method = (MethodNode) m;
+                Integer length = lengths.get(method.name + method.desc);
+                if (length == null)
+                    continue;
+                int count = 0;
+                for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                    if (insn.getOpcode() >= 0)
+                        count++;
+                }
+                String key = program + "/" + node.name + "." + method.name + method.desc;
+                methods.put(key + "." + BYTES, (long) length);
+                methods.put(key + "." + INSTRUCTIONS, (long) count);
+                bytes += length;
+                instructions += count;
+            }
+        }
+        report.put(program + "." + BYTES, bytes);
+        report.put(program + "." + INSTRUCTIONS, instructions);
+        report.putAll(methods);
+    }
+
+    private static boolean readsInput(MethodNode method) {
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) insn;
+                if (call.owner.equals("compiler/runtime/PascalRuntime") && call.name.startsWith("read"))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the length of the code of every method from the class file, ASM doesn't keep it.
+     *
+     * @return lengths by method name and descriptor
+     */
+    private static Map<String, Integer> codeLengths(ClassReader reader) {
+        Map<String, Integer> lengths = new HashMap<>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+        // access flags, this class and super class, then the interfaces
+        int u = reader.header + 6;
+        u += 2 + 2 * reader.readUnsignedShort(u);
+        int fields = reader.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < fields; i++)
+            u = skipAttributes(reader, u + 6);
+        int methods = reader.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < methods; i++) {
+            String key = reader.readUTF8(u + 2, buffer) + reader.readUTF8(u + 4, buffer);
+            int attributes = reader.readUnsignedShort(u + 6);
+            u += 8;
+            for (int j = 0; j < attributes; j++) {
+                if ("Code".equals(reader.readUTF8(u, buffer)))
+                    lengths.put(key, reader.readInt(u + 10));
+                u += 6 + reader.readInt(u + 2);
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * @param u offset of the attribute count of a field
+     * @return offset after the attributes
+     */
+    private static int skipAttributes(ClassReader reader, int u) {
+        int attributes = reader.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < attributes; i++)
+            u += 6 + reader.readInt(u + 2);
+        return u;
+    }
+
+    /**
+     * Runs the program {@link #runs} times, each time in a new JVM, and keeps the fewest bytes
+     * allocated and the shortest time. The output of the first run is the one checked.
+     */
+    private boolean run(String program, File classes, File runDirectory) throws IOException, InterruptedException {
+        String java = java();
+        String classPath = classes.getAbsolutePath() + File.pathSeparator + System.getProperty("java.class.path");
+        File output = new File(runDirectory, program + ".out");
+        File metrics = new File(runDirectory, program + ".metrics");
+        long allocated = Long.MAX_VALUE;
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            Process process = new ProcessBuilder(java, "-cp", classPath, ProgramProbe.class.getName(), program, metrics.getPath())
+                    .redirectOutput(i == 0 ? output : new File(runDirectory, program + ".rerun"))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            process.getOutputStream().close();
+            if (process.waitFor() != 0) {
+                System.err.println("Failed to run " + program);
+                return false;
+            }
+            Map<String, Long> run = read(metrics);
+            allocated = Math.min(allocated, run.get(ALLOCATED));
+            time = Math.min(time, run.get(TIME));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(output.toPath()));
+        report.put(program + "." + ALLOCATED, allocated);
+        report.put(program + "." + TIME, time);
+        report.put(program + "." + OUTPUT, crc.getValue());
+        return true;
+    }
+
+    /**
+     * Prints the metrics that changed against the baseline and writes them to {@code file}.
+     *
+     * @return number of regressions
+     */
+    private int compare(Map<String, Long> baseline, File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int regressions = 0;
+        for (Map.Entry<String, Long> metric : report.entrySet()) {
+            String key = metric.getKey();
+            long value = metric.getValue();
+            Long base = baseline.get(key);
+            if (base == null) {
+                text.append(String.format("new        %s %d%n", key, value));
+                continue;
+            }
+            if (base == value)
+                continue;
+            String kind = key.substring(key.lastIndexOf('.') + 1);
+            if (OUTPUT.equals(kind)) {
+                text.append(String.format("REGRESSION %s changed%n", key));
+                regressions++;
+                continue;
+            }
+            double change = base == 0 ? 100 : 100.0 * (value - base) / base;
+            String verdict;
+            boolean noise = TIME.equals(kind) && value - base < TIME_NOISE;
+            if (change > thresholds.get(kind) && !noise && !key.contains("/")) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else {
+                verdict = value < base ? "improved  " : "changed   ";
+            }
+            text.append(String.format(Locale.ROOT, "%s %s %d -> %d (%+.1f%%)%n", verdict, key, base, value, change));
+        }
+        for (String key : baseline.keySet()) {
+            if (!report.containsKey(key) && !key.contains("/"))
+                text.append(String.format("removed    %s %d%n", key, baseline.get(key)));
+        }
+        text.append(String.format("%d regressions%n", regressions));
+        System.out.print(text);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(text.toString());
+        }
+        return regressions;
+    }
+
+    /**
+     * @return the metrics of the report depending on the machine, times and allocations, or all others
+     */
+    private Map<String, Long> metrics(boolean machine) {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> metric : report.entrySet()) {
+            String kind = metric.getKey().substring(metric.getKey().lastIndexOf('.') + 1);
+            if (machine == (TIME.equals(kind) || ALLOCATED.equals(kind)))
+                metrics.put(metric.getKey(), metric.getValue());
+        }
+        return metrics;
+    }
+
+    private static void write(File file, Map<String, Long> metrics) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Can't create " + parent);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write("# Generated code metrics, see " + RegressionHarness.class.getName() + "\n");
+            for (Map.Entry<String, Long> metric : metrics.entrySet())
+                out.write(metric.getKey() + " " + metric.getValue() + "\n");
+        }
+    }
+
+    /**
+     * Reads {@code <key> <value>} lines, skipping comments and blank lines.
+     */
+    private static Map<String, Long> read(File file) throws IOException {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            int space = line.lastIndexOf(' ');
+            try {
+                metrics.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                throw new IOException("Malformed metric in " + file + ": " + line, e);
+            }
+        }
+        return metrics;
+    }
+}